@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Append throughput of the chat log under each fsync policy, measured from the first append until close() returns with
+// everything on disk, followed by how long a reopen takes to rebuild a history window from the tail.
+// Usage: java ChatLogBenchmark [--messages=500000] [--body-bytes=120] [--history=200]
+public class ChatLogBenchmark {
+    public static void main(String[] args) throws IOException {
+        int messages = 500_000;
+        int bodyBytes = 120;
+        int historySize = 200;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--messages=")) messages = Integer.parseInt(value);
+            else if (arg.startsWith("--body-bytes=")) bodyBytes = Integer.parseInt(value);
+            else if (arg.startsWith("--history=")) historySize = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unrecognised option: " + arg);
+        }
+        String body = "x".repeat(bodyBytes);
+
+        EventLog events = new EventLog(1024);
+        System.out.printf("%d messages of %d bytes, history window %d%n", messages, bodyBytes, historySize);
+        System.out.printf("%-10s %12s %12s %14s%n", "fsync", "msgs/s", "MB/s", "restore(ms)");
+        for (ChatLog.FsyncPolicy policy : ChatLog.FsyncPolicy.values()) {
+            Path dir = Files.createTempDirectory("chatlog-bench");
+            try {
+                // Appends never wait; whatever the writer cannot keep up with is spilled and still counted in the time
+                ChatLog log = new ChatLog(dir, 64 * 1024 * 1024, policy, 1000, ChatLog.OverflowPolicy.SPILL, events);
+                long begin = System.nanoTime();
+                for (int i = 0; i < messages; i++) {
+                    log.appendBroadcast("member" + (i % 100), body);
+                }
+                log.close();
+                double seconds = (System.nanoTime() - begin) / 1e9;
+
+                long restoreBegin = System.nanoTime();
+                ChatLog reopened = new ChatLog(dir, 64 * 1024 * 1024, policy, 1000, ChatLog.OverflowPolicy.SPILL, events);
+                int restored = reopened.recentBroadcasts(historySize).size();
+                double restoreMillis = (System.nanoTime() - restoreBegin) / 1e6;
+                reopened.close();
+                if (restored != Math.min(historySize, messages) || reopened.nextOffset() != messages) {
+                    throw new IllegalStateException("Restored " + restored + " records");
+                }
+                System.out.printf("%-10s %12.0f %12.1f %14.2f%n", policy.name().toLowerCase(), messages / seconds,
+                        (double) messages * bodyBytes / seconds / (1024 * 1024), restoreMillis);
+            } finally {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+        events.close();
+    }
+}
@@ -0,0 +1,106 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures bytes allocated per dispatched line, comparing the old toLowerCase/startsWith/split dispatch with
+// CommandParser. Arguments are consumed as the server would, so the figures include the strings a handler must take.
+// Usage: java CommandDispatchBenchmark [iterations]
+// Needs a JVM that supports per thread allocation counting (com.sun.management.ThreadMXBean), as HotSpot does.
+public class CommandDispatchBenchmark {
+    private static final String[] LINES = {
+            "/broadcastHello everyone, the meeting moved to 12:30",
+            "/broadcastok",
+            "/privateAlice#0001:see you there",
+            "/get_members:42",
+            "/request_details",
+    };
+
+    private static final CommandParser COMMANDS = new CommandParser()
+            .add("/quit", 0, true, false)
+            .add("/broadcast", 1, false, false)
+            .add("/private", 2, false, true)
+            .add("/get_members", 3, true, false)
+            .add("/get_members:", 4, false, false)
+            .add("/request_details", 5, true, false)
+            .add("/server_shutdown", 6, true, false);
+
+    private static final LongAdder sink = new LongAdder(); // Keeps the results alive so nothing is optimised away
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        // Warm both paths up before measuring
+        run(false, iterations / 5, new CommandParser.Match());
+        run(true, iterations / 5, new CommandParser.Match());
+
+        System.out.printf("%-14s %14s %14s %14s%n", "dispatch", "bytes/msg", "bcast bytes", "ns/msg");
+        for (boolean parser : new boolean[]{false, true}) {
+            CommandParser.Match match = new CommandParser.Match();
+            long before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(parser, iterations, match);
+            long elapsed = System.nanoTime() - start;
+            double perMessage = (double) (threads.getThreadAllocatedBytes(thread) - before) / iterations;
+
+            long broadcastBefore = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < iterations; i++) {
+                dispatch(parser, LINES[0], match);
+            }
+            double perBroadcast = (double) (threads.getThreadAllocatedBytes(thread) - broadcastBefore) / iterations;
+            System.out.printf("%-14s %14.1f %14.1f %14.1f%n", parser ? "CommandParser" : "toLowerCase",
+                    perMessage, perBroadcast, (double) elapsed / iterations);
+        }
+        System.out.println("(sink " + sink.sum() + ")");
+    }
+
+    private static void run(boolean parser, int iterations, CommandParser.Match match) {
+        for (int i = 0; i < iterations; i++) {
+            dispatch(parser, LINES[i % LINES.length], match);
+        }
+    }
+
+    private static void dispatch(boolean parser, String line, CommandParser.Match match) {
+        if (parser) {
+            dispatchWithParser(line, match);
+        } else {
+            dispatchLegacy(line);
+        }
+    }
+
+    // The dispatch ClientHandler.handleMessage used before CommandParser
+    private static void dispatchLegacy(String message) {
+        if (message.equalsIgnoreCase("/quit")) return;
+        String lowerMessage = message.toLowerCase();
+        if (lowerMessage.startsWith("/broadcast")) {
+            consume(message.substring(10));
+        } else if (lowerMessage.startsWith("/private")) {
+            String[] parts = message.substring(8).split(":", 2);
+            consume(parts[0]);
+            consume(parts[1]);
+        } else if (lowerMessage.equals("/get_members")) {
+            sink.increment();
+        } else if (lowerMessage.startsWith("/get_members:")) {
+            sink.add(Long.parseLong(message.substring(13)));
+        } else if (lowerMessage.equals("/request_details")) {
+            sink.increment();
+        }
+    }
+
+    private static void dispatchWithParser(String message, CommandParser.Match match) {
+        if (!COMMANDS.parse(message, match)) return;
+        switch (match.opcode()) {
+            case 1 -> consume(match.argument(message));
+            case 2 -> {
+                consume(match.first(message));
+                consume(match.second(message));
+            }
+            case 4 -> sink.add(match.argumentAsLong(message));
+            default -> sink.increment();
+        }
+    }
+
+    private static void consume(String value) {
+        sink.add(value.length());
+    }
+}
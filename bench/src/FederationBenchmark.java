@@ -0,0 +1,175 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Broadcast throughput of a federated cluster at 1, 2 and 4 nodes, each node a separate Server process on loopback.
+// The binary clients are spread evenly over the nodes. Each sender then broadcasts --messages messages, and the clock
+// stops once every client has received every broadcast. "msgs/s" is broadcasts sent per second and "deliveries/s" the
+// frames received per second across all clients. On one machine the nodes share the same cores, so this measures what
+// forwarding costs rather than how far a cluster of real machines would scale.
+// Usage: java FederationBenchmark [--nodes=1,2,4] [--clients=40] [--senders=8] [--messages=1000]
+public class FederationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int[] nodeCounts = {1, 2, 4};
+        int clients = 40;
+        int senders = 8;
+        int messages = 1000;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--nodes=")) nodeCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+            else if (arg.startsWith("--clients=")) clients = Integer.parseInt(value);
+            else if (arg.startsWith("--senders=")) senders = Integer.parseInt(value);
+            else if (arg.startsWith("--messages=")) messages = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unrecognised option: " + arg);
+        }
+
+        System.out.printf("%d clients, %d senders x %d broadcasts%n", clients, senders, messages);
+        System.out.printf("%-6s %12s %14s %12s%n", "nodes", "msgs/s", "deliveries/s", "elapsed(ms)");
+        for (int nodes : nodeCounts) {
+            run(nodes, clients, senders, messages);
+        }
+    }
+
+    private static void run(int nodeCount, int clientCount, int senders, int messages) throws Exception {
+        List<Process> processes = new ArrayList<>();
+        List<Integer> clientPorts = new ArrayList<>();
+        List<String> peerAddresses = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                int clientPort = freePort();
+                int peerPort = freePort();
+                List<String> command = new ArrayList<>(List.of(
+                        ProcessHandle.current().info().command().orElse("java"), "--enable-preview", "-Xmx256m",
+                        "-cp", System.getProperty("java.class.path"), "Server", String.valueOf(clientPort),
+                        "--node-id=node" + (i + 1), "--peer-port=" + peerPort, "--peer-secret=bench",
+                        // Room for the whole burst, so a client that falls behind is not measured as dropping messages
+                        "--queue-capacity=" + (senders * messages + 1024), "--rate-chat=0"));
+                if (!peerAddresses.isEmpty()) {
+                    command.add("--peers=" + String.join(",", peerAddresses));
+                }
+                processes.add(new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.DISCARD).start());
+                clientPorts.add(clientPort);
+                peerAddresses.add("localhost:" + peerPort);
+            }
+
+            List<DataInputStream> inputs = new ArrayList<>();
+            List<OutputStream> outputs = new ArrayList<>();
+            for (int c = 0; c < clientCount; c++) {
+                Socket socket = connectWhenReady(clientPorts.get(c % nodeCount));
+                sockets.add(socket);
+                inputs.add(new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536)));
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+                outputs.add(out);
+                write(out, FrameCodec.CONNECT, "client" + c, null);
+                out.flush();
+            }
+            // Ready once the first client on every node sees the whole cluster in its member list
+            for (int n = 0; n < nodeCount; n++) {
+                awaitMembers(inputs.get(n), outputs.get(n), clientCount);
+            }
+
+            long expected = (long) senders * messages;
+            CountDownLatch done = new CountDownLatch(clientCount);
+            long[] received = new long[clientCount];
+            for (int c = 0; c < clientCount; c++) {
+                DataInputStream in = inputs.get(c);
+                int client = c;
+                Thread reader = new Thread(() -> {
+                    try {
+                        FrameCodec.Frame frame;
+                        while (received[client] < expected && (frame = FrameCodec.read(in)) != null) {
+                            if (frame.opcode() == FrameCodec.BROADCAST) received[client]++;
+                        }
+                    } catch (IOException ignored) {
+                        // Counted as done, the elapsed time would show it
+                    }
+                    done.countDown();
+                });
+                reader.setDaemon(true);
+                reader.start();
+            }
+
+            long begin = System.nanoTime();
+            List<Thread> senderThreads = new ArrayList<>();
+            for (int s = 0; s < senders; s++) {
+                OutputStream out = outputs.get(s % clientCount);
+                Thread sender = new Thread(() -> {
+                    try {
+                        for (int m = 0; m < messages; m++) {
+                            write(out, FrameCodec.BROADCAST, "message " + m, null);
+                        }
+                        out.flush();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+                senderThreads.add(sender);
+                sender.start();
+            }
+            for (Thread sender : senderThreads) {
+                sender.join();
+            }
+            if (!done.await(120, TimeUnit.SECONDS)) {
+                System.out.printf("%-6d timed out, %d clients still waiting, fewest received %d of %d%n", nodeCount,
+                        done.getCount(), Arrays.stream(received).min().orElse(0), expected);
+                return;
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("%-6d %12.0f %14.0f %12.0f%n", nodeCount, expected / seconds,
+                    expected * clientCount / seconds, seconds * 1000);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            for (Process process : processes) {
+                process.destroy();
+                process.waitFor(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static void awaitMembers(DataInputStream in, OutputStream out, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            write(out, FrameCodec.CONTROL, "/get_members", null);
+            out.flush();
+            FrameCodec.Frame frame;
+            while ((frame = FrameCodec.read(in)) != null) {
+                if (frame.opcode() == FrameCodec.CONTROL && frame.first().startsWith("MEMBER_LIST:")) break;
+            }
+            if (frame != null && frame.first().substring(12).split(",").length == expected) return;
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Cluster did not converge on " + expected + " members");
+    }
+
+    private static void write(OutputStream out, byte opcode, String first, String second) throws IOException {
+        ByteBuffer frame = FrameCodec.encode(opcode, first, second);
+        synchronized (out) {
+            out.write(frame.array(), 0, frame.remaining());
+        }
+    }
+
+    private static Socket connectWhenReady(int port) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Socket socket = new Socket("localhost", port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException ex) {
+                if (attempt > 100) throw ex;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import benchmarks.Fixture;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+
+// The server side of the JMH benchmarks. JMH will not generate code for benchmarks in the default package, and a named
+// package cannot see the server classes, so each benchmark in the benchmarks package loads one of these by name and
+// calls it through Fixture. Every fixture runs a real Server in test mode; clients are ClientHandlers over in-memory
+// sockets that swallow their output, so the queues, drainers and encodings are the real ones without a network
+public final class HotPathFixtures {
+    private static final String[] COMMANDS = {
+            "broadcast", "/broadcastSee everyone at 12:30 in the usual room",
+            "private", "/privateBob#0002:Are you coming to the meeting?",
+            "members", "/get_members:42",
+            "details", "/request_details",
+            "join", "/join general",
+            "channel", "/channel general:Standup moved to 10:15",
+            "unknown", "/not_a_command with some text"};
+
+    private HotPathFixtures() {
+    }
+
+    // Server.broadcastMessage to the given number of connected handlers
+    public static final class Broadcast implements Fixture {
+        private final Server server;
+
+        public Broadcast(String handlers) throws IOException {
+            server = startServer(new ServerConfig());
+            connect(server, Integer.parseInt(handlers));
+        }
+
+        @Override
+        public Object run() {
+            // A notice the server does not echo to its console, so only the fan-out is measured
+            server.broadcastMessage("SERVER_TIMEOUT:4:30");
+            return server;
+        }
+
+        @Override
+        public void close() {
+            server.shutdown();
+        }
+    }
+
+    // ClientHandler.handleLine on one kind of command: parsing, rate limiting and dispatch, with the server's handlers
+    // of each command stubbed out
+    public static final class CommandParsing implements Fixture {
+        private final Server server;
+        private final ClientHandler handler;
+        private final String line;
+
+        public CommandParsing(String command) throws IOException {
+            String found = null;
+            for (int i = 0; i < COMMANDS.length; i += 2) {
+                if (COMMANDS[i].equals(command)) found = COMMANDS[i + 1];
+            }
+            if (found == null) throw new IllegalArgumentException("Unknown command kind: " + command);
+            line = found;
+            ServerConfig config = new ServerConfig();
+            for (ServerConfig.CommandClass commandClass : ServerConfig.CommandClass.values()) {
+                config.setRateLimit(commandClass, 0, 1); // Measure the check, not the refusals
+            }
+            Server.testMode = true; // Shutting down must not exit the benchmark's JVM
+            server = quietly(() -> new Server(0, config) {
+                @Override public void broadcastChat(String from, String text) {}
+                @Override public void sendPrivateMessage(String from, String to, String message) {}
+                @Override public void sendMemberSnapshotIfChanged(ClientHandler handler, long clientEpoch) {}
+                @Override public void sendMemberDetails(String clientId) {}
+                @Override public void joinChannel(ClientHandler handler, String name) {}
+                @Override public void sendChannelMessage(ClientHandler sender, String name, String message) {}
+            });
+            InMemorySocket socket = new InMemorySocket(0);
+            socket.closed = false;
+            handler = new ClientHandler(socket, server);
+        }
+
+        @Override
+        public Object run() {
+            return handler.handleLine(line);
+        }
+
+        @Override
+        public void close() {
+            server.shutdown();
+        }
+    }
+
+    // Server.getInactiveMemberList with the given number of members who have left
+    public static final class InactiveMembers implements Fixture {
+        private final Server server;
+
+        public InactiveMembers(String size) throws IOException {
+            int count = Integer.parseInt(size);
+            server = startServer(new ServerConfig().setInactiveMemberLimit(count));
+            quietly(() -> {
+                for (int i = 0; i < count; i++) {
+                    server.removeClient(String.format("Member#%05d", i));
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public Object run() {
+            return server.getInactiveMemberList();
+        }
+
+        @Override
+        public void close() {
+            server.shutdown();
+        }
+    }
+
+    // Server.sendMemberDetails, formatting every connected member for the one who asked
+    public static final class MemberDetails implements Fixture {
+        private final Server server;
+
+        public MemberDetails(String members) throws IOException {
+            server = startServer(new ServerConfig());
+            connect(server, Integer.parseInt(members));
+        }
+
+        @Override
+        public Object run() {
+            server.sendMemberDetails("Member#00000");
+            return server;
+        }
+
+        @Override
+        public void close() {
+            server.shutdown();
+        }
+    }
+
+    private static Server startServer(ServerConfig config) throws IOException {
+        Server.testMode = true; // Shutting down must not exit the benchmark's JVM
+        return quietly(() -> new Server(0, config));
+    }
+
+    // Registers the handlers with their sockets still closed, so each join's announcement to everyone already there is
+    // skipped rather than queued; otherwise setting up 10k members would cost 50M queued messages
+    private static void connect(Server server, int count) throws IOException {
+        InMemorySocket[] sockets = new InMemorySocket[count];
+        quietly(() -> {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new InMemorySocket(40000 + i % 20000);
+                server.registerClient(String.format("Member#%05d", i), new ClientHandler(sockets[i], server));
+            }
+            return null;
+        });
+        for (InMemorySocket socket : sockets) {
+            socket.closed = false;
+        }
+    }
+
+    private interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+
+    // Setup prints a line per member joining or leaving; with thousands of them that would bury the JMH output
+    private static synchronized <T> T quietly(IoSupplier<T> setup) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return setup.get();
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // A connected looking socket that discards everything written to it and never has anything to read. Starts out
+    // closed, so nothing is queued for it until the fixture is ready
+    private static final class InMemorySocket extends Socket {
+        private final int port;
+        private volatile boolean closed = true;
+
+        InMemorySocket(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
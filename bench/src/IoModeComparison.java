@@ -0,0 +1,229 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compares the server's IO modes by connecting N loopback clients and reporting platform thread count, process RSS
+// and how long a broadcast takes to reach every client.
+// Usage: java IoModeComparison [connections...] [--modes=threaded,virtual,nio] [--rounds=20]
+// The clients share this JVM (one selector thread reads all of them), so RSS covers both ends of every connection.
+public class IoModeComparison {
+    private static final byte[] MARKER = "/broadcastbench:".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> sizes = new ArrayList<>();
+        List<ServerConfig.IoMode> modes = new ArrayList<>(List.of(ServerConfig.IoMode.values()));
+        int rounds = 20;
+        for (String arg : args) {
+            if (arg.startsWith("--modes=")) {
+                modes.clear();
+                for (String mode : arg.substring(8).split(",")) {
+                    modes.add(ServerConfig.IoMode.valueOf(mode.toUpperCase()));
+                }
+            } else if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring(9));
+            } else {
+                sizes.add(Integer.parseInt(arg));
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes = List.of(1000, 10000);
+        }
+        Server.testMode = true;
+        // The embedded server's event log writes every join to stdout, so the results go to the original stream
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        report.printf("%-9s %8s %9s %10s %14s %14s%n", "mode", "clients", "threads", "rss(MB)", "bcast p50(ms)", "bcast max(ms)");
+        for (int size : sizes) {
+            for (ServerConfig.IoMode mode : modes) {
+                runOne(report, mode, size, rounds);
+                System.gc();
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    private static void runOne(PrintStream report, ServerConfig.IoMode mode, int connections, int rounds) throws Exception {
+        int port = freePort();
+        Server server = new Server(port, new ServerConfig().setIoMode(mode)
+                .setRateLimit(ServerConfig.CommandClass.CHAT, 0, 1)
+                // The clients never answer PING, and a 10k join storm outlasts the default heartbeat interval
+                .setHeartbeatIntervalMillis(0));
+        LoopbackClients clients = new LoopbackClients(port, connections);
+        try {
+            clients.connectAll();
+            long deadline = System.currentTimeMillis() + 600_000;
+            while (countMembers(server) < connections) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out waiting for " + connections + " registrations");
+                }
+                Thread.sleep(100);
+            }
+            clients.awaitQuiet();
+
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long rssKb = residentSetKb();
+
+            long[] latencies = new long[rounds];
+            for (int round = 0; round < rounds; round++) {
+                clients.received.set(0);
+                long start = System.nanoTime();
+                server.broadcastMessage("/broadcastbench:" + round);
+                while (clients.received.get() < connections) {
+                    Thread.onSpinWait();
+                }
+                latencies[round] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            report.printf("%-9s %8d %9d %10.1f %14.2f %14.2f%n", mode.name().toLowerCase(), connections, threads,
+                    rssKb / 1024.0, latencies[rounds / 2] / 1e6, latencies[rounds - 1] / 1e6);
+        } finally {
+            // Shut the server down first. A running server announces every leave to the members still connected, so
+            // closing the clients first would end each run with a storm of MEMBER_REMOVED and Member Left frames that
+            // grows with the square of the connection count; once shutdown has begun, handlers close without announcing
+            server.shutdown();
+            clients.close();
+        }
+    }
+
+    private static int countMembers(Server server) {
+        String members = server.getMemberList();
+        if (members.isEmpty()) return 0;
+        int count = 1;
+        for (int i = 0; i < members.length(); i++) {
+            if (members.charAt(i) == ',') count++;
+        }
+        return count;
+    }
+
+    private static long residentSetKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException ignored) {
+            // Not on Linux, fall back to the heap
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // N non-blocking client connections drained by a single selector thread, counting benchmark broadcasts as they arrive
+    private static final class LoopbackClients implements Runnable {
+        private final int port;
+        private final int count;
+        private final Selector selector;
+        private final Thread reader;
+        private final List<SocketChannel> channels = new ArrayList<>();
+        final AtomicInteger received = new AtomicInteger();
+        private volatile long lastByteAt = System.nanoTime();
+        private volatile boolean running = true;
+
+        LoopbackClients(int port, int count) throws IOException {
+            this.port = port;
+            this.count = count;
+            this.selector = Selector.open();
+            this.reader = new Thread(this, "LoopbackClients");
+            reader.setDaemon(true);
+        }
+
+        void connectAll() throws IOException {
+            reader.start();
+            for (int i = 0; i < count; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                channel.write(ByteBuffer.wrap(("/connect:bench" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+                channel.configureBlocking(false);
+                channels.add(channel);
+                synchronized (this) {
+                    selector.wakeup();
+                    channel.register(selector, SelectionKey.OP_READ, new LineScanner());
+                }
+            }
+        }
+
+        // Waits until the join storm's member list traffic has been fully read
+        void awaitQuiet() throws InterruptedException {
+            while (System.nanoTime() - lastByteAt < 1_000_000_000L) {
+                Thread.sleep(100);
+            }
+        }
+
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (running) {
+                try {
+                    selector.select(100);
+                    synchronized (this) {
+                        // Lets connectAll register channels between selects
+                    }
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        buffer.clear();
+                        int read = ((SocketChannel) key.channel()).read(buffer);
+                        if (read < 0) {
+                            key.cancel();
+                            continue;
+                        }
+                        lastByteAt = System.nanoTime();
+                        buffer.flip();
+                        received.addAndGet(((LineScanner) key.attachment()).scan(buffer));
+                    }
+                } catch (IOException | ClosedSelectorException ex) {
+                    if (running) {
+                        System.err.println("Client reader error: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+
+        void close() throws IOException {
+            running = false;
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+        }
+    }
+
+    // Counts lines that start with the benchmark marker without materialising any of the other traffic
+    private static final class LineScanner {
+        private int matched = 0;
+        private boolean lineStart = true;
+
+        int scan(ByteBuffer buffer) {
+            int hits = 0;
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    lineStart = true;
+                    matched = 0;
+                } else if (lineStart) {
+                    if (b == MARKER[matched]) {
+                        if (++matched == MARKER.length) {
+                            hits++;
+                            lineStart = false;
+                        }
+                    } else {
+                        lineStart = false;
+                    }
+                }
+            }
+            return hits;
+        }
+    }
+}
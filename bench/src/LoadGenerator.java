@@ -0,0 +1,313 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Simulates many chat clients against a Server on loopback, for capacity planning. Each client is a text protocol
+// connection with a virtual thread reading it and another sending: after /connect: it sends a random mix of /broadcast,
+// /private and /get_members at --rate messages per second (Poisson arrivals), plus the GUI's periodic /get_members:<epoch>
+// check, and answers the server's PING. Chat payloads carry the send time, so every delivery gives an end-to-end latency.
+// Clients and the server (unless --port points at one already running) share this JVM and its clock.
+// Broadcasts reach every client, so their share of the mix decides how much the server has to deliver: 1000 clients
+// sending one broadcast every 10 s already means 100k deliveries a second.
+// Usage: java LoadGenerator [--clients=1000] [--duration-seconds=30] [--rate=0.1] [--mix=broadcast:20,private:70,members:10]
+//        [--member-poll-seconds=60] [--connect-rate=0] [--host=localhost] [--port=<port>] [--io=nio]
+public class LoadGenerator {
+    private static final String MARKER = "LG:"; // Precedes the send time in chat payloads
+
+    private final PrintStream report; // The embedded server logs every message to System.out, so results go here
+    private final String host;
+    private final int port;
+    private final int clientCount;
+    private final double ratePerClient;
+    private final double[] mix; // Cumulative shares of broadcast, private and members
+    private final long memberPollNanos;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final CountDownLatch registered;
+    private volatile boolean sending = true;
+
+    // Results
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder broadcastsSent = new LongAdder();
+    private final LongAdder privatesSent = new LongAdder();
+    private final LongAdder memberRequestsSent = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    private LoadGenerator(PrintStream report, String host, int port, int clientCount, double ratePerClient, double[] mix,
+                          long memberPollNanos) {
+        this.report = report;
+        this.host = host;
+        this.port = port;
+        this.clientCount = clientCount;
+        this.ratePerClient = ratePerClient;
+        this.mix = mix;
+        this.memberPollNanos = memberPollNanos;
+        this.registered = new CountDownLatch(clientCount);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = -1;
+        int clients = 1000;
+        int durationSeconds = 30;
+        double rate = 0.1;
+        String mixSpec = "broadcast:20,private:70,members:10";
+        int memberPollSeconds = 60; // ChatClientGUI's member timer
+        double connectRate = 0;
+        ServerConfig.IoMode io = ServerConfig.IoMode.NIO;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--clients=")) clients = Integer.parseInt(value);
+            else if (arg.startsWith("--duration-seconds=")) durationSeconds = Integer.parseInt(value);
+            else if (arg.startsWith("--rate=")) rate = Double.parseDouble(value);
+            else if (arg.startsWith("--mix=")) mixSpec = value;
+            else if (arg.startsWith("--member-poll-seconds=")) memberPollSeconds = Integer.parseInt(value);
+            else if (arg.startsWith("--connect-rate=")) connectRate = Double.parseDouble(value);
+            else if (arg.startsWith("--host=")) host = value;
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(value);
+            else if (arg.startsWith("--io=")) io = ServerConfig.IoMode.valueOf(value.toUpperCase());
+            else throw new IllegalArgumentException("Unrecognised option: " + arg);
+        }
+
+        PrintStream report = System.out;
+        Server server = null;
+        if (port < 0) {
+            Server.testMode = true;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            port = freePort();
+            ServerConfig config = new ServerConfig().setIoMode(io).setOutboundQueueCapacity(8192);
+            for (ServerConfig.CommandClass commandClass : ServerConfig.CommandClass.values()) {
+                config.setRateLimit(commandClass, 0, 1); // Measure the server, not its flood protection
+            }
+            server = new Server(port, config);
+        }
+        LoadGenerator generator = new LoadGenerator(report, host, port, clients, rate, parseMix(mixSpec),
+                TimeUnit.SECONDS.toNanos(memberPollSeconds));
+        try {
+            generator.run(durationSeconds, connectRate, mixSpec);
+        } finally {
+            generator.close();
+            if (server != null) {
+                server.shutdown();
+                System.setOut(report);
+            }
+        }
+    }
+
+    private void run(int durationSeconds, double connectRate, String mixSpec) throws Exception {
+        report.printf("%d clients, %.2f msgs/s each (%s), member poll every %d s, %d s run%n", clientCount,
+                ratePerClient, mixSpec, TimeUnit.NANOSECONDS.toSeconds(memberPollNanos), durationSeconds);
+
+        // Connect phase: every client connected and welcomed by the server
+        long begin = System.nanoTime();
+        long connectGapNanos = connectRate > 0 ? (long) (1e9 / connectRate) : 0;
+        for (int i = 0; i < clientCount; i++) {
+            if (connectGapNanos > 0) {
+                long due = begin + i * connectGapNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            try {
+                Client client = new Client("lg" + i);
+                clients.add(client);
+                client.start();
+            } catch (IOException ex) {
+                connectFailures.increment();
+                registered.countDown();
+            }
+        }
+        if (!registered.await(300, TimeUnit.SECONDS)) {
+            report.printf("Only %d of %d clients registered within 300 s%n", clientCount - registered.getCount(), clientCount);
+        }
+        double connectSeconds = (System.nanoTime() - begin) / 1e9;
+        report.printf("connect     %d clients in %.2f s, %.0f/s, %d failed%n", clients.size(), connectSeconds,
+                clients.size() / connectSeconds, connectFailures.sum());
+
+        // Load phase
+        latency.reset();
+        deliveries.reset();
+        long loadStart = System.nanoTime();
+        for (Client client : clients) {
+            client.startSending(loadStart);
+        }
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        sending = false;
+        double loadSeconds = (System.nanoTime() - loadStart) / 1e9;
+        TimeUnit.SECONDS.sleep(2); // Let messages already sent arrive
+        double drainSeconds = (System.nanoTime() - loadStart) / 1e9;
+
+        long sent = broadcastsSent.sum() + privatesSent.sum() + memberRequestsSent.sum();
+        report.printf("sent        %.0f msgs/s (%d broadcast, %d private, %d member requests)%n", sent / loadSeconds,
+                broadcastsSent.sum(), privatesSent.sum(), memberRequestsSent.sum());
+        report.printf("delivered   %.0f msgs/s (%d chat messages received)%n", deliveries.sum() / drainSeconds,
+                deliveries.sum());
+        report.printf("latency     p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n", latency.percentile(0.5) / 1e6,
+                latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6, latency.max() / 1e6);
+        report.printf("throttled   %d RATE_LIMITED replies, %d clients disconnected%n", rateLimited.sum(), disconnects.sum());
+    }
+
+    private void close() {
+        sending = false;
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    // "broadcast:20,private:70,members:10" as cumulative shares
+    private static double[] parseMix(String spec) {
+        double[] weights = new double[3];
+        for (String part : spec.split(",")) {
+            String[] kv = part.split(":");
+            int index = switch (kv[0]) {
+                case "broadcast" -> 0;
+                case "private" -> 1;
+                case "members" -> 2;
+                default -> throw new IllegalArgumentException("Unknown message kind in mix: " + kv[0]);
+            };
+            weights[index] = Double.parseDouble(kv[1]);
+        }
+        double total = weights[0] + weights[1] + weights[2];
+        if (total <= 0) throw new IllegalArgumentException("Mix must have a positive weight");
+        return new double[]{weights[0] / total, (weights[0] + weights[1]) / total, 1.0};
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // One simulated user: a virtual thread reads its connection, another sends once the load phase starts
+    private final class Client {
+        private final String id;
+        private final Socket socket;
+        private final OutputStream out;
+        private volatile long memberEpoch = -1; // As the GUI tracks it, for its /get_members:<epoch> check
+        private boolean welcomed;
+
+        Client(String id) throws IOException {
+            this.id = id;
+            this.socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), 10_000);
+            socket.setTcpNoDelay(true);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        }
+
+        void start() throws IOException {
+            send("/connect:" + id);
+            Thread.ofVirtual().name("reader-" + id).start(this::readLoop);
+        }
+
+        void startSending(long loadStart) {
+            Thread.ofVirtual().name("sender-" + id).start(() -> sendLoop(loadStart));
+        }
+
+        private void readLoop() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    handle(line);
+                }
+            } catch (IOException ignored) {
+                // Closed at the end of the run, or by the server
+            }
+            if (sending) {
+                disconnects.increment();
+            }
+            if (!welcomed) {
+                registered.countDown();
+            }
+        }
+
+        private void handle(String line) throws IOException {
+            if (line.startsWith("/broadcast") || line.startsWith("/private:")) {
+                int marker = line.indexOf(MARKER);
+                if (marker >= 0) {
+                    latency.record(System.nanoTime() - Long.parseLong(line, marker + MARKER.length(), line.length(), 10));
+                    deliveries.increment();
+                }
+            } else if (line.equals("PING")) {
+                send("/pong");
+            } else if (line.startsWith("COORDINATOR_") && !welcomed) {
+                welcomed = true; // Registration always answers with COORDINATOR_STATUS or COORDINATOR_INFO
+                registered.countDown();
+            } else if (line.startsWith("MEMBER_SNAPSHOT:")) {
+                memberEpoch = Long.parseLong(line, 16, line.length(), 10);
+            } else if (line.startsWith("MEMBER_ADDED:") || line.startsWith("MEMBER_REMOVED:")) {
+                int colon = line.indexOf(':', line.indexOf(':') + 1);
+                if (colon > 0) {
+                    memberEpoch = Long.parseLong(line, line.indexOf(':') + 1, colon, 10);
+                }
+            } else if (line.startsWith("RATE_LIMITED:")) {
+                rateLimited.increment();
+            }
+        }
+
+        private void sendLoop(long loadStart) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // Spread the member polls so the clients do not all check at the same moment
+            long nextPoll = memberPollNanos > 0 ? loadStart + (long) (random.nextDouble() * memberPollNanos) : Long.MAX_VALUE;
+            long nextMessage = ratePerClient > 0 ? loadStart + nextGap(random) : Long.MAX_VALUE;
+            try {
+                while (sending && !socket.isClosed()) {
+                    long due = Math.min(nextPoll, nextMessage);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, 100_000_000L)); // Wakes now and then to notice the end
+                        continue;
+                    }
+                    if (due == nextPoll) {
+                        if (memberEpoch >= 0) {
+                            send("/get_members:" + memberEpoch);
+                            memberRequestsSent.increment();
+                        }
+                        nextPoll += memberPollNanos;
+                    } else {
+                        sendMessage(random);
+                        nextMessage += nextGap(random);
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+                // Disconnected or finished
+            }
+        }
+
+        private long nextGap(ThreadLocalRandom random) {
+            return (long) (-Math.log(1 - random.nextDouble()) / ratePerClient * 1e9); // Poisson arrivals
+        }
+
+        private void sendMessage(ThreadLocalRandom random) throws IOException {
+            double pick = random.nextDouble();
+            if (pick < mix[0]) {
+                send("/broadcast" + MARKER + System.nanoTime());
+                broadcastsSent.increment();
+            } else if (pick < mix[1]) {
+                send("/private" + "lg" + random.nextInt(clientCount) + ":" + MARKER + System.nanoTime());
+                privatesSent.increment();
+            } else {
+                send("/get_members");
+                memberRequestsSent.increment();
+            }
+        }
+
+        // The reader answers PING while the sender sends, so writes are serialised per connection
+        private synchronized void send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+}
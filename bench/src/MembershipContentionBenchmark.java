@@ -0,0 +1,160 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Reconnect storm against Server.registerClient/removeClient: T threads each join and leave repeatedly while M idle
+// members are connected, and the time every call takes is recorded. Each send to a member spins for --send-nanos to
+// stand in for the cost of the fan-out. The "global lock" row wraps every call in one shared lock, which is how the
+// server behaved while membership changes were serialized behind their fan-out. "settle" is how long after the last
+// call returned the final announcement reached the members, i.e. how far delivery lagged behind the callers.
+// Usage: java MembershipContentionBenchmark [--threads=8] [--members=1000] [--cycles=200] [--send-nanos=500]
+public class MembershipContentionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int members = 1000;
+        int cycles = 200;
+        long sendNanos = 500;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(value);
+            else if (arg.startsWith("--members=")) members = Integer.parseInt(value);
+            else if (arg.startsWith("--cycles=")) cycles = Integer.parseInt(value);
+            else if (arg.startsWith("--send-nanos=")) sendNanos = Long.parseLong(value);
+            else throw new IllegalArgumentException("Unrecognised option: " + arg);
+        }
+        Server.testMode = true;
+
+        System.out.printf("%d threads x %d join/leave cycles, %d idle members, %d ns per send%n",
+                threads, cycles, members, sendNanos);
+        System.out.printf("%-12s %10s %10s %10s %10s %12s %14s%n", "mode", "ops/s", "p50(us)", "p99(us)", "max(us)",
+                "settle(ms)", "blocked calls");
+        for (boolean globalLock : new boolean[]{true, false}) {
+            run(globalLock, threads, members, cycles, sendNanos);
+        }
+    }
+
+    private static void run(boolean globalLock, int threads, int members, int cycles, long sendNanos) throws Exception {
+        Server server = new Server(freePort());
+        try {
+            for (int i = 0; i < members; i++) {
+                server.registerClient("idle" + i, new FakeClient(server, sendNanos));
+            }
+            ReentrantLock lock = new ReentrantLock();
+            long[][] latencies = new long[threads][cycles * 2];
+            int[] blocked = new int[threads]; // Calls that had to wait for the lock, only meaningful for the global lock
+            CyclicBarrier start = new CyclicBarrier(threads + 1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        FakeClient client = new FakeClient(server, sendNanos);
+                        start.await();
+                        for (int c = 0; c < cycles; c++) {
+                            String id = "storm" + worker + "-" + c;
+                            long begin = System.nanoTime();
+                            if (globalLock) {
+                                if (!lock.tryLock()) {
+                                    blocked[worker]++;
+                                    lock.lock();
+                                }
+                                try {
+                                    server.registerClient(id, client);
+                                } finally {
+                                    lock.unlock();
+                                }
+                            } else {
+                                server.registerClient(id, client);
+                            }
+                            long joined = System.nanoTime();
+                            if (globalLock) {
+                                if (!lock.tryLock()) {
+                                    blocked[worker]++;
+                                    lock.lock();
+                                }
+                                try {
+                                    server.removeClient(id);
+                                } finally {
+                                    lock.unlock();
+                                }
+                            } else {
+                                server.removeClient(id);
+                            }
+                            latencies[worker][c * 2] = joined - begin;
+                            latencies[worker][c * 2 + 1] = System.nanoTime() - joined;
+                        }
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                });
+                workers.add(thread);
+                thread.start();
+            }
+            start.await();
+            long begin = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            // A snapshot request is delivered after every change queued before it
+            CountDownLatch settled = new CountDownLatch(1);
+            long settleBegin = System.nanoTime();
+            server.sendMemberSnapshot(new FakeClient(server, 0) {
+                @Override
+                public void sendMessage(String message) {
+                    settled.countDown();
+                }
+            });
+            settled.await();
+            long settle = System.nanoTime() - settleBegin;
+
+            long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%-12s %10.0f %10.1f %10.1f %10.1f %12.1f %14d%n", globalLock ? "global lock" : "lock-free",
+                    all.length / (elapsed / 1e9), all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3,
+                    all[all.length - 1] / 1e3, settle / 1e6, Arrays.stream(blocked).sum());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // A member with no real connection; every send costs a fixed spin instead of socket IO
+    private static class FakeClient extends ClientHandler {
+        private final long sendNanos;
+
+        FakeClient(Server server, long sendNanos) throws IOException {
+            super(new FakeSocket(), server);
+            this.sendNanos = sendNanos;
+        }
+
+        @Override
+        public void sendMessage(String message) {
+            spin();
+        }
+
+        @Override
+        public void send(OutboundFrame frame) {
+            spin();
+        }
+
+        private void spin() {
+            long until = System.nanoTime() + sendNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static class FakeSocket extends Socket {
+        @Override public InputStream getInputStream() { return InputStream.nullInputStream(); }
+        @Override public OutputStream getOutputStream() { return OutputStream.nullOutputStream(); }
+        @Override public boolean isClosed() { return false; }
+    }
+}
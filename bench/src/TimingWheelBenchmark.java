@@ -0,0 +1,62 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cost of the server's timer wheel at heartbeat scale. Schedules --timers timeouts spread over --spread-ms, then measures
+// what it costs to cancel and reschedule every one of them (as a heartbeat does whenever a quiet client turns out to have
+// spoken), and finally how late the timeouts fire relative to their deadlines. Uses the server's 100 ms tick.
+// Usage: java TimingWheelBenchmark [--timers=100000] [--spread-ms=2000]
+public class TimingWheelBenchmark {
+    public static void main(String[] args) throws Exception {
+        int timers = 100_000;
+        int spreadMillis = 2000;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--timers=")) timers = Integer.parseInt(value);
+            else if (arg.startsWith("--spread-ms=")) spreadMillis = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Unrecognised option: " + arg);
+        }
+
+        EventLog log = new EventLog(1024);
+        TimingWheel wheel = new TimingWheel("BenchTimers", 100, 512, log);
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[timers];
+        Runnable nothing = () -> { };
+        long begin = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            timeouts[i] = wheel.schedule(nothing, 60_000 + i % spreadMillis, TimeUnit.MILLISECONDS);
+        }
+        long scheduleNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            timeouts[i].cancel();
+            timeouts[i] = wheel.schedule(nothing, 60_000 + i % spreadMillis, TimeUnit.MILLISECONDS);
+        }
+        long rescheduleNanos = System.nanoTime() - begin;
+        for (TimingWheel.Timeout timeout : timeouts) {
+            timeout.cancel();
+        }
+
+        CountDownLatch fired = new CountDownLatch(timers);
+        AtomicLong totalLateNanos = new AtomicLong();
+        AtomicLong maxLateNanos = new AtomicLong();
+        for (int i = 0; i < timers; i++) {
+            long delayMillis = 200 + i % spreadMillis;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            wheel.schedule(() -> {
+                long late = System.nanoTime() - deadline;
+                totalLateNanos.addAndGet(late);
+                maxLateNanos.accumulateAndGet(late, Math::max);
+                fired.countDown();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        fired.await();
+        wheel.stop();
+        log.close();
+
+        System.out.printf("%d timers over %d ms%n", timers, spreadMillis);
+        System.out.printf("schedule          %8.0f ns/op%n", (double) scheduleNanos / timers);
+        System.out.printf("cancel+reschedule %8.0f ns/op%n", (double) rescheduleNanos / timers);
+        System.out.printf("firing lateness   %8.1f ms mean, %.1f ms max%n", totalLateNanos.get() / 1e6 / timers,
+                maxLateNanos.get() / 1e6);
+    }
+}
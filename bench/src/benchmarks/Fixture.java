@@ -0,0 +1,16 @@
+package benchmarks;
+
+// One operation on a server set up for a benchmark. Implemented by HotPathFixtures in the default package, where the
+// server classes live, and loaded by name because a named package cannot refer to them
+public interface Fixture extends AutoCloseable {
+    // Performs the measured operation once; the result is handed to a Blackhole so the work cannot be optimised away
+    Object run();
+
+    @Override
+    void close();
+
+    // Instantiates HotPathFixtures.<name>, passing the benchmark parameter to its constructor
+    static Fixture create(String name, String parameter) throws Exception {
+        return (Fixture) Class.forName("HotPathFixtures$" + name).getConstructor(String.class).newInstance(parameter);
+    }
+}
@@ -0,0 +1,109 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Average time per call of the server's hot paths. Run through gradle :bench:jmh, which adds the GC profiler so
+// gc.alloc.rate.norm reports the bytes allocated per call alongside the time.
+// broadcast: Server.broadcastMessage fan-out to 10, 1k and 10k connected handlers. The handlers' drainers keep writing
+//   to their in-memory sockets meanwhile, as they would in production, so this includes contending with them.
+// parseCommand: ClientHandler.handleLine, the text protocol entry to handleMessage, for each kind of command.
+// inactiveMembers: Server.getInactiveMemberList with 1k, 10k and 100k members who have left.
+// memberDetails: Server.sendMemberDetails formatting 10, 1k and 10k members.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerHotPathBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class BroadcastState {
+        @Param({"10", "1000", "10000"})
+        public String handlers;
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = Fixture.create("Broadcast", handlers);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CommandState {
+        @Param({"broadcast", "private", "members", "details", "join", "channel", "unknown"})
+        public String command;
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = Fixture.create("CommandParsing", command);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class InactiveMembersState {
+        @Param({"1000", "10000", "100000"})
+        public String inactive;
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = Fixture.create("InactiveMembers", inactive);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fixture.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MemberDetailsState {
+        @Param({"10", "1000", "10000"})
+        public String members;
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            fixture = Fixture.create("MemberDetails", members);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fixture.close();
+        }
+    }
+
+    @Benchmark
+    public void broadcast(BroadcastState state, Blackhole blackhole) {
+        blackhole.consume(state.fixture.run());
+    }
+
+    @Benchmark
+    public void parseCommand(CommandState state, Blackhole blackhole) {
+        blackhole.consume(state.fixture.run());
+    }
+
+    @Benchmark
+    public void inactiveMembers(InactiveMembersState state, Blackhole blackhole) {
+        blackhole.consume(state.fixture.run());
+    }
+
+    @Benchmark
+    public void memberDetails(MemberDetailsState state, Blackhole blackhole) {
+        blackhole.consume(state.fixture.run());
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Named channels and who is subscribed to them. Each channel's subscribers are an immutable array replaced on every join
+// and leave, so a send reads one array and touches only that channel's members, with no lock at all. Joins and leaves
+// swap the array inside ConcurrentHashMap.compute, which only serializes changes to the same channel
+public class ChannelRegistry {
+    public static final int MAX_NAME_LENGTH = 32;
+    private static final ClientHandler[] NONE = new ClientHandler[0];
+
+    private final ConcurrentHashMap<String, ClientHandler[]> channels = new ConcurrentHashMap<>();
+    // The channels each connection has joined, so a disconnect can leave them all without scanning every channel
+    private final ConcurrentHashMap<ClientHandler, Set<String>> joined = new ConcurrentHashMap<>();
+
+    // The canonical form of a channel name as typed, e.g. " #General" becomes "general"; null if it is not a valid name.
+    // Names are kept free of ':' and ',' so they can be used as a field of any notice
+    public static String normalize(String name) {
+        if (name == null) return null;
+        String trimmed = name.strip();
+        if (trimmed.startsWith("#")) trimmed = trimmed.substring(1);
+        if (trimmed.isEmpty() || trimmed.length() > MAX_NAME_LENGTH) return null;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '.') return null;
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    // Returns false if the connection was already subscribed
+    public boolean join(String channel, ClientHandler handler) {
+        boolean[] added = {false};
+        channels.compute(channel, (_, subscribers) -> {
+            if (subscribers == null) {
+                added[0] = true;
+                return new ClientHandler[]{handler};
+            }
+            if (indexOf(subscribers, handler) >= 0) return subscribers;
+            added[0] = true;
+            ClientHandler[] next = Arrays.copyOf(subscribers, subscribers.length + 1);
+            next[subscribers.length] = handler;
+            return next;
+        });
+        if (added[0]) {
+            joined.computeIfAbsent(handler, _ -> ConcurrentHashMap.newKeySet()).add(channel);
+        }
+        return added[0];
+    }
+
+    // Returns false if the connection was not subscribed. A channel is dropped with its last subscriber
+    public boolean leave(String channel, ClientHandler handler) {
+        boolean[] removed = {false};
+        channels.computeIfPresent(channel, (_, subscribers) -> {
+            int index = indexOf(subscribers, handler);
+            if (index < 0) return subscribers;
+            removed[0] = true;
+            if (subscribers.length == 1) return null;
+            ClientHandler[] next = new ClientHandler[subscribers.length - 1];
+            System.arraycopy(subscribers, 0, next, 0, index);
+            System.arraycopy(subscribers, index + 1, next, index, next.length - index);
+            return next;
+        });
+        if (removed[0]) {
+            Set<String> names = joined.get(handler);
+            if (names != null) {
+                names.remove(channel);
+            }
+        }
+        return removed[0];
+    }
+
+    // Unsubscribes a departing connection from everything it joined
+    public void leaveAll(ClientHandler handler) {
+        Set<String> names = joined.remove(handler);
+        if (names == null) return;
+        for (String channel : names) {
+            leave(channel, handler);
+        }
+    }
+
+    // The current subscribers of a channel; the array is shared and must not be modified
+    public ClientHandler[] subscribers(String channel) {
+        ClientHandler[] subscribers = channels.get(channel);
+        return subscribers == null ? NONE : subscribers;
+    }
+
+    public boolean isSubscribed(String channel, ClientHandler handler) {
+        return indexOf(subscribers(channel), handler) >= 0;
+    }
+
+    // The channels a connection has joined, sorted by name
+    public List<String> channelsOf(ClientHandler handler) {
+        Set<String> names = joined.get(handler);
+        if (names == null) return List.of();
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    public int channelCount() {
+        return channels.size();
+    }
+
+    private static int indexOf(ClientHandler[] subscribers, ClientHandler handler) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == handler) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ChannelRegistryTest {
+
+    private static final Server SERVER = newServer();
+
+    private static Server newServer() {
+        Server.testMode = true;
+        try {
+            Server server = new Server(0);
+            server.shutdown(); // Only needed to construct handlers, nothing is ever sent through it
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ClientHandler handler() throws IOException {
+        return new ClientHandler(new Socket() {
+            @Override public InputStream getInputStream() { return InputStream.nullInputStream(); }
+            @Override public OutputStream getOutputStream() { return OutputStream.nullOutputStream(); }
+        }, SERVER);
+    }
+
+    @Test
+    public void testNormalize() {
+        System.out.println("Running testNormalize: Channel names are trimmed, lose a leading '#' and are folded to lower case.");
+        assertEquals("general", ChannelRegistry.normalize(" #General "));
+        assertEquals("dev-ops_2.0", ChannelRegistry.normalize("dev-ops_2.0"));
+        assertNull(ChannelRegistry.normalize(""));
+        assertNull(ChannelRegistry.normalize("#"));
+        assertNull(ChannelRegistry.normalize("a:b"), "A ':' would break the /channel line format");
+        assertNull(ChannelRegistry.normalize("x".repeat(ChannelRegistry.MAX_NAME_LENGTH + 1)));
+        System.out.println("testNormalize passed.");
+    }
+
+    @Test
+    public void testJoinLeaveAndLeaveAll() throws IOException {
+        System.out.println("Running testJoinLeaveAndLeaveAll: Subscriptions are tracked per channel and per connection.");
+        ChannelRegistry registry = new ChannelRegistry();
+        ClientHandler alice = handler();
+        ClientHandler bob = handler();
+        assertTrue(registry.join("general", alice));
+        assertFalse(registry.join("general", alice), "Joining twice should not subscribe twice");
+        assertTrue(registry.join("general", bob));
+        assertTrue(registry.join("random", alice));
+        assertEquals(2, registry.subscribers("general").length);
+        assertEquals(List.of("general", "random"), registry.channelsOf(alice));
+
+        assertTrue(registry.leave("general", bob));
+        assertFalse(registry.leave("general", bob));
+        assertArrayEquals(new ClientHandler[]{alice}, registry.subscribers("general"));
+
+        registry.leaveAll(alice);
+        assertEquals(0, registry.subscribers("general").length);
+        assertEquals(0, registry.channelCount(), "Channels should be dropped with their last subscriber");
+        assertEquals(List.of(), registry.channelsOf(alice));
+        System.out.println("testJoinLeaveAndLeaveAll passed.");
+    }
+
+    @Test
+    public void testConcurrentJoinAndLeave() throws Exception {
+        System.out.println("Running testConcurrentJoinAndLeave: Threads joining and leaving the same channels lose no subscriptions.");
+        ChannelRegistry registry = new ChannelRegistry();
+        int threads = 8;
+        List<ClientHandler> stayers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            stayers.add(handler());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            ClientHandler stayer = stayers.get(t);
+            ClientHandler churner = handler();
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    String channel = "room" + (i % 4);
+                    registry.join(channel, stayer);
+                    registry.join(channel, churner);
+                    registry.subscribers(channel); // A send racing the changes only ever sees a complete array
+                    registry.leave(channel, churner);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        for (int room = 0; room < 4; room++) {
+            Set<ClientHandler> subscribers = new HashSet<>(Arrays.asList(registry.subscribers("room" + room)));
+            assertEquals(new HashSet<>(stayers), subscribers, "Only the members who stayed should remain in room" + room);
+        }
+        System.out.println("testConcurrentJoinAndLeave passed.");
+    }
+}
@@ -3,8 +3,17 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
 
 public class ChatClientGUI extends JFrame {
@@ -26,7 +35,7 @@ public class ChatClientGUI extends JFrame {
     private JPanel serverInfoPanel;
     private JLabel statusLabel;
     private JLabel serverInfoLabel;
-    private JTextArea chatArea;
+    private JList<TranscriptModel.Row> chatList;
     private JPanel bottomPanel;
     private JComboBox<String> recipientBox;
     private JTextField messageField;
@@ -36,17 +45,95 @@ public class ChatClientGUI extends JFrame {
 
     // Member tracking components
     private JPanel memberListPanel;
-    private JTextArea activeMembersArea;
-    private JTextArea inactiveMembersArea;
+    private JList<String> activeMembersList;
+    private JList<String> inactiveMembersList;
     private JFrame memberFrame = null;
 
+    // Local copy of the membership, kept current by the server's MEMBER_ADDED/MEMBER_REMOVED deltas. The sets are the
+    // models of the coordinator's member lists, and the recipient box has its own, so a change touches only its own row
+    private static final String ALL_CHAT = "All Chat";
+    // Case-insensitive, with case breaking ties so the order stays consistent with equals
+    private static final Comparator<String> MEMBER_ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+    // All Chat first, then the joined channels, then the members
+    private static final Comparator<String> RECIPIENT_ORDER = Comparator.<String>comparingInt(
+            recipient -> recipient.equals(ALL_CHAT) ? 0 : recipient.startsWith("#") ? 1 : 2).thenComparing(MEMBER_ORDER);
+    private final SortedListModel<String> activeMembers = new SortedListModel<>(MEMBER_ORDER);
+    private final SortedListModel<String> inactiveMembers = new SortedListModel<>(MEMBER_ORDER);
+    private final SortedListModel<String> recipients = new SortedListModel<>(RECIPIENT_ORDER);
+    private final Set<String> joinedChannels = new TreeSet<>(); // Listed in the recipient box as #name
+    private long memberEpoch = -1; // Epoch of the last snapshot or delta applied, -1 until the first snapshot arrives
+
+    // Server notices, matched by handleMessage
+    private static final int COORDINATOR_STATUS = 0;
+    private static final int COORDINATOR_INFO = 1;
+    private static final int MEMBER_SNAPSHOT = 2;
+    private static final int NOT_MODIFIED = 3;
+    private static final int MEMBER_ADDED = 4;
+    private static final int MEMBER_REMOVED = 5;
+    private static final int MEMBER_LIST = 6;
+    private static final int INACTIVE_MEMBER_LIST = 7;
+    private static final int MEMBER_DETAILS = 8;
+    private static final int BROADCAST = 9;
+    private static final int PRIVATE = 10;
+    private static final int MEMBER_JOINED = 11;
+    private static final int MEMBER_LEFT = 12;
+    private static final int SERVER_SHUT_DOWN = 13;
+    private static final int CHANNEL = 14;
+    private static final int CHANNEL_JOINED = 15;
+    private static final int CHANNEL_LEFT = 16;
+    private static final int CHANNEL_ERROR = 17;
+    private static final int RATE_LIMITED = 18;
+    private static final int PING = 19;
+    private static final int PRIVATE_ERROR = 20;
+    private static final CommandParser NOTICES = new CommandParser()
+            .add("coordinator_status:", COORDINATOR_STATUS, false, false)
+            .add("coordinator_info:", COORDINATOR_INFO, false, false)
+            .add("member_snapshot:", MEMBER_SNAPSHOT, false, false)
+            .add("not_modified:", NOT_MODIFIED, false, false)
+            .add("member_added:", MEMBER_ADDED, false, false)
+            .add("member_removed:", MEMBER_REMOVED, false, false)
+            .add("member_list:", MEMBER_LIST, false, false)
+            .add("inactive_member_list:", INACTIVE_MEMBER_LIST, false, false)
+            .add("member_details:", MEMBER_DETAILS, false, false)
+            .add("/broadcast", BROADCAST, false, true)
+            .add("/private:", PRIVATE, false, true)
+            .add("member joined:", MEMBER_JOINED, false, false)
+            .add("/server_shutdown", MEMBER_LEFT, false, false)
+            .add("server_shut_down", SERVER_SHUT_DOWN, true, false)
+            .add("/channel:", CHANNEL, false, true)
+            .add("channel_joined:", CHANNEL_JOINED, false, false)
+            .add("channel_left:", CHANNEL_LEFT, false, false)
+            .add("channel_error:", CHANNEL_ERROR, false, true)
+            .add("rate_limited:", RATE_LIMITED, false, false)
+            .add("private_error:", PRIVATE_ERROR, false, true)
+            .add("ping", PING, true, false);
+    private final CommandParser.Match notice = new CommandParser.Match(); // Only used on the EDT
+
+    private static final int COMPRESS_THRESHOLD = 512; // Smallest payload we deflate once the server agrees to it
+
     // Connection variables
-    private PrintWriter out;
+    private OutputStream out; // Carries FrameCodec frames, the server switches to binary framing on our CONNECT frame
     private String clientId;
     private boolean isCoordinator = false;
     private final javax.swing.Timer memberUpdateTimer;
     private Socket socket;
     private volatile boolean connected = false;
+    // Compresses what we send once the server's CONNECT_ACK accepted deflate; what we receive is inflated by FrameCodec
+    private volatile FrameCompressor compressor;
+
+    // Frames received but not yet shown. The reader thread queues each one and only schedules a drain on the EDT when
+    // none is pending, so a busy room costs one EDT task per batch instead of one per message, and the batch's
+    // transcript lines go into the chat list as a single update
+    private final Queue<FrameCodec.Frame> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private static final int MAX_FRAMES_PER_DRAIN = 2000; // Lets input and painting in between very large backlogs
+    private final List<TranscriptModel.Row> pendingChat = new ArrayList<>(); // Lines gathered by a drain, EDT only
+
+    // The transcript keeps only the last TRANSCRIPT_ROWS rows. The list has a fixed cell size, so it lays out and paints
+    // just the rows in view however many are held, where the old JTextArea reflowed its whole document on every append
+    private static final int TRANSCRIPT_ROWS = 5000;
+    private final TranscriptModel transcript = new TranscriptModel(TRANSCRIPT_ROWS);
 
     // Creates an instance of the GUI client.
     public ChatClientGUI() {
@@ -90,10 +177,11 @@ public class ChatClientGUI extends JFrame {
         // Set up chat panel actions
         setupChatPanel();
 
-        // Initialize member update timer
-        memberUpdateTimer = new javax.swing.Timer(5000, _ -> {
-            if (isConnected()) {
-                SendMessage("/get_members");
+        // Membership changes are pushed by the server, so this is only an occasional safety check. It sends the epoch
+        // we already have and the server answers NOT_MODIFIED unless something was missed
+        memberUpdateTimer = new javax.swing.Timer(60000, _ -> {
+            if (isConnected() && memberEpoch >= 0) {
+                SendMessage("/get_members:" + memberEpoch);
             }
         });
     }
@@ -115,12 +203,20 @@ public class ChatClientGUI extends JFrame {
                 TitledBorder.CENTER,
                 TitledBorder.TOP));
 
-        activeMembersArea = new JTextArea();
-        activeMembersArea.setEditable(false);
-        activeMembersArea.setFont(new Font("SansSerif", Font.PLAIN, 12));
-        activeMembersArea.setBackground(new Color(240, 255, 240)); // Light green background
+        activeMembersList = createMemberList(activeMembers, new Color(240, 255, 240)); // Light green background
+        activeMembersList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                          boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (value.equals(clientId)) {
+                    setText(value + " (You)");
+                }
+                return this;
+            }
+        });
 
-        JScrollPane activeScrollPane = new JScrollPane(activeMembersArea);
+        JScrollPane activeScrollPane = new JScrollPane(activeMembersList);
         activeScrollPane.setPreferredSize(new Dimension(190, 200));
         activePanel.add(activeScrollPane, BorderLayout.CENTER);
 
@@ -132,12 +228,9 @@ public class ChatClientGUI extends JFrame {
                 TitledBorder.CENTER,
                 TitledBorder.TOP));
 
-        inactiveMembersArea = new JTextArea();
-        inactiveMembersArea.setEditable(false);
-        inactiveMembersArea.setFont(new Font("SansSerif", Font.PLAIN, 12));
-        inactiveMembersArea.setBackground(new Color(255, 240, 240)); // Light red background
+        inactiveMembersList = createMemberList(inactiveMembers, new Color(255, 240, 240)); // Light red background
 
-        JScrollPane inactiveScrollPane = new JScrollPane(inactiveMembersArea);
+        JScrollPane inactiveScrollPane = new JScrollPane(inactiveMembersList);
         inactiveScrollPane.setPreferredSize(new Dimension(190, 200));
         inactivePanel.add(inactiveScrollPane, BorderLayout.CENTER);
 
@@ -149,6 +242,17 @@ public class ChatClientGUI extends JFrame {
         memberListPanel.setVisible(false);
     }
 
+    // A fixed cell size stops the list measuring every member whenever one changes. The width of 1 only keeps the
+    // preferred width below the viewport's, so the list tracks the viewport and each row still spans it
+    private static JList<String> createMemberList(ListModel<String> model, Color background) {
+        JList<String> list = new JList<>(model);
+        list.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        list.setBackground(background);
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+        list.setFixedCellWidth(1);
+        return list;
+    }
+
     //Sets up the UI components for the login panel.
     private void setupLoginPanel() {
         connectButton.addActionListener(_ -> {
@@ -177,7 +281,8 @@ public class ChatClientGUI extends JFrame {
                 }
 
                 if (isConnected()) {
-                    SendMessage("/connect:" + clientId);
+                    compressor = null;
+                    sendFrame(FrameCodec.CONNECT, FrameCodec.CAPABILITY_DEFLATE, clientId, null);
                     showChatPanel();
                 }
             } catch (NumberFormatException ex) {
@@ -199,6 +304,30 @@ public class ChatClientGUI extends JFrame {
 
    // Set up the components on the ChatPanel
     private void setupChatPanel() {
+        if (recipientBox != null) {
+            recipients.add(ALL_CHAT);
+            recipientBox.setModel(recipients);
+            recipientBox.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXX"); // Sized without measuring every member
+        }
+
+        if (chatList != null) {
+            chatList.setModel(transcript);
+            chatList.setCellRenderer(new TranscriptRenderer());
+            // A fixed cell size is what stops the list measuring every row; the width follows the viewport, so
+            // wrapping is worked out against what is visible and there is never a horizontal scroll bar
+            chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2 * TranscriptRenderer.PADDING);
+            chatList.setFixedCellWidth(1);
+            JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, chatList);
+            if (viewport != null) {
+                viewport.addComponentListener(new ComponentAdapter() {
+                    @Override
+                    public void componentResized(ComponentEvent e) {
+                        chatList.setFixedCellWidth(Math.max(1, viewport.getWidth()));
+                    }
+                });
+            }
+        }
+
         if (sendButton != null) {
             sendButton.addActionListener(_ -> sendChatMessage());
         }
@@ -209,9 +338,10 @@ public class ChatClientGUI extends JFrame {
 
         if (getMembersButton != null) {
             getMembersButton.addActionListener(_ -> {
-                if (isConnected() && chatArea != null) {
+                if (isConnected() && chatList != null) {
                     SendMessage("/request_details");
-                    chatArea.append("\n----- Member Details -----\n");
+                    appendChat(TranscriptModel.Kind.NOTICE, "\n----- Member Details -----\n");
+                    flushChat();
                 }
             });
         }
@@ -223,22 +353,36 @@ public class ChatClientGUI extends JFrame {
 
     // Sends a chat message to the server, which will be sent to all users or sent privately
     private void sendChatMessage() {
-        if (!isConnected() || recipientBox == null || messageField == null || chatArea == null) return;
+        if (!isConnected() || recipientBox == null || messageField == null || chatList == null) return;
 
         String recipient = (String) recipientBox.getSelectedItem();
         String message = messageField.getText().trim();
         if (message.isEmpty()) return;
 
         assert recipient != null;
-        if (recipient.equals("All Chat")) {
-            SendMessage("/broadcast" + message);
+        if (isCommand(message, "/join") || isCommand(message, "/leave")) {
+            // Channel commands typed into the message box go to the server as they are
+            SendMessage(message);
+        } else if (recipient.startsWith("#")) {
+            sendFrame(FrameCodec.CHANNEL, recipient.substring(1), message);
+        } else if (recipient.equals(ALL_CHAT)) {
+            sendFrame(FrameCodec.BROADCAST, message, null);
         } else {
-            SendMessage("/private" + recipient + ":" + message);
-            chatArea.append("Private to " + recipient + ": " + message + "\n");
+            sendFrame(FrameCodec.PRIVATE, recipient, message);
+            appendChat(TranscriptModel.Kind.PRIVATE, "Private to " + recipient + ": " + message + "\n");
+            flushChat();
         }
         messageField.setText("");
     }
 
+    // The command on its own or followed by its argument, so text such as "/leaves fall" is still sent as chat
+    private static boolean isCommand(String message, String command) {
+        if (!message.startsWith(command)) return false;
+        if (message.length() == command.length()) return true;
+        char next = message.charAt(command.length());
+        return next == ' ' || next == ':';
+    }
+
     private void handleClosing() {
         int confirm = JOptionPane.showConfirmDialog(
                 this,
@@ -260,6 +404,12 @@ public class ChatClientGUI extends JFrame {
             memberUpdateTimer.stop();
         }
 
+        // The next connection starts again from a fresh snapshot, without anything left over from this one
+        inbound.clear();
+        memberEpoch = -1;
+        activeMembers.clear();
+        inactiveMembers.clear();
+
         // Clean up the member frame if it exists
         if (memberFrame != null) {
             memberFrame.dispose();
@@ -288,7 +438,7 @@ public class ChatClientGUI extends JFrame {
             socket = new Socket();
             // Set connection timeout to 3 seconds
             socket.connect(new InetSocketAddress(host, port), 3000);
-            out = new PrintWriter(socket.getOutputStream(), true);
+            out = new BufferedOutputStream(socket.getOutputStream());
             connected = true;
 
             // Get actual IP instead of localhost
@@ -333,13 +483,20 @@ public class ChatClientGUI extends JFrame {
     // Enter a listening state to wait for messages
     private void receiveMessages(Socket socket) {
         try {
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream())
-            );
-            String message;
-            while (connected && (message = in.readLine()) != null) {
-                final String msg = message;
-                SwingUtilities.invokeLater(() -> handleMessage(msg));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            FrameCodec.Frame frame;
+            while (connected && (frame = FrameCodec.read(in)) != null) {
+                switch (frame.opcode()) {
+                    case FrameCodec.BROADCAST, FrameCodec.PRIVATE, FrameCodec.CHANNEL, FrameCodec.CONTROL -> dispatch(frame);
+                    case FrameCodec.CONNECT_ACK -> {
+                        // The membership snapshot follows it
+                        if ((frame.flags() & FrameCodec.CAPABILITY_DEFLATE) != 0) {
+                            compressor = new FrameCompressor(COMPRESS_THRESHOLD);
+                        }
+                    }
+                    default -> {
+                    }
+                }
             }
         } catch (IOException ex) {
             if (connected) {
@@ -357,143 +514,226 @@ public class ChatClientGUI extends JFrame {
         }
     }
 
-    // Handles messages received from the server.
-    private void handleMessage(String message) {
-        // Make the message handling case-insensitive
-        String lowerMessage = message.toLowerCase();
+    // Called by the reader thread for every frame the EDT has to handle
+    private void dispatch(FrameCodec.Frame frame) {
+        inbound.add(frame);
+        if (drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainInbound);
+        }
+    }
 
-        if (lowerMessage.startsWith("coordinator_status:") && !isCoordinator) {
-            isCoordinator = true;
-            if (statusLabel != null) {
-                statusLabel.setText("Status: Coordinator");
-                statusLabel.setForeground(Color.RED);
-            }
-            if (chatArea != null) {
-                chatArea.append("You are now the coordinator\n");
+    // Runs on the EDT: handles everything queued since the last drain in one pass, then updates the transcript once
+    private void drainInbound() {
+        drainScheduled.set(false); // Cleared first, so a frame queued from here on schedules the next drain
+        FrameCodec.Frame frame;
+        for (int i = 0; i < MAX_FRAMES_PER_DRAIN && (frame = inbound.poll()) != null; i++) {
+            switch (frame.opcode()) {
+                case FrameCodec.BROADCAST -> showChat(frame.first(), frame.second());
+                case FrameCodec.PRIVATE -> showPrivateChat(frame.first(), frame.second());
+                case FrameCodec.CHANNEL -> showChannelChat(frame.first(), frame.second());
+                default -> handleMessage(frame.first());
             }
+        }
+        flushChat();
+        if (!inbound.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drainInbound);
+        }
+    }
 
-            // Show the member list panel for coordinators
-            updateUIForCoordinatorStatus();
+    // Transcript lines wait in pendingChat until the drain handling them finishes; text may hold several lines
+    private void appendChat(TranscriptModel.Kind kind, String text) {
+        int end = text.endsWith("\n") ? text.length() - 1 : text.length();
+        for (String line : text.substring(0, end).split("\n", -1)) {
+            pendingChat.add(new TranscriptModel.Row(kind, line));
+        }
+    }
 
-            // Request member list immediately to populate the window
-            SendMessage("/get_members");
+    // Wraps the pending lines to the list's width and adds them as one batch, then scrolls to the newest row
+    private void flushChat() {
+        if (pendingChat.isEmpty() || chatList == null) return;
+        FontMetrics metrics = chatList.getFontMetrics(chatList.getFont());
+        int width = chatList.getFixedCellWidth() - 2 * TranscriptRenderer.PADDING;
+        List<TranscriptModel.Row> rows = new ArrayList<>(pendingChat.size());
+        for (TranscriptModel.Row line : pendingChat) {
+            wrap(line, metrics, width, rows);
+        }
+        pendingChat.clear();
+        transcript.addAll(rows);
+        chatList.ensureIndexIsVisible(transcript.getSize() - 1);
+    }
 
-        } else if (lowerMessage.startsWith("coordinator_info:")) {
-            isCoordinator = false;
-            String coordinatorId = message.substring(16);
-            if (statusLabel != null) {
-                statusLabel.setText("Status: Member");
-                statusLabel.setForeground(Color.BLUE);
+    // Breaks a line at its last space that fits, or mid-word when a word is wider than the list. Rows already shown
+    // keep the wrapping they were added with when the window is resized
+    private static void wrap(TranscriptModel.Row line, FontMetrics metrics, int width, List<TranscriptModel.Row> rows) {
+        String text = line.text();
+        int from = 0;
+        while (width > 0) {
+            int end = from;
+            int lastSpace = -1;
+            int lineWidth = 0;
+            while (end < text.length() && (lineWidth += metrics.charWidth(text.charAt(end))) <= width) {
+                if (text.charAt(end) == ' ') lastSpace = end;
+                end++;
             }
-            if (chatArea != null) {
-                chatArea.append("Current coordinator is " + coordinatorId + "\n");
-            }
-
-            // Hide the member list panel for regular members
-            updateUIForCoordinatorStatus();
+            if (end == text.length()) break;
+            int cut = lastSpace > from ? lastSpace : Math.max(end, from + 1);
+            rows.add(new TranscriptModel.Row(line.kind(), text.substring(from, cut)));
+            from = lastSpace > from ? cut + 1 : cut;
+        }
+        rows.add(from == 0 ? line : new TranscriptModel.Row(line.kind(), text.substring(from)));
+    }
 
-        } else if (lowerMessage.startsWith("member_list:")) {
-            // This is where we update from the server's data
-            String[] members = message.substring(12).split(",");
-            String selectedRecipient;
-
-            if (recipientBox != null) {
-                selectedRecipient = (String) recipientBox.getSelectedItem();
-                recipientBox.removeAllItems();
-                recipientBox.addItem("All Chat");
-                for (String member : members) {
-                    if (!member.isEmpty() && !member.equals(clientId)) {
-                        recipientBox.addItem(member);
-                    }
+    // Handles messages received from the server, matched case-insensitively by NOTICES without copying the line
+    private void handleMessage(String message) {
+        if (!NOTICES.parse(message, notice)) return;
+
+        switch (notice.opcode()) {
+            case COORDINATOR_STATUS -> {
+                if (isCoordinator) break;
+                isCoordinator = true;
+                if (statusLabel != null) {
+                    statusLabel.setText("Status: Coordinator");
+                    statusLabel.setForeground(Color.RED);
+                }
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "You are now the coordinator\n");
                 }
 
-                // Restores the selection in member drop down menu (prevents it from switching back to All during the server update every 5 seconds)
-                if (selectedRecipient != null) {
-                    for (int i = 0; i < recipientBox.getItemCount(); i++) {
-                        if (selectedRecipient.equals(recipientBox.getItemAt(i))) {
-                            recipientBox.setSelectedItem(selectedRecipient);
-                            break;
-                        }
-                    }
+                // Show the member list panel for coordinators, filled from the lists we already hold
+                updateUIForCoordinatorStatus();
+            }
+            case COORDINATOR_INFO -> {
+                isCoordinator = false;
+                String coordinatorId = notice.argument(message);
+                if (statusLabel != null) {
+                    statusLabel.setText("Status: Member");
+                    statusLabel.setForeground(Color.BLUE);
                 }
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Current coordinator is " + coordinatorId + "\n");
+                }
+
+                // Hide the member list panel for regular members
+                updateUIForCoordinatorStatus();
+            }
+            case MEMBER_SNAPSHOT -> {
+                // Full lists follow straight after; deltas from here on continue from this epoch
+                memberEpoch = notice.argumentAsLong(message);
+            }
+            case NOT_MODIFIED -> {
+                // Periodic check found our lists already current, nothing to do
+            }
+            case MEMBER_ADDED -> {
+                applyMemberDelta(notice.argument(message), true);
+            }
+            case MEMBER_REMOVED -> {
+                applyMemberDelta(notice.argument(message), false);
+            }
+            case MEMBER_LIST -> {
+                // This is where we update from the server's data; only the members that changed are touched
+                activeMembers.setAll(parseMembers(notice.argument(message)));
+                syncRecipients();
 
                 // If the client is the coordinator, update the active members display
                 if (isCoordinator) {
-                    updateMemberListDisplay(members);
+                    updateMemberListDisplay();
                 }
             }
-        } else if (lowerMessage.startsWith("inactive_member_list:")) {
-            String inactiveList = message.substring(21);
-
-            // If the client is the coordinator, update the inactive members display directly with data from server
-            if (isCoordinator && inactiveMembersArea != null) {
-                StringBuilder inactiveText = new StringBuilder();
-                // Sort the member names for consistent display
-                String[] inactiveMembers = inactiveList.split(",");
-                Arrays.sort(inactiveMembers);
-
-                for (String member : inactiveMembers) {
-                    if (!member.isEmpty()) {
-                        inactiveText.append(member).append("\n");
+            case INACTIVE_MEMBER_LIST -> {
+                inactiveMembers.setAll(parseMembers(notice.argument(message)));
+                // Displays the current active members in the channel if the member_details button is pressed
+            }
+            case MEMBER_DETAILS -> {
+                if (chatList != null) {
+                    String[] details = notice.argument(message).split(",");
+                    StringBuilder detailsMessage = new StringBuilder();
+                    detailsMessage.append("\nCurrent Members:\n");
+                    detailsMessage.append("------------------------\n");
+                    for (String detail : details) {
+                        String[] parts = detail.split(":");
+                        if (parts.length >= 3) {
+                            detailsMessage.append(String.format("Name: %s\n", parts[0]));
+                            detailsMessage.append(String.format("IP Address: %s\n", parts[1]));
+                            detailsMessage.append(String.format("Port: %s\n", parts[2]));
+                            detailsMessage.append("------------------------\n");
+                        }
                     }
+                    appendChat(TranscriptModel.Kind.NOTICE, detailsMessage.toString());
                 }
-                inactiveMembersArea.setText(inactiveText.toString());
-            }
-            // Displays the current active members in the channel if the member_details button is pressed
-        } else if (lowerMessage.startsWith("member_details:")) {
-            if (chatArea != null) {
-                String[] details = message.substring(15).split(",");
-                StringBuilder detailsMessage = new StringBuilder();
-                detailsMessage.append("\nCurrent Members:\n");
-                detailsMessage.append("------------------------\n");
-                for (String detail : details) {
-                    String[] parts = detail.split(":");
-                    if (parts.length >= 3) {
-                        detailsMessage.append(String.format("Name: %s\n", parts[0]));
-                        detailsMessage.append(String.format("IP Address: %s\n", parts[1]));
-                        detailsMessage.append(String.format("Port: %s\n", parts[2]));
-                        detailsMessage.append("------------------------\n");
-                    }
+            }
+            case BROADCAST -> {
+                if (notice.hasSecond()) showChat(notice.first(message), notice.second(message));
+            }
+            case PRIVATE -> {
+                if (notice.hasSecond()) showPrivateChat(notice.first(message), notice.second(message));
+            }
+            case CHANNEL -> {
+                // <channel>:<sender>:<text>, the sender runs up to the next ':'
+                String rest = notice.hasSecond() ? notice.second(message) : "";
+                int split = rest.indexOf(':');
+                if (split > 0) showChannelChat(notice.first(message) + ":" + rest.substring(0, split), rest.substring(split + 1));
+            }
+            case CHANNEL_JOINED -> {
+                String channel = notice.argument(message);
+                if (joinedChannels.add(channel)) {
+                    recipients.add("#" + channel);
+                    recipients.setSelectedItem("#" + channel);
+                }
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Joined channel #" + channel + "\n");
                 }
-                chatArea.append(detailsMessage.toString());
             }
-        } else if (lowerMessage.startsWith("/broadcast")) {
-            if (chatArea != null) {
-                String[] parts = message.substring(10).split(":", 2);
-                chatArea.append(parts[0] + ": " + parts[1] + "\n");
+            case CHANNEL_LEFT -> {
+                String channel = notice.argument(message);
+                if (joinedChannels.remove(channel)) {
+                    recipients.remove("#" + channel);
+                }
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Left channel #" + channel + "\n");
+                }
             }
-        } else if (lowerMessage.startsWith("/private")) {
-            if (chatArea != null) {
-                String[] parts = message.substring(9).split(":", 2);
-                chatArea.append("Private from " + parts[0] + ": " + parts[1] + "\n");
+            case CHANNEL_ERROR -> {
+                if (chatList != null && notice.hasSecond()) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Channel #" + notice.first(message) + ": " + notice.second(message) + "\n");
+                }
             }
-        } else if (lowerMessage.startsWith("member joined:")) {
-            if (chatArea != null) {
-                String newMember = message.substring(14);
-                chatArea.append("Member joined: " + newMember + "\n");
+            case PRIVATE_ERROR -> {
+                if (chatList != null && notice.hasSecond()) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Private to " + notice.first(message) + ": " + notice.second(message) + "\n");
+                }
             }
-            // Server timeout label functionality has been removed
-        } else if (lowerMessage.startsWith("/server_shutdown")) {
-            if (chatArea != null) {
-                String leftMember = message.substring(16);
-                chatArea.append("Member left: " + leftMember + "\n");
+            case PING -> SendMessage("/pong"); // The server disconnects clients that stop answering
+            case RATE_LIMITED -> {
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "Sending too fast, the server is dropping your " + notice.argument(message) + " commands\n");
+                }
             }
-        } else if (lowerMessage.equals("server_shut_down")) {
-            if (chatArea != null) {
-                chatArea.append("*** Server is shutting down ***\n");
+            case MEMBER_JOINED -> {
+                if (chatList != null) {
+                    String newMember = notice.argument(message);
+                    appendChat(TranscriptModel.Kind.NOTICE, "Member joined: " + newMember + "\n");
+                }
+                // Server timeout label functionality has been removed
+            }
+            case MEMBER_LEFT -> {
+                if (chatList != null) {
+                    String leftMember = notice.argument(message);
+                    appendChat(TranscriptModel.Kind.NOTICE, "Member left: " + leftMember + "\n");
+                }
+            }
+            case SERVER_SHUT_DOWN -> {
+                if (chatList != null) {
+                    appendChat(TranscriptModel.Kind.NOTICE, "*** Server is shutting down ***\n");
+                }
+                flushChat(); // Shown before the dialog blocks
+                // In the event the server ends connection, the users will be displayed with this message of the server shutdown
+                JOptionPane.showMessageDialog(
+                        this,
+                        "The server is shutting down. You will be disconnected.",
+                        "Server Shutdown",
+                        JOptionPane.WARNING_MESSAGE
+                );
             }
-            // In the event the server ends connection, the users will be displayed with this message of the server shutdown
-            JOptionPane.showMessageDialog(
-                    this,
-                    "The server is shutting down. You will be disconnected.",
-                    "Server Shutdown",
-                    JOptionPane.WARNING_MESSAGE
-            );
-        }
-
-        // Updates the caret position
-        if (chatArea != null) {
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
         }
     }
 
@@ -537,8 +777,8 @@ public class ChatClientGUI extends JFrame {
                 // Title for the companion window to display active and inactive members
                 memberFrame.setTitle("Member List - " + clientId);
 
-                // Request initial member data from server
-                SendMessage("/get_members");
+                // The lists show the locally tracked membership directly, the server keeps it current with deltas
+                updateMemberListDisplay();
 
                 // Add a listener to keep the member frame properly positioned
                 this.addComponentListener(new ComponentAdapter() {
@@ -559,7 +799,7 @@ public class ChatClientGUI extends JFrame {
                         JOptionPane.ERROR_MESSAGE);
             }
         } else {
-            // Hide and dispose the member frame if it exists, preventing duplicated windows when it refreshes every 5 seconds
+            // Hide and dispose the member frame if it exists, preventing duplicated windows when the coordinator changes
             if (memberFrame != null) {
                 memberFrame.setVisible(false);
                 memberFrame.dispose();
@@ -568,36 +808,118 @@ public class ChatClientGUI extends JFrame {
         }
     }
 
-    // Handles updating the active member list in the window
-    private void updateMemberListDisplay(String[] activeMembers) {
+    // Applies one MEMBER_ADDED/MEMBER_REMOVED delta ("<epoch>:<member>") to the local lists and the recipient drop down
+    private void applyMemberDelta(String delta, boolean added) {
+        int separator = delta.indexOf(':');
+        long epoch = Long.parseLong(delta.substring(0, separator));
+        String member = delta.substring(separator + 1);
+
+        // Nothing to apply to before the first snapshot, and anything at or below its epoch is already included in it
+        if (memberEpoch < 0 || epoch <= memberEpoch) return;
+        if (epoch != memberEpoch + 1) {
+            // A change was missed somewhere, apply this one anyway and ask the server for a fresh snapshot
+            SendMessage("/get_members");
+        }
+        memberEpoch = epoch;
+
+        if (added) {
+            activeMembers.add(member);
+            inactiveMembers.remove(member);
+            if (!member.equals(clientId)) {
+                recipients.add(member);
+            }
+        } else {
+            activeMembers.remove(member);
+            inactiveMembers.add(member);
+            recipients.remove(member);
+        }
+
+        if (isCoordinator) {
+            updateMemberListDisplay();
+        }
+    }
+
+    // Brings the recipient drop down in line with the active members after a full list arrives. The selection stays
+    // unless its member or channel is gone, and rows that did not change are left alone
+    private void syncRecipients() {
+        List<String> wanted = new ArrayList<>(activeMembers.getSize() + joinedChannels.size() + 1);
+        wanted.add(ALL_CHAT);
+        for (String channel : joinedChannels) {
+            wanted.add("#" + channel);
+        }
+        for (int i = 0; i < activeMembers.getSize(); i++) {
+            String member = activeMembers.getElementAt(i);
+            if (!member.equals(clientId)) {
+                wanted.add(member);
+            }
+        }
+        recipients.setAll(wanted);
+    }
+
+    private static List<String> parseMembers(String list) {
+        List<String> members = new ArrayList<>();
+        for (String member : list.split(",")) {
+            if (!member.isEmpty()) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    // Brings the coordinator's member window back if it was closed; the lists in it update themselves
+    private void updateMemberListDisplay() {
         if (!isCoordinator) return;
 
-        // Make sure the member frame is visible
         if (memberFrame != null && !memberFrame.isVisible()) {
             memberFrame.setVisible(true);
             memberFrame.toFront();
         }
+    }
 
-        // Update active members text area
-        if (activeMembersArea != null) {
-            StringBuilder activeText = new StringBuilder();
+    private void showChat(String from, String message) {
+        if (chatList != null) {
+            appendChat(TranscriptModel.Kind.CHAT, from + ": " + message + "\n");
+        }
+    }
 
-            for (String member : activeMembers) {
-                if (member.isEmpty()) continue;
+    private void showPrivateChat(String from, String message) {
+        if (chatList != null) {
+            appendChat(TranscriptModel.Kind.PRIVATE, "Private from " + from + ": " + message + "\n");
+        }
+    }
 
-                activeText.append(member);
-                if (member.equals(clientId)) {
-                    activeText.append(" (You)");
-                }
-                activeText.append("\n");
-            }
-            activeMembersArea.setText(activeText.toString());
+    // channelAndSender is "<channel>:<sender>"; channel names never contain ':'
+    private void showChannelChat(String channelAndSender, String message) {
+        int separator = channelAndSender.indexOf(':');
+        if (chatList != null && separator > 0) {
+            appendChat(TranscriptModel.Kind.CHANNEL, "[#" + channelAndSender.substring(0, separator) + "] "
+                    + channelAndSender.substring(separator + 1) + ": " + message + "\n");
         }
     }
 
+    // Commands other than chat travel as CONTROL frames holding their text protocol form
     private void SendMessage(String message) {
+        sendFrame(FrameCodec.CONTROL, message, null);
+    }
+
+    private void sendFrame(byte opcode, String first, String second) {
+        sendFrame(opcode, (byte) 0, first, second);
+    }
+
+    // Synchronized so two frames can never interleave on the socket
+    private synchronized void sendFrame(byte opcode, byte flags, String first, String second) {
         if (isConnected() && out != null) {
-            out.println(message);
+            try {
+                ByteBuffer frame = FrameCodec.encode(opcode, flags, first, second);
+                FrameCompressor deflate = compressor;
+                if (deflate != null) {
+                    frame = deflate.compress(frame);
+                }
+                out.write(frame.array(), frame.arrayOffset(), frame.remaining());
+                out.flush();
+            } catch (IOException ex) {
+                System.err.println("Error sending to server: " + ex.getMessage());
+            }
         }
     }
 
@@ -661,6 +983,33 @@ public class ChatClientGUI extends JFrame {
         }
     }
 
+    // Draws a transcript row as a label, coloured by kind so private and channel messages stand out from the room
+    private static class TranscriptRenderer extends DefaultListCellRenderer {
+        static final int PADDING = 2;
+        private static final Color PRIVATE_COLOR = new Color(128, 0, 128);
+        private static final Color CHANNEL_COLOR = new Color(0, 100, 120);
+        private static final Color NOTICE_COLOR = Color.GRAY;
+        private static final Border MARGIN =
+                BorderFactory.createEmptyBorder(PADDING, PADDING, PADDING, PADDING);
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                      boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, false);
+            setBorder(MARGIN); // In place of the focus border, which would shift the text of the focused row
+            TranscriptModel.Row row = (TranscriptModel.Row) value;
+            if (!isSelected) {
+                switch (row.kind()) {
+                    case PRIVATE -> setForeground(PRIVATE_COLOR);
+                    case CHANNEL -> setForeground(CHANNEL_COLOR);
+                    case NOTICE -> setForeground(NOTICE_COLOR);
+                    default -> { }
+                }
+            }
+            return this;
+        }
+    }
+
     // Main method for testing.
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> new ChatClientGUI().setVisible(true));
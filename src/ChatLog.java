@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Durable, append-only record of every broadcast, private and channel message, kept as memory mapped ChatLogSegment files.
+// Senders only hand a record to a queue; one writer thread encodes whatever has accumulated into the active segment
+// and then applies the fsync policy once for the whole group, so disk latency never reaches the fan-out path. A sender
+// never waits either: should the writer fall a whole queue behind, the overflow policy decides what becomes of the record
+public class ChatLog {
+    public static final byte BROADCAST = 1;
+    public static final byte PRIVATE = 2;
+    public static final byte CHANNEL = 3; // The channel name is kept as the recipient
+
+    // When appended records are forced to disk
+    public enum FsyncPolicy {
+        ALWAYS,   // After every group commit, before the writer takes the next group
+        INTERVAL, // At most once per fsync interval
+        NEVER     // Left to the operating system
+    }
+
+    // What append does with a record that finds the writer a whole queue behind
+    public enum OverflowPolicy {
+        SPILL, // Kept, in order, in an unbounded overflow list the writer empties next; nothing is lost while memory lasts
+        DROP   // Dropped and counted, for a server that would rather lose log records than grow its heap
+    }
+
+    public record Record(long offset, long timestamp, byte type, String from, String to, String body) {
+    }
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int MAX_GROUP = 4096;
+    private static final int CACHED_SEGMENTS = 8; // Sealed segments kept mapped for readers
+    // A segment's name is its base offset as 20 digits; a long has at most 19, so the first is always 0. Any other file,
+    // such as an event log pointed at the same directory, is left alone
+    private static final Pattern SEGMENT_NAME = Pattern.compile("0\\d{19}\\.log");
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final List<Long> segmentBases = new ArrayList<>(); // Every segment on disk, oldest first
+    private volatile ChatLogSegment active;
+    private final BlockingQueue<Record> queue;
+    // Records that found the queue full, or found older records already waiting here. Only used under SPILL
+    private final Queue<Record> overflow = new ConcurrentLinkedQueue<>();
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writer;
+    private final EventLog log;
+    private volatile boolean running = true;
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    // Sealed segments mapped read-only, least recently read first, so history and replay scans do not map them again
+    private final Map<Long, ChatLogSegment> sealed = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ChatLogSegment> eldest) {
+            return size() > CACHED_SEGMENTS; // The mapping is released once the collector finds it unreachable
+        }
+    };
+
+    public ChatLog(Path dir, int segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                   OverflowPolicy overflowPolicy, EventLog log) throws IOException {
+        this(dir, segmentBytes, fsyncPolicy, fsyncIntervalMillis, overflowPolicy, QUEUE_CAPACITY, log);
+    }
+
+    // A small queue lets tests overflow it without a slow disk
+    ChatLog(Path dir, int segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, OverflowPolicy overflowPolicy,
+            int queueCapacity, EventLog log) throws IOException {
+        this.dir = dir;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.log = log;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.overflowPolicy = overflowPolicy;
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> SEGMENT_NAME.matcher(name).matches())
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - 4)))
+                    .sorted()
+                    .forEach(segmentBases::add);
+        }
+        if (segmentBases.isEmpty()) {
+            segmentBases.add(0L);
+        }
+        active = ChatLogSegment.open(dir, segmentBases.getLast(), segmentBytes);
+        writer = new Thread(this::writeLoop, "ChatLogWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void appendBroadcast(String from, String body) {
+        append(new Record(-1, System.currentTimeMillis(), BROADCAST, from, "", body));
+    }
+
+    public void appendPrivate(String from, String to, String body) {
+        append(new Record(-1, System.currentTimeMillis(), PRIVATE, from, to, body));
+    }
+
+    public void appendChannel(String from, String channel, String body) {
+        append(new Record(-1, System.currentTimeMillis(), CHANNEL, from, channel, body));
+    }
+
+    // Never blocks, as a stalled disk must not stall chat. Once anything is waiting in the overflow list, later records
+    // queue up behind it there, so the log keeps the order records were appended in
+    private void append(Record record) {
+        if (!running) return;
+        if (overflow.isEmpty() && queue.offer(record)) return;
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            dropped.increment();
+        } else {
+            spilled.increment();
+            overflow.add(record);
+        }
+    }
+
+    // Records that went through the overflow list because the writer was a full queue behind; all of them are written
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    // Records lost because the writer was a full queue behind, only ever non-zero under the DROP policy
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        List<Record> group = new ArrayList<>(MAX_GROUP);
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        while (running || !queue.isEmpty() || !overflow.isEmpty()) {
+            try {
+                Record first = overflow.isEmpty() ? queue.poll(100, TimeUnit.MILLISECONDS) : queue.poll();
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group, MAX_GROUP - 1);
+                }
+                if (queue.isEmpty()) {
+                    // Anything in the queue is older than the overflow list, so spilled records wait until it is empty
+                    Record spilledRecord;
+                    while (group.size() < MAX_GROUP && (spilledRecord = overflow.poll()) != null) {
+                        group.add(spilledRecord);
+                    }
+                }
+                if (!group.isEmpty()) {
+                    try {
+                        for (Record record : group) {
+                            write(record);
+                        }
+                    } finally {
+                        group.clear(); // A failed group is not retried, or the records before the failure would repeat
+                        active.commit();
+                        dirty = true;
+                    }
+                }
+                long now = System.nanoTime();
+                if (dirty && (fsyncPolicy == FsyncPolicy.ALWAYS
+                        || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastForce >= fsyncIntervalNanos))) {
+                    active.force();
+                    lastForce = now;
+                    dirty = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException ex) {
+                log.error("chat_log_write_failed", "error", ex.getMessage());
+            }
+        }
+        if (fsyncPolicy != FsyncPolicy.NEVER || dirty) {
+            active.force();
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        byte[] from = record.from().getBytes(StandardCharsets.UTF_8);
+        byte[] to = record.to().getBytes(StandardCharsets.UTF_8);
+        byte[] body = record.body().getBytes(StandardCharsets.UTF_8);
+        if (from.length > 0xFFFF || to.length > 0xFFFF
+                || ChatLogSegment.RECORD_HEADER + 21 + from.length + to.length + body.length > segmentBytes) {
+            log.warn("chat_log_record_too_large", "from", record.from(), "bytes", body.length);
+            return;
+        }
+        if (!active.append(record.timestamp(), record.type(), from, to, body)) {
+            roll();
+            active.append(record.timestamp(), record.type(), from, to, body);
+        }
+    }
+
+    // Seals the full segment and starts the next one at the following offset
+    private void roll() throws IOException {
+        active.commit();
+        active.force();
+        long base = active.nextOffset();
+        ChatLogSegment next = ChatLogSegment.open(dir, base, segmentBytes);
+        synchronized (sealed) {
+            sealed.put(active.baseOffset(), active); // Already mapped, readers can keep using this mapping
+        }
+        synchronized (segmentBases) {
+            segmentBases.add(base);
+        }
+        active = next;
+    }
+
+    // Offset the next record will get
+    public long nextOffset() {
+        return active.nextOffset();
+    }
+
+    // Up to max records starting at offset, located through the segment's sparse index
+    public List<Record> read(long offset, int max) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (long base : segmentsFrom(offset)) {
+            ChatLogSegment segment = segmentFor(base);
+            int end = segment.committedPosition();
+            segment.scan(segment.floorPosition(offset), end, record -> {
+                if (record.offset() >= offset && records.size() < max) {
+                    records.add(record);
+                }
+            });
+            if (records.size() >= max) break;
+        }
+        return records;
+    }
+
+    // The newest limit broadcasts, oldest first. Steps back through each segment's sparse index from the tail, so
+    // rebuilding the history window after a restart reads a few KB per step rather than whole segments
+    public List<Record> recentBroadcasts(int limit) throws IOException {
+        LinkedList<Record> recent = new LinkedList<>();
+        List<Long> bases;
+        synchronized (segmentBases) {
+            bases = new ArrayList<>(segmentBases);
+        }
+        for (int s = bases.size() - 1; s >= 0 && recent.size() < limit; s--) {
+            ChatLogSegment segment = segmentFor(bases.get(s));
+            int end = segment.committedPosition();
+            for (int entry = segment.indexEntries() - 1; entry >= 0 && recent.size() < limit; entry--) {
+                int start = segment.indexedPosition(entry);
+                if (start >= end) continue;
+                List<Record> chunk = new ArrayList<>();
+                segment.scan(start, end, record -> {
+                    if (record.type() == BROADCAST) chunk.add(record);
+                });
+                for (int i = chunk.size() - 1; i >= 0 && recent.size() < limit; i--) {
+                    recent.addFirst(chunk.get(i));
+                }
+                end = start;
+            }
+        }
+        return recent;
+    }
+
+    private List<Long> segmentsFrom(long offset) {
+        synchronized (segmentBases) {
+            int first = 0;
+            for (int i = 0; i < segmentBases.size(); i++) {
+                if (segmentBases.get(i) <= offset) first = i;
+            }
+            return new ArrayList<>(segmentBases.subList(first, segmentBases.size()));
+        }
+    }
+
+    private ChatLogSegment segmentFor(long base) throws IOException {
+        ChatLogSegment current = active;
+        if (current.baseOffset() == base) return current;
+        synchronized (sealed) {
+            ChatLogSegment segment = sealed.get(base);
+            if (segment == null) {
+                segment = ChatLogSegment.openSealed(dir, base);
+                sealed.put(base, segment);
+            }
+            return segment;
+        }
+    }
+
+    // Writes out everything queued so far, forces it to disk and stops the writer
+    public void close() {
+        // Not interrupted: an interrupt would close the FileChannel of a segment being opened. The poll timeout bounds the wait
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
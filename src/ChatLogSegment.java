@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// One file of the chat log, named after the offset of its first record and memory mapped at its full size up front.
+// Unwritten space stays zero, so a zero length marks the end of the records. Alongside it, a sparse index file maps
+// the offset of roughly every INDEX_INTERVAL_BYTES of log to its position, so lookups and recovery only scan a few KB.
+// Record layout: length (4) | crc32 of the rest (4) | offset (8) | timestamp (8) | type (1) |
+//                from length (2) | from | to length (2) | to | body
+final class ChatLogSegment {
+    static final int RECORD_HEADER = 8;
+    static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int INDEX_ENTRY = 8; // relative offset (4) | position (4)
+
+    private final Path logPath;
+    private final long baseOffset;
+    private final MappedByteBuffer log;
+    private final MappedByteBuffer index;
+    private int position;          // End of the last complete record
+    private long nextOffset;
+    private int indexEntries;
+    private int lastIndexedPosition;
+    private volatile int committedPosition; // Readers on other threads see records up to here
+    private final CRC32 crc = new CRC32();
+
+    private ChatLogSegment(Path logPath, long baseOffset, MappedByteBuffer log, MappedByteBuffer index) {
+        this.logPath = logPath;
+        this.baseOffset = baseOffset;
+        this.log = log;
+        this.index = index;
+    }
+
+    static Path logFile(Path dir, long baseOffset) {
+        return dir.resolve(String.format("%020d.log", baseOffset));
+    }
+
+    static Path indexFile(Path dir, long baseOffset) {
+        return dir.resolve(String.format("%020d.index", baseOffset));
+    }
+
+    // Opens (creating if needed) the segment starting at baseOffset and finds where its records end
+    static ChatLogSegment open(Path dir, long baseOffset, int segmentBytes) throws IOException {
+        Path logPath = logFile(dir, baseOffset);
+        int size = Files.exists(logPath) ? (int) Math.max(Files.size(logPath), segmentBytes) : segmentBytes;
+        int indexSize = (size / INDEX_INTERVAL_BYTES + 2) * INDEX_ENTRY;
+        MappedByteBuffer log, index;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        try (FileChannel channel = FileChannel.open(indexFile(dir, baseOffset), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        }
+        ChatLogSegment segment = new ChatLogSegment(logPath, baseOffset, log, index);
+        segment.recover();
+        return segment;
+    }
+
+    // Opens a segment the writer has moved on from, for reading only: mapped read-only at its size on disk, and only
+    // located, never repaired, as the writer forced it complete before sealing it
+    static ChatLogSegment openSealed(Path dir, long baseOffset) throws IOException {
+        Path logPath = logFile(dir, baseOffset);
+        MappedByteBuffer log, index;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try (FileChannel channel = FileChannel.open(indexFile(dir, baseOffset), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ChatLogSegment segment = new ChatLogSegment(logPath, baseOffset, log, index);
+        segment.locateEnd();
+        segment.committedPosition = segment.position;
+        return segment;
+    }
+
+    // Tail recovery: finds where the valid records end, then clears whatever a torn write left behind there
+    private void recover() {
+        locateEnd();
+        // Clear whatever a torn write left behind, so the end marker is a zero length again
+        for (int i = position; i < Math.min(log.capacity(), position + RECORD_HEADER); i++) {
+            log.put(i, (byte) 0);
+        }
+        for (int at = indexEntries * INDEX_ENTRY; at + INDEX_ENTRY <= index.capacity() && index.getLong(at) != 0; at += INDEX_ENTRY) {
+            index.putLong(at, 0);
+        }
+        committedPosition = position;
+    }
+
+    // Trusts the index up to the last entry that points inside valid data, then scans forward from there until a
+    // record is missing or fails its checksum, which is where a crash cut the log short
+    private void locateEnd() {
+        int entries = 1; // Entry 0 is (0, 0) by construction, even in a brand new segment
+        int maxEntries = index.capacity() / INDEX_ENTRY;
+        while (entries < maxEntries && index.getInt(entries * INDEX_ENTRY + 4) > index.getInt((entries - 1) * INDEX_ENTRY + 4)) {
+            entries++;
+        }
+        while (entries > 1 && !validRecordAt(index.getInt((entries - 1) * INDEX_ENTRY + 4))) {
+            entries--;
+        }
+        indexEntries = entries;
+        int start = index.getInt((entries - 1) * INDEX_ENTRY + 4);
+        lastIndexedPosition = start;
+        position = start;
+        nextOffset = baseOffset + index.getInt((entries - 1) * INDEX_ENTRY);
+        while (validRecordAt(position)) {
+            int length = log.getInt(position);
+            nextOffset = log.getLong(position + RECORD_HEADER) + 1;
+            position += RECORD_HEADER + length;
+        }
+    }
+
+    private boolean validRecordAt(int at) {
+        if (at < 0 || at + RECORD_HEADER > log.capacity()) return false;
+        int length = log.getInt(at);
+        if (length < 8 + 8 + 1 + 2 + 2 || at + RECORD_HEADER + length > log.capacity()) return false;
+        crc.reset();
+        crc.update(log.slice(at + RECORD_HEADER, length));
+        return (int) crc.getValue() == log.getInt(at + 4);
+    }
+
+    // Appends one record, returning false without writing if it does not fit in what is left of the segment
+    boolean append(long timestamp, byte type, byte[] from, byte[] to, byte[] body) {
+        int length = 8 + 8 + 1 + 2 + from.length + 2 + to.length + body.length;
+        if (position + RECORD_HEADER + length > log.capacity()) return false;
+        int start = position;
+        ByteBuffer record = log.slice(start + RECORD_HEADER, length);
+        record.putLong(nextOffset).putLong(timestamp).put(type)
+                .putShort((short) from.length).put(from)
+                .putShort((short) to.length).put(to)
+                .put(body);
+        crc.reset();
+        crc.update(record.flip());
+        log.putInt(start + 4, (int) crc.getValue());
+        log.putInt(start, length); // Written last, so a record is never visible before its contents
+        if (start - lastIndexedPosition >= INDEX_INTERVAL_BYTES && (indexEntries + 1) * INDEX_ENTRY <= index.capacity()) {
+            index.putInt(indexEntries * INDEX_ENTRY, (int) (nextOffset - baseOffset));
+            index.putInt(indexEntries * INDEX_ENTRY + 4, start);
+            indexEntries++;
+            lastIndexedPosition = start;
+        }
+        position = start + RECORD_HEADER + length;
+        nextOffset++;
+        return true;
+    }
+
+    // Makes everything appended so far visible to readers on other threads
+    void commit() {
+        committedPosition = position;
+    }
+
+    void force() {
+        log.force();
+        index.force();
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    boolean isEmpty() {
+        return nextOffset == baseOffset;
+    }
+
+    Path path() {
+        return logPath;
+    }
+
+    // Position of the last indexed record at or before offset, found by binary search over the sparse index
+    int floorPosition(long offset) {
+        int relative = (int) Math.max(0, offset - baseOffset);
+        int low = 0, high = indexEntries - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (index.getInt(mid * INDEX_ENTRY) <= relative) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return index.getInt(low * INDEX_ENTRY + 4);
+    }
+
+    int indexEntries() {
+        return indexEntries;
+    }
+
+    int indexedPosition(int entry) {
+        return index.getInt(entry * INDEX_ENTRY + 4);
+    }
+
+    int committedPosition() {
+        return committedPosition;
+    }
+
+    // Decodes the records in [from, to) in order, stopping early if the consumer's work is done
+    void scan(int from, int to, Consumer<ChatLog.Record> consumer) {
+        ByteBuffer view = log.duplicate();
+        int at = from;
+        while (at + RECORD_HEADER <= to) {
+            int length = view.getInt(at);
+            if (length <= 0 || at + RECORD_HEADER + length > to) break;
+            view.limit(at + RECORD_HEADER + length).position(at + RECORD_HEADER);
+            long offset = view.getLong();
+            long timestamp = view.getLong();
+            byte type = view.get();
+            String fromId = readString(view, view.getShort() & 0xFFFF);
+            String toId = readString(view, view.getShort() & 0xFFFF);
+            String body = readString(view, view.remaining());
+            view.limit(view.capacity());
+            consumer.accept(new ChatLog.Record(offset, timestamp, type, fromId, toId, body));
+            at += RECORD_HEADER + length;
+        }
+    }
+
+    private static String readString(ByteBuffer view, int length) {
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
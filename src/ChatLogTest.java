@@ -0,0 +1,224 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+public class ChatLogTest {
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final EventLog events = new EventLog(64);
+
+    @AfterEach
+    public void cleanup() {
+        events.close();
+    }
+
+    private ChatLog open() throws IOException {
+        return new ChatLog(dir, SEGMENT_BYTES, ChatLog.FsyncPolicy.ALWAYS, 1000, ChatLog.OverflowPolicy.SPILL, events);
+    }
+
+    @Test
+    public void testOverflowIsSpilledInOrder() throws IOException {
+        System.out.println("Running testOverflowIsSpilledInOrder: Records beyond a full queue are written later, none lost or reordered.");
+        ChatLog log = new ChatLog(dir, SEGMENT_BYTES, ChatLog.FsyncPolicy.ALWAYS, 1000, ChatLog.OverflowPolicy.SPILL, 16, events);
+        for (int i = 0; i < 5000; i++) {
+            log.appendBroadcast("Alice", String.valueOf(i));
+        }
+        log.close();
+        assertTrue(log.getSpilled() > 0, "A 16 record queue should have overflowed");
+        assertEquals(0, log.getDropped());
+
+        ChatLog reopened = open();
+        List<ChatLog.Record> records = reopened.read(0, 5000);
+        assertEquals(5000, records.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(String.valueOf(i), records.get(i).body());
+        }
+        reopened.close();
+        System.out.println("testOverflowIsSpilledInOrder passed.");
+    }
+
+    @Test
+    public void testIgnoresOtherLogFiles() throws IOException {
+        System.out.println("Running testIgnoresOtherLogFiles: Other .log files in the directory do not stop the log opening.");
+        Files.writeString(dir.resolve("events.log"), "2026-10-17T10:15:30.123 INFO server_started\n");
+        Files.writeString(dir.resolve("123.log"), "");
+        ChatLog log = open();
+        log.appendBroadcast("Alice", "hello");
+        log.close();
+
+        ChatLog reopened = open();
+        assertEquals(1, reopened.nextOffset());
+        assertEquals("hello", reopened.read(0, 1).getFirst().body());
+        reopened.close();
+        assertTrue(Files.exists(dir.resolve("events.log")));
+        System.out.println("testIgnoresOtherLogFiles passed.");
+    }
+
+    @Test
+    public void testDropPolicyCountsLostRecords() throws IOException {
+        System.out.println("Running testDropPolicyCountsLostRecords: Under the opt-in drop policy every record is written or counted.");
+        ChatLog log = new ChatLog(dir, SEGMENT_BYTES, ChatLog.FsyncPolicy.ALWAYS, 1000, ChatLog.OverflowPolicy.DROP, 16, events);
+        for (int i = 0; i < 5000; i++) {
+            log.appendBroadcast("Alice", String.valueOf(i));
+        }
+        log.close();
+        assertEquals(0, log.getSpilled());
+        assertTrue(log.getDropped() > 0, "A 16 record queue should have overflowed");
+
+        ChatLog reopened = open();
+        assertEquals(5000, reopened.nextOffset() + log.getDropped());
+        reopened.close();
+        System.out.println("testDropPolicyCountsLostRecords passed.");
+    }
+
+    @Test
+    public void testReopenRestoresRecords() throws IOException {
+        System.out.println("Running testReopenRestoresRecords: Records written before close are read back after reopening.");
+        ChatLog log = open();
+        log.appendBroadcast("Alice", "hello");
+        log.appendPrivate("Alice", "Bob", "just for you");
+        log.appendBroadcast("Bob", "hi: all");
+        log.close();
+
+        ChatLog reopened = open();
+        assertEquals(3, reopened.nextOffset(), "Offsets should continue after the recovered records");
+        List<ChatLog.Record> records = reopened.read(0, 10);
+        assertEquals(3, records.size());
+        assertEquals(ChatLog.PRIVATE, records.get(1).type());
+        assertEquals("Bob", records.get(1).to());
+        assertEquals("just for you", records.get(1).body());
+        List<ChatLog.Record> broadcasts = reopened.recentBroadcasts(10);
+        assertEquals(2, broadcasts.size(), "Private messages should not be part of the broadcast history");
+        assertEquals("hello", broadcasts.get(0).body());
+        assertEquals("hi: all", broadcasts.get(1).body());
+        reopened.close();
+        System.out.println("testReopenRestoresRecords passed.");
+    }
+
+    @Test
+    public void testRollsAcrossSegments() throws IOException {
+        System.out.println("Running testRollsAcrossSegments: A full segment rolls over and reads span every segment.");
+        ChatLog log = open();
+        String body = "x".repeat(500);
+        for (int i = 0; i < 1000; i++) {
+            log.appendBroadcast("Alice", i + ":" + body);
+        }
+        log.close();
+        try (var files = Files.list(dir)) {
+            assertTrue(files.filter(path -> path.toString().endsWith(".log")).count() > 1, "About 500 KB should not fit one segment");
+        }
+
+        ChatLog reopened = open();
+        assertEquals(1000, reopened.nextOffset());
+        List<ChatLog.Record> recent = reopened.recentBroadcasts(300);
+        assertEquals(300, recent.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(700 + i, recent.get(i).offset(), "Recent history should be the newest records in order");
+        }
+        List<ChatLog.Record> middle = reopened.read(450, 5);
+        assertEquals(5, middle.size());
+        assertEquals(450, middle.get(0).offset(), "Reads by offset should start exactly at the requested record");
+        assertTrue(middle.get(4).body().startsWith("454:"));
+        reopened.close();
+        System.out.println("testRollsAcrossSegments passed.");
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        System.out.println("Running testTornTailIsDiscarded: A record cut short by a crash is dropped on recovery and overwritten.");
+        ChatLog log = open();
+        for (int i = 0; i < 20; i++) {
+            log.appendBroadcast("Alice", "message " + i);
+        }
+        log.close();
+
+        // Simulates a crash mid-write: the last record's length is in place but part of its body never made it
+        Path segment = ChatLogSegment.logFile(dir, 0);
+        ChatLog reader = open();
+        List<ChatLog.Record> before = reader.read(0, 20);
+        reader.close();
+        int lastStart = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (int i = 0; i < 19; i++) {
+                channel.read(length.clear(), lastStart);
+                lastStart += ChatLogSegment.RECORD_HEADER + length.flip().getInt();
+            }
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}), lastStart + ChatLogSegment.RECORD_HEADER + 20);
+        }
+
+        ChatLog recovered = open();
+        assertEquals(19, recovered.nextOffset(), "The torn record should be dropped");
+        assertEquals(before.subList(0, 19), recovered.read(0, 20));
+        recovered.appendBroadcast("Bob", "after the crash");
+        recovered.close();
+
+        ChatLog reopened = open();
+        List<ChatLog.Record> records = reopened.read(0, 30);
+        assertEquals(20, records.size());
+        assertEquals(19, records.get(19).offset());
+        assertEquals("after the crash", records.get(19).body());
+        reopened.close();
+        System.out.println("testTornTailIsDiscarded passed.");
+    }
+
+    @Test
+    public void testSealedSegmentsAreReadOnly() throws IOException {
+        System.out.println("Running testSealedSegmentsAreReadOnly: Reading older segments, however often, leaves their files untouched.");
+        ChatLog log = open();
+        String body = "y".repeat(500);
+        for (int i = 0; i < 1000; i++) {
+            log.appendBroadcast("Alice", i + ":" + body);
+        }
+        log.close();
+        byte[] firstLog = Files.readAllBytes(ChatLogSegment.logFile(dir, 0));
+        byte[] firstIndex = Files.readAllBytes(ChatLogSegment.indexFile(dir, 0));
+
+        ChatLog reopened = open();
+        for (int pass = 0; pass < 3; pass++) {
+            List<ChatLog.Record> records = reopened.read(0, 1000);
+            assertEquals(1000, records.size());
+            assertEquals("999:" + body, records.get(999).body());
+            assertEquals(1000, reopened.recentBroadcasts(1000).size());
+        }
+        assertArrayEquals(firstLog, Files.readAllBytes(ChatLogSegment.logFile(dir, 0)));
+        assertArrayEquals(firstIndex, Files.readAllBytes(ChatLogSegment.indexFile(dir, 0)));
+        assertEquals(0, reopened.getDropped());
+        reopened.close();
+        System.out.println("testSealedSegmentsAreReadOnly passed.");
+    }
+
+    @Test
+    public void testServerRestoresHistoryFromLog() throws Exception {
+        System.out.println("Running testServerRestoresHistoryFromLog: A restarted server seeds its history window from the log.");
+        Server.testMode = true;
+        ServerConfig config = new ServerConfig().setLogDir(dir.toString()).setLogFsyncPolicy(ChatLog.FsyncPolicy.ALWAYS);
+        Server server = new Server(0, config);
+        server.broadcastChat("Alice", "before restart");
+        server.shutdown();
+
+        Server restarted = new Server(0, config);
+        try {
+            var field = Server.class.getDeclaredField("history");
+            field.setAccessible(true);
+            MessageHistory history = (MessageHistory) field.get(restarted);
+            assertEquals(1, history.size());
+            assertEquals("/broadcastAlice:before restart\n",
+                    StandardCharsets.UTF_8.decode(history.replay(10, false)).toString());
+        } finally {
+            restarted.shutdown();
+        }
+        System.out.println("testServerRestoresHistoryFromLog passed.");
+    }
+}
@@ -1,119 +1,576 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 // Utilize the runnable interface to create a thread when run, enters a state of constant "listening" and await for a request
 public class ClientHandler implements Runnable {
     private final Socket socket;
-    private final Server server;
-    private final BufferedReader in;
-    private final PrintWriter out;
+    protected final Server server;
+    private final BufferedInputStream in;
+    private final WritableByteChannel out;
+    // Messages waiting to be written; senders never block on this client's socket
+    protected final OutboundQueue outbound;
+    protected static final int WRITE_BATCH = 64; // Most queued frames taken per write
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    // Write coalescing: once a flush has carried more than one frame the connection is busy, and the next flush waits up
+    // to this long for more output to join it. A lone message on a quiet connection is still written straight away
+    protected final long coalesceNanos;
+    protected int lastFlushFrames; // Frames carried by the previous flush, only touched by the drainer
+    protected volatile boolean flushNow; // Set by urgent output to cut the coalescing window short
+    private volatile Thread drainer; // The thread waiting out the coalescing window, if any
+    private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+    private ByteBuffer writeBuffer; // Allocated on first write, gathers a batch into one socket write
     private String clientId;
-    private volatile boolean running = true;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    // Chosen by the first byte the client sends: a CONNECT frame selects FrameCodec framing, anything else the line protocol
+    private volatile boolean binaryProtocol = false;
+    private volatile FrameCompressor compressor; // Set if the client's CONNECT asked for deflate and the server allows it
+    private final CommandParser.Match command = new CommandParser.Match(); // Reused for every line this client sends
+    private final RateLimiter rateLimiter; // Checked before every command is dispatched
+    protected final ServerMetrics metrics;
+    protected final EventLog log;
+    // Heartbeat: anything the client sends counts as a sign of life. Once it has been quiet for the heartbeat interval it
+    // is sent PING, and if nothing at all arrives within the timeout after that it is disconnected. Only lastInputNanos
+    // is written per command; the check itself runs on the server's timing wheel, one pending timeout per connection
+    private volatile long lastInputNanos = System.nanoTime();
+    private long pingSentNanos; // 0 while no PING is outstanding, only touched by the timing wheel
+    private volatile TimingWheel.Timeout heartbeat;
+
+    // Commands a client may send once registered
+    private static final int QUIT = 0;
+    private static final int BROADCAST = 1;
+    private static final int PRIVATE = 2;
+    private static final int GET_MEMBERS = 3;
+    private static final int GET_MEMBERS_SINCE = 4;
+    private static final int REQUEST_DETAILS = 5;
+    private static final int SERVER_SHUTDOWN = 6;
+    private static final int JOIN = 7;
+    private static final int LEAVE = 8;
+    private static final int CHANNEL = 9;
+    private static final int PONG = 10;
+    private static final int STATS = 11;
+    private static final CommandParser COMMANDS = new CommandParser()
+            .add("/quit", QUIT, true, false)
+            .add("/broadcast", BROADCAST, false, false)
+            .add("/private", PRIVATE, false, true)
+            .add("/get_members", GET_MEMBERS, true, false)
+            .add("/get_members:", GET_MEMBERS_SINCE, false, false)
+            .add("/request_details", REQUEST_DETAILS, true, false)
+            .add("/server_shutdown", SERVER_SHUTDOWN, true, false)
+            // Each accepts a space or a ':' after the command, e.g. /join general or /channel:general:hello
+            .add("/join", JOIN, false, false)
+            .add("/join:", JOIN, false, false)
+            .add("/leave", LEAVE, false, false)
+            .add("/leave:", LEAVE, false, false)
+            .add("/channel", CHANNEL, false, true)
+            .add("/channel:", CHANNEL, false, true)
+            .add("/pong", PONG, true, false) // Answers PING; receiving it is all that matters
+            .add("/stats", STATS, true, false);
 
     public ClientHandler(Socket socket, Server server) throws IOException {
         this.socket = socket;
         this.server = server;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.out = new PrintWriter(socket.getOutputStream(), true);
+        this.metrics = server.getMetrics();
+        this.log = server.getLog();
+        this.in = new BufferedInputStream(new CountingInputStream(socket.getInputStream(), metrics));
+        this.out = Channels.newChannel(socket.getOutputStream());
+        this.outbound = server.newOutboundQueue();
+        this.coalesceNanos = server.getCoalesceWindowNanos();
+        this.rateLimiter = server.newRateLimiter();
+    }
+
+    // Used by the NIO engine, which does its own non-blocking reads and writes on the channel
+    protected ClientHandler(SocketChannel channel, Server server) {
+        this.socket = channel.socket();
+        this.server = server;
+        this.in = null;
+        this.out = null;
+        this.outbound = server.newOutboundQueue();
+        this.coalesceNanos = server.getCoalesceWindowNanos();
+        this.rateLimiter = server.newRateLimiter();
+        this.metrics = server.getMetrics();
+        this.log = server.getLog();
     }
 
     // Handles a client connection to the server or quitting, assumes a constant listening state
     public void run() {
         try {
-            String initialMessage = in.readLine();
-            if (initialMessage != null && initialMessage.toLowerCase().startsWith("/connect:")) {
-                clientId = initialMessage.substring(9); // Ignore the first 9 characters of /connect: for message categorization
-                server.registerClient(clientId, this);
-                while (running && !socket.isClosed()) {
-                    String input = in.readLine();
-                    if (input == null) break;
-                    if (input.equalsIgnoreCase("/quit")) {
-                        System.out.println("Client " + clientId + " is requesting to quit");
-                        break;
+            in.mark(1);
+            int firstByte = in.read();
+            in.reset();
+            if (firstByte == FrameCodec.CONNECT) {
+                DataInputStream frames = new DataInputStream(in);
+                if (handleConnectFrame(FrameCodec.read(frames))) {
+                    while (running.get() && !socket.isClosed()) {
+                        if (!handleFrame(FrameCodec.read(frames))) break;
+                    }
+                }
+            } else {
+                BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                if (handleInitialMessage(lines.readLine())) {
+                    while (running.get() && !socket.isClosed()) {
+                        if (!handleLine(lines.readLine())) break;
                     }
-                    handleMessage(input);
                 }
             }
         } catch (IOException ex) {
-            if (running) {
-                System.err.println("Error handling client message " + clientId + ": " + ex.getMessage());
+            if (running.get()) {
+                log.error("client_read_failed", "member", clientId, "error", ex.getMessage());
             }
         } finally {
             closeConnection();
         }
     }
 
-    // Handles the formating of messages based on the substring that begins each message
+    // Registers the client if the first line is a /connect: request, returns false if the connection should be dropped
+    boolean handleInitialMessage(String initialMessage) {
+        if (initialMessage != null && initialMessage.toLowerCase().startsWith("/connect:")) {
+            clientId = initialMessage.substring(9); // Ignore the first 9 characters of /connect: for message categorization
+            server.registerClient(clientId, this);
+            startHeartbeat();
+            return true;
+        }
+        return false;
+    }
+
+    // Binary counterpart of handleInitialMessage: acknowledges the CONNECT frame, then registers the client
+    boolean handleConnectFrame(FrameCodec.Frame frame) {
+        if (frame == null || frame.opcode() != FrameCodec.CONNECT) {
+            return false;
+        }
+        binaryProtocol = true;
+        clientId = frame.first();
+        byte accepted = 0;
+        if ((frame.flags() & FrameCodec.CAPABILITY_DEFLATE) != 0 && server.getCompressor() != null) {
+            compressor = server.getCompressor();
+            accepted |= FrameCodec.CAPABILITY_DEFLATE;
+        }
+        // Queued ahead of anything registration sends, so it is the first frame the client reads
+        enqueue(FrameCodec.encode(FrameCodec.CONNECT_ACK, accepted, "", null), true);
+        server.registerClient(clientId, this);
+        startHeartbeat();
+        return true;
+    }
+
+    // Processes one binary frame after registration; the opcode replaces the text protocol's prefix matching
+    boolean handleFrame(FrameCodec.Frame frame) {
+        if (frame == null) return false;
+        lastInputNanos = System.nanoTime();
+        if (!running.get()) return true;
+        try {
+            ServerMetrics.Command counted = frameCommand(frame.opcode());
+            if (counted != null) {
+                metrics.recordCommand(counted);
+            }
+            if (isChatFrame(frame.opcode()) && !admit(ServerConfig.CommandClass.CHAT)) return true;
+            switch (frame.opcode()) {
+                case FrameCodec.QUIT -> {
+                    log.info("member_quit", "member", clientId);
+                    return false;
+                }
+                case FrameCodec.BROADCAST -> server.broadcastChat(clientId, frame.first());
+                case FrameCodec.PRIVATE -> server.sendPrivateMessage(clientId, frame.first(), frame.second());
+                case FrameCodec.CHANNEL -> server.sendChannelMessage(this, frame.first(), frame.second());
+                case FrameCodec.CONTROL -> {
+                    return handleLine(frame.first());
+                }
+                default -> log.warn("unknown_frame", "member", clientId, "opcode", frame.opcode());
+            }
+            if (isChatFrame(frame.opcode())) {
+                recordDelivery();
+            }
+        } catch (Exception ex) {
+            log.error("frame_failed", "member", clientId, "error", ex.getMessage());
+        }
+        return true;
+    }
+
+    // Processes one line after registration, returns false once the client has quit or disconnected
+    boolean handleLine(String input) {
+        if (input == null) return false;
+        lastInputNanos = System.nanoTime();
+        if (!COMMANDS.parse(input, command)) return true; // Unknown commands are ignored
+        metrics.recordCommand(metricsCommand(command.opcode()));
+        if (command.opcode() == QUIT) {
+            log.info("member_quit", "member", clientId);
+            return false;
+        }
+        ServerConfig.CommandClass commandClass = commandClass(command.opcode());
+        if (commandClass == null || admit(commandClass)) {
+            handleMessage(input);
+        }
+        return true;
+    }
+
+    private static boolean isChatFrame(byte opcode) {
+        return opcode == FrameCodec.BROADCAST || opcode == FrameCodec.PRIVATE || opcode == FrameCodec.CHANNEL;
+    }
+
+    // CONTROL frames are counted as the line they carry
+    private static ServerMetrics.Command frameCommand(byte opcode) {
+        return switch (opcode) {
+            case FrameCodec.QUIT -> ServerMetrics.Command.QUIT;
+            case FrameCodec.BROADCAST -> ServerMetrics.Command.BROADCAST;
+            case FrameCodec.PRIVATE -> ServerMetrics.Command.PRIVATE;
+            case FrameCodec.CHANNEL -> ServerMetrics.Command.CHANNEL;
+            default -> null;
+        };
+    }
+
+    private static ServerMetrics.Command metricsCommand(int opcode) {
+        return switch (opcode) {
+            case QUIT -> ServerMetrics.Command.QUIT;
+            case BROADCAST -> ServerMetrics.Command.BROADCAST;
+            case PRIVATE -> ServerMetrics.Command.PRIVATE;
+            case GET_MEMBERS, GET_MEMBERS_SINCE -> ServerMetrics.Command.GET_MEMBERS;
+            case REQUEST_DETAILS -> ServerMetrics.Command.REQUEST_DETAILS;
+            case SERVER_SHUTDOWN -> ServerMetrics.Command.SERVER_SHUTDOWN;
+            case JOIN -> ServerMetrics.Command.JOIN;
+            case LEAVE -> ServerMetrics.Command.LEAVE;
+            case CHANNEL -> ServerMetrics.Command.CHANNEL;
+            case PONG -> ServerMetrics.Command.PONG;
+            case STATS -> ServerMetrics.Command.STATS;
+            default -> throw new IllegalArgumentException("Unknown command opcode " + opcode);
+        };
+    }
+
+    // Sends only queue, so once the server call returns the message has reached its last recipient's queue
+    private void recordDelivery() {
+        metrics.recordDelivery(System.nanoTime() - lastInputNanos);
+    }
+
+    // The rate limit a command counts against; quitting and shutting down are never limited
+    private static ServerConfig.CommandClass commandClass(int opcode) {
+        return switch (opcode) {
+            case BROADCAST, PRIVATE, CHANNEL -> ServerConfig.CommandClass.CHAT;
+            case GET_MEMBERS, GET_MEMBERS_SINCE, JOIN, LEAVE -> ServerConfig.CommandClass.MEMBERSHIP;
+            case REQUEST_DETAILS, STATS -> ServerConfig.CommandClass.DETAILS;
+            default -> null;
+        };
+    }
+
+    // Takes a token for the command or drops it. A throttled client is sent RATE_LIMITED:<class> on the first command
+    // refused, not on every one, so a flood cannot turn into a flood of replies
+    private boolean admit(ServerConfig.CommandClass commandClass) {
+        boolean alreadyThrottled = rateLimiter.isThrottled(commandClass);
+        if (rateLimiter.tryAcquire(commandClass, System.nanoTime())) return true;
+        server.recordRateLimited(commandClass);
+        if (!alreadyThrottled) {
+            log.warn("rate_limited", "member", clientId, "class", commandClass.name().toLowerCase());
+            sendMessage("RATE_LIMITED:" + commandClass.name().toLowerCase());
+        }
+        return false;
+    }
+
+    // Handles a line already matched by COMMANDS, using the argument ranges rather than copying or splitting the line
     private void handleMessage(String message) {
-        if (!running) return;
+        if (!running.get()) return;
         try {
-            String lowerMessage = message.toLowerCase();
-
-            if (lowerMessage.startsWith("/broadcast")) {
-                server.broadcastMessage("/broadcast" + clientId + ":" + message.substring(10));
-            } else if (lowerMessage.startsWith("/private")) {
-                String[] parts = message.substring(8).split(":", 2);
-                server.sendPrivateMessage(clientId, parts[0], parts[1]);
-            } else if (lowerMessage.equals("/get_members")) {
-                sendMessage("MEMBER_LIST:" + server.getMemberList());
-                sendMessage("INACTIVE_MEMBER_LIST:" + server.getInactiveMemberList());
-            } else if (lowerMessage.equals("/request_details")) {
-                server.sendMemberDetails(clientId);
-            } else if (lowerMessage.equals("/server_shutdown")) {
-                if (server.isClientCoordinator(clientId)) {
-                    System.out.println("Server shutdown requested by coordinator: " + clientId);
-                    server.broadcastMessage("The Server is shutting down");
-                    new Thread(() -> {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        server.shutdown();
-                        System.exit(0);
-                    }).start();
-                } else {
-                    // Informs the host in the console that a non coordinator tried to shut the server down (Highly unlikely through chat commands)
-                    System.out.println("Unauthorized server shutdown attempt by: " + clientId);
+            switch (command.opcode()) {
+                case BROADCAST -> {
+                    server.broadcastChat(clientId, command.argument(message));
+                    recordDelivery();
+                }
+                case PRIVATE -> {
+                    if (!command.hasSecond()) {
+                        log.warn("malformed_command", "member", clientId, "command", "private");
+                        return;
+                    }
+                    server.sendPrivateMessage(clientId, command.first(message), command.second(message));
+                    recordDelivery();
+                }
+                case GET_MEMBERS -> server.sendMemberSnapshot(this);
+                case GET_MEMBERS_SINCE -> server.sendMemberSnapshotIfChanged(this, command.argumentAsLong(message));
+                case REQUEST_DETAILS -> server.sendMemberDetails(clientId);
+                case SERVER_SHUTDOWN -> shutdownServer();
+                case JOIN -> server.joinChannel(this, command.argument(message));
+                case LEAVE -> server.leaveChannel(this, command.argument(message));
+                case CHANNEL -> {
+                    if (!command.hasSecond()) {
+                        log.warn("malformed_command", "member", clientId, "command", "channel");
+                        return;
+                    }
+                    server.sendChannelMessage(this, command.first(message), command.second(message));
+                    recordDelivery();
+                }
+                case PONG -> {
+                    // Arriving already refreshed lastInputNanos
                 }
+                case STATS -> server.sendStats(this);
             }
         } catch (Exception ex) {
             // Error handling in the instance a message cannot be received from a client
-            System.err.println("Error processing message from " + clientId + ": " + ex.getMessage());
+            log.error("command_failed", "member", clientId, "error", ex.getMessage());
         }
     }
 
-    public synchronized void sendMessage(String message) {
-        if (!running || socket.isClosed()) return;
-        try {
-            out.println(message);
-            if (out.checkError()) {
-                throw new IOException("Failed to send message");
+    private void startHeartbeat() {
+        if (server.getHeartbeatIntervalNanos() > 0) {
+            scheduleHeartbeat(server.getHeartbeatIntervalNanos());
+        }
+    }
+
+    private void scheduleHeartbeat(long delayNanos) {
+        if (running.get()) {
+            heartbeat = server.getTimers().schedule(this::checkHeartbeat, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Runs on the timing wheel, so a dead client is evicted on the client executor rather than here
+    private void checkHeartbeat() {
+        long now = System.nanoTime();
+        if (pingSentNanos != 0 && lastInputNanos - pingSentNanos >= 0) {
+            pingSentNanos = 0; // Answered
+        }
+        if (pingSentNanos == 0) {
+            long quiet = now - lastInputNanos;
+            if (quiet < server.getHeartbeatIntervalNanos()) {
+                scheduleHeartbeat(server.getHeartbeatIntervalNanos() - quiet);
+                return;
             }
-        } catch (IOException ex) {
-            System.err.println("Error sending message to " + clientId + ": " + ex.getMessage());
+            pingSentNanos = now;
+            sendMessage("PING");
+            scheduleHeartbeat(server.getHeartbeatTimeoutNanos());
+            return;
+        }
+        log.warn("heartbeat_eviction", "member", clientId);
+        server.recordHeartbeatEviction();
+        try {
+            server.getClientExecutor().execute(this::closeConnection);
+        } catch (RejectedExecutionException ex) {
             closeConnection();
         }
     }
-    // Handles a client leaving the server/chat, and closes their connection to prevent zombie thread
-    public synchronized void closeConnection() {
-        if (!running) return;
-        running = false;
+
+    // Only the coordinator may shut the server down
+    private void shutdownServer() {
+        if (server.isClientCoordinator(clientId)) {
+            log.info("shutdown_requested", "member", clientId);
+            server.broadcastMessage("The Server is shutting down");
+            new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                server.shutdown();
+                System.exit(0);
+            }).start();
+        } else {
+            // Informs the host in the console that a non coordinator tried to shut the server down (Highly unlikely through chat commands)
+            log.warn("shutdown_refused", "member", clientId);
+        }
+    }
+
+    // Queues a reply meant for this client alone and returns straight away. Replies are control traffic the client
+    // is waiting on, so they skip the coalescing window
+    public void sendMessage(String message) {
+        send(OutboundFrame.of(message), true);
+    }
+
+    // Queues an already encoded frame, letting a broadcast share one encoding between all of its recipients
+    public void send(OutboundFrame frame) {
+        send(frame, false);
+    }
+
+    void send(OutboundFrame frame, boolean urgent) {
+        if (!running.get() || socket.isClosed()) return;
+        FrameCompressor deflate = compressor;
+        enqueue(deflate != null ? frame.compressedBuffer(deflate)
+                : binaryProtocol ? frame.binaryBuffer() : frame.buffer(), urgent);
+    }
+
+    // Queues the last few broadcasts, encoded for this client, as a single write
+    void replayHistory(MessageHistory history, int limit) {
+        if (!running.get() || socket.isClosed()) return;
+        ByteBuffer batch = history.replay(limit, binaryProtocol);
+        if (batch != null) {
+            enqueue(batch, true);
+        }
+    }
+
+    protected void enqueue(ByteBuffer data, boolean urgent) {
+        if (!outbound.offer(data)) {
+            log.warn("slow_consumer_disconnected", "member", clientId);
+            // Closing here could run inside someone else's broadcast, so hand it to the pool instead
+            try {
+                server.getClientExecutor().execute(this::closeConnection);
+            } catch (RejectedExecutionException ex) {
+                closeConnection();
+            }
+            return;
+        }
+        if (urgent) {
+            flushNow = true;
+        }
+        if (outbound.tryClaimDrain()) {
+            scheduleDrain();
+        } else if (urgent) {
+            expedite();
+        }
+    }
+
+    // Cuts short a coalescing window that is already running; the NIO handler overrides this to tell its event loop
+    protected void expedite() {
+        Thread waiting = drainer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    // True if the next flush should wait for more output: the last one was a batch and nothing urgent is queued
+    protected boolean shouldCoalesce() {
+        return coalesceNanos > 0 && lastFlushFrames > 1 && !flushNow;
+    }
+
+    // Starts a writer for the queued output; the NIO handler overrides this to hand the work to its event loop
+    protected void scheduleDrain() {
         try {
-            if (clientId != null && server.isRunning()) {
-                server.removeClient(clientId);
+            server.getClientExecutor().execute(this::drainOutbound);
+        } catch (RejectedExecutionException ex) {
+            // Server is shutting down, the queued output is discarded with the connection
+            outbound.clear();
+        }
+    }
+
+    private void drainOutbound() {
+        do {
+            awaitCoalescingWindow();
+            flushNow = false;
+            int frames = 0;
+            try {
+                int count;
+                while (running.get() && (count = outbound.drainTo(batch)) > 0) {
+                    writeBatch(count);
+                    frames += count;
+                }
+            } catch (IOException ex) {
+                if (running.get()) {
+                    log.error("client_write_failed", "member", clientId, "error", ex.getMessage());
+                }
+                closeConnection();
+                return;
+            }
+            lastFlushFrames = frames;
+        } while (outbound.releaseDrain());
+    }
+
+    private void awaitCoalescingWindow() {
+        if (!shouldCoalesce()) return;
+        drainer = Thread.currentThread();
+        try {
+            long deadline = System.nanoTime() + coalesceNanos;
+            long remaining;
+            while (!flushNow && running.get() && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            drainer = null;
+        }
+    }
+
+    // Copies the batch into one buffer so it leaves in a single write instead of one per frame
+    private void writeBatch(int count) throws IOException {
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        }
+        for (int i = 0; i < count; i++) {
+            ByteBuffer data = batch[i];
+            batch[i] = null;
+            if (data.remaining() > writeBuffer.remaining()) {
+                flushWriteBuffer();
+                if (data.remaining() > writeBuffer.capacity()) {
+                    writeFully(data); // Too big to gather, it goes out on its own
+                    continue;
+                }
             }
+            writeBuffer.put(data);
+        }
+        flushWriteBuffer();
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        metrics.recordBytesOut(data.remaining());
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    // Handles a client leaving the server/chat, and closes their connection to prevent zombie thread
+    public void closeConnection() {
+        if (!running.compareAndSet(true, false)) return;
+        TimingWheel.Timeout pendingHeartbeat = heartbeat;
+        if (pendingHeartbeat != null) {
+            pendingHeartbeat.cancel();
+        }
+        try {
+            // Closing the socket first also unblocks a drainer stuck writing to a client that stopped reading
             if (!socket.isClosed()) {
                 socket.close();
             }
             if (in != null) in.close();
             if (out != null) out.close();
         } catch (IOException ex) {
-            System.err.println("Error closing connection for " + clientId + ": " + ex.getMessage());
+            log.error("close_failed", "member", clientId, "error", ex.getMessage());
+        }
+        outbound.clear();
+        if (clientId != null && server.isRunning()) {
+            server.removeClient(clientId);
         }
     }
 
     public Socket getSocket() {
         return socket;
     }
+
+    // Frames waiting to be written to this client
+    int getOutboundDepth() {
+        return outbound.size();
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    protected boolean isRunning() {
+        return running.get();
+    }
+
+    // Adds what the reader thread takes off the socket to the server's inbound byte count
+    private static final class CountingInputStream extends FilterInputStream {
+        private final ServerMetrics metrics;
+
+        CountingInputStream(InputStream in, ServerMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) metrics.recordBytesIn(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) metrics.recordBytesIn(read);
+            return read;
+        }
+    }
 }
\ No newline at end of file
@@ -4,6 +4,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 import java.net.*;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientHandlerTest {
 
@@ -22,8 +25,14 @@ public class ClientHandlerTest {
     }
 
     private static class DummySocket extends Socket {
-        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream outputStream;
         private boolean closed = false;
+        DummySocket() {
+            this(new ByteArrayOutputStream());
+        }
+        DummySocket(ByteArrayOutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
         @Override
         public OutputStream getOutputStream() {
             return outputStream;
@@ -45,6 +54,25 @@ public class ClientHandlerTest {
         }
     }
 
+    // Counts socket writes and holds the first one until released, so output can pile up behind it
+    private static class GatedOutputStream extends ByteArrayOutputStream {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        private final AtomicInteger writes = new AtomicInteger();
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (writes.getAndIncrement() == 0) {
+                firstWriteStarted.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.write(b, off, len);
+        }
+    }
+
     private static class TestServer extends Server {
         public TestServer() throws IOException {
             super(pickRandomServerPort());
@@ -58,6 +86,7 @@ public class ClientHandlerTest {
         }
         @Override public synchronized void registerClient(String clientId, ClientHandler handler) {}
         @Override public void broadcastMessage(String message) {}
+        @Override public void broadcastChat(String from, String text) {}
         @Override public void sendPrivateMessage(String from, String to, String message) {}
         @Override public String getMemberList() { return "dummy"; }
         @Override public void sendMemberDetails(String clientId) {}
@@ -84,6 +113,11 @@ public class ClientHandlerTest {
         TestServer server = new TestServer();
         ClientHandler handler = new ClientHandler(socket, server);
         handler.sendMessage("Hello, world!");
+        // Output is written by a background drainer, so give it a moment to reach the socket
+        long deadline = System.currentTimeMillis() + 2000;
+        while (socket.getOutputString().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
         String written = socket.getOutputString().trim();
         assertEquals("Hello, world!", written, "sendMessage() should write the exact message to the socket output.");
         System.out.println("testSendMessage() passed: message was sent successfully.\n");
@@ -99,4 +133,53 @@ public class ClientHandlerTest {
         assertTrue(socket.isClosed(), "Socket should be marked closed after closeConnection().");
         System.out.println("testCloseConnection() passed: socket was closed successfully.\n");
     }
+
+    @Test
+    public void testQueuedOutputIsCoalesced() throws Exception {
+        System.out.println("=== testQueuedOutputIsCoalesced() ===");
+        GatedOutputStream output = new GatedOutputStream();
+        DummySocket socket = new DummySocket(output);
+        TestServer server = new TestServer();
+        ClientHandler handler = new ClientHandler(socket, server);
+        handler.send(OutboundFrame.of("first"));
+        assertTrue(output.firstWriteStarted.await(2, TimeUnit.SECONDS), "The first message should be written at once.");
+        for (int i = 0; i < 20; i++) {
+            handler.send(OutboundFrame.of("line " + i));
+        }
+        output.gate.countDown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!socket.getOutputString().contains("line 19") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(socket.getOutputString().endsWith("line 19\n"), "Every queued line should be delivered in order.");
+        assertEquals(2, output.writes.get(), "The 20 lines queued behind the first write should leave in one write.");
+        System.out.println("testQueuedOutputIsCoalesced() passed: 21 messages took 2 socket writes.\n");
+    }
+
+    @Test
+    public void testFloodingClientIsRateLimited() throws Exception {
+        System.out.println("=== testFloodingClientIsRateLimited() ===");
+        DummySocket socket = new DummySocket();
+        AtomicInteger broadcasts = new AtomicInteger();
+        TestServer server = new TestServer() {
+            @Override public void broadcastChat(String from, String text) { broadcasts.incrementAndGet(); }
+        };
+        ClientHandler handler = new ClientHandler(socket, server);
+        int burst = new ServerConfig().getRateBurst(ServerConfig.CommandClass.CHAT);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(handler.handleLine("/broadcastspam " + i), "A throttled client stays connected.");
+        }
+        int passed = broadcasts.get();
+        assertTrue(passed >= burst && passed < burst + 10, "About one burst should get through, got " + passed);
+        assertEquals(200 - passed, server.getRateLimitedEvents(ServerConfig.CommandClass.CHAT));
+        assertEquals(0, server.getRateLimitedEvents(ServerConfig.CommandClass.DETAILS));
+        handler.handleLine("/quit"); // Never limited
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!socket.getOutputString().contains("RATE_LIMITED") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals("RATE_LIMITED:chat", socket.getOutputString().trim(), "The client should be told once, not once per line.");
+        System.out.println("testFloodingClientIsRateLimited() passed: " + passed + " of 200 broadcasts admitted.\n");
+    }
 }
@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+// Table driven matcher for the prefixes of the text protocol. A line is matched case-insensitively in place against the
+// entries sharing its first significant character, and the result is written into a reusable Match as an opcode plus
+// index ranges, so dispatching a line allocates nothing beyond the argument strings the caller chooses to take
+public final class CommandParser {
+    public static final int NONE = -1;
+
+    private record Entry(String prefix, int opcode, boolean exact, boolean split) {
+    }
+
+    private final Entry[][] buckets = new Entry[128][];
+
+    // exact: the whole line must equal the prefix; split: the arguments hold two fields separated by the first ':'
+    public CommandParser add(String prefix, int opcode, boolean exact, boolean split) {
+        int key = bucketOf(prefix);
+        if (key < 0) {
+            throw new IllegalArgumentException("Prefix must start with an ASCII character: " + prefix);
+        }
+        Entry[] bucket = buckets[key] == null ? new Entry[0] : buckets[key];
+        bucket = Arrays.copyOf(bucket, bucket.length + 1);
+        bucket[bucket.length - 1] = new Entry(prefix, opcode, exact, split);
+        // Longest first, so /get_members: is tried before /get_members
+        Arrays.sort(bucket, (a, b) -> b.prefix.length() - a.prefix.length());
+        buckets[key] = bucket;
+        return this;
+    }
+
+    // Fills in the match and returns true if the line starts with a known command; the match is left at NONE otherwise
+    public boolean parse(String line, Match match) {
+        match.opcode = NONE;
+        int key = bucketOf(line);
+        Entry[] bucket = key < 0 ? null : buckets[key];
+        if (bucket == null) return false;
+        for (Entry entry : bucket) {
+            int length = entry.prefix.length();
+            if (entry.exact ? line.length() != length : line.length() < length) continue;
+            // Clients send the canonical spelling, so try the cheap exact compare before folding case
+            if (!line.startsWith(entry.prefix) && !line.regionMatches(true, 0, entry.prefix, 0, length)) continue;
+            match.opcode = entry.opcode;
+            match.argStart = length;
+            match.end = line.length();
+            match.separator = entry.split ? line.indexOf(':', length) : -1;
+            return true;
+        }
+        return false;
+    }
+
+    // Lines are bucketed by their first character after an optional leading '/', folded to lower case
+    private static int bucketOf(String text) {
+        if (text.isEmpty()) return -1;
+        int index = text.charAt(0) == '/' ? 1 : 0;
+        if (text.length() <= index) return -1;
+        char c = text.charAt(index);
+        if (c >= 128) return -1;
+        return Character.toLowerCase(c);
+    }
+
+    // The outcome of a parse, meant to be kept and reused by one reader rather than allocated per line
+    public static final class Match {
+        private int opcode = NONE;
+        private int argStart;
+        private int separator = -1;
+        private int end;
+
+        public int opcode() {
+            return opcode;
+        }
+
+        // Everything after the prefix
+        public String argument(String line) {
+            return line.substring(argStart, end);
+        }
+
+        // For split commands: false if the line had no ':' separating the two fields
+        public boolean hasSecond() {
+            return separator >= 0;
+        }
+
+        public String first(String line) {
+            return line.substring(argStart, separator);
+        }
+
+        public String second(String line) {
+            return line.substring(separator + 1, end);
+        }
+
+        // Parses the arguments as a number without taking a substring first
+        public long argumentAsLong(String line) {
+            return Long.parseLong(line, argStart, end, 10);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandParserTest {
+    private static final CommandParser PARSER = new CommandParser()
+            .add("/broadcast", 1, false, false)
+            .add("/private", 2, false, true)
+            .add("/get_members", 3, true, false)
+            .add("/get_members:", 4, false, false)
+            .add("server_shut_down", 5, true, false);
+
+    @Test
+    public void testPrefixMatchIgnoresCase() {
+        System.out.println("Running testPrefixMatchIgnoresCase: Commands match in any case and expose their arguments.");
+        CommandParser.Match match = new CommandParser.Match();
+        String line = "/BroadCastHello: world";
+        assertTrue(PARSER.parse(line, match));
+        assertEquals(1, match.opcode());
+        assertEquals("Hello: world", match.argument(line));
+        System.out.println("testPrefixMatchIgnoresCase passed.");
+    }
+
+    @Test
+    public void testSplitArguments() {
+        System.out.println("Running testSplitArguments: Two field commands split on the first ':' only.");
+        CommandParser.Match match = new CommandParser.Match();
+        String line = "/privateBob:meet at 12:30";
+        assertTrue(PARSER.parse(line, match));
+        assertEquals(2, match.opcode());
+        assertTrue(match.hasSecond());
+        assertEquals("Bob", match.first(line));
+        assertEquals("meet at 12:30", match.second(line));
+
+        assertTrue(PARSER.parse("/privateBob", match));
+        assertFalse(match.hasSecond(), "A private message without a separator has no second field");
+        System.out.println("testSplitArguments passed.");
+    }
+
+    @Test
+    public void testExactAndLongestPrefix() {
+        System.out.println("Running testExactAndLongestPrefix: Exact commands need the whole line and longer prefixes win.");
+        CommandParser.Match match = new CommandParser.Match();
+        assertTrue(PARSER.parse("/get_members", match));
+        assertEquals(3, match.opcode());
+        String line = "/get_members:17";
+        assertTrue(PARSER.parse(line, match));
+        assertEquals(4, match.opcode());
+        assertEquals(17, match.argumentAsLong(line));
+        assertTrue(PARSER.parse("SERVER_SHUT_DOWN", match));
+        assertEquals(5, match.opcode());
+
+        assertFalse(PARSER.parse("/get_membersx", match));
+        assertEquals(CommandParser.NONE, match.opcode());
+        assertFalse(PARSER.parse("", match));
+        assertFalse(PARSER.parse("/", match));
+        assertFalse(PARSER.parse("hello", match));
+        System.out.println("testExactAndLongestPrefix passed.");
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// The server's operational log, written asynchronously. A caller only claims a slot in a fixed ring buffer by CAS and
+// stores its event there; one background thread formats the events and writes them to the console or a file, so no
+// broadcasting thread ever waits on an output stream's lock. When the writer falls behind, INFO events are sampled (one
+// in SAMPLE_EVERY kept) once the buffer is half full, and every event is dropped once it is full; the writer then logs
+// how many were lost. Lines are structured, an event name followed by key=value fields:
+// 2026-10-17T10:15:30.123 INFO member_joined member=Alice#0042
+public final class EventLog implements Closeable {
+    public enum Level { INFO, WARN, ERROR }
+
+    private static final int SAMPLE_EVERY = 16;
+    private static final long IDLE_PARK_NANOS = 100_000_000L; // The writer also wakes by itself, in case a wakeup is missed
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private record Event(long timeMillis, Level level, String name, Object[] fields) {}
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next sequence a caller claims
+    private volatile long head; // Next sequence the writer takes; only the writer advances it
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final Writer out;    // INFO events, and everything when writing to a file
+    private final Writer errors; // WARN and ERROR events on the console
+    private final boolean ownsOutput;
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    private long droppedReported; // Only touched by the writer
+    private long sampledReported;
+
+    // Writes to stdout and stderr
+    public EventLog(int capacity) {
+        this(capacity, new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                new OutputStreamWriter(System.err, StandardCharsets.UTF_8), false);
+    }
+
+    // Appends to the file, creating it if needed
+    public EventLog(int capacity, Path file) throws IOException {
+        this(capacity, Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.WRITE), null, true);
+    }
+
+    // Writes every event to out, which it closes along with the log if it owns it
+    EventLog(int capacity, Writer out, Writer errors, boolean ownsOutput) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.out = out;
+        this.errors = errors == null ? out : errors;
+        this.ownsOutput = ownsOutput;
+        this.writer = new Thread(this::run, "EventLogWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Fields are alternating names and values, e.g. info("member_joined", "member", id)
+    public void info(String event, Object... fields) {
+        log(Level.INFO, event, fields);
+    }
+
+    public void warn(String event, Object... fields) {
+        log(Level.WARN, event, fields);
+    }
+
+    public void error(String event, Object... fields) {
+        log(Level.ERROR, event, fields);
+    }
+
+    public void log(Level level, String event, Object... fields) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        if (level == Level.INFO && tail.get() - head >= slots.length() / 2
+                && ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) != 0) {
+            sampled.increment();
+            return;
+        }
+        // Built before claiming a slot, so the writer never waits on a claimed slot while the event is put together
+        Event entry = new Event(System.currentTimeMillis(), level, event, fields);
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= slots.length()) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.set((int) (sequence & mask), entry);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Events lost because the buffer was full, or logged after close
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    // INFO events skipped by sampling while the writer was behind
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    // Writes out what is already buffered, then stops the writer
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long sequence = head;
+            int slot = (int) (sequence & mask);
+            Event event = slots.get(slot);
+            if (event != null) {
+                slots.set(slot, null);
+                head = sequence + 1; // Frees the slot for callers
+                write(event.timeMillis(), event.level(), event.name(), event.fields());
+                continue;
+            }
+            if (tail.get() != sequence) {
+                Thread.onSpinWait(); // Claimed, but the caller has not stored the event yet
+                continue;
+            }
+            reportLosses();
+            flush();
+            if (closed) break;
+            writerParked = true;
+            if (tail.get() == sequence) { // Checked again after announcing the park, so a new event is not missed
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+        if (ownsOutput) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                System.err.println("Could not close the event log: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void reportLosses() {
+        long droppedNow = dropped.sum();
+        long sampledNow = sampled.sum();
+        if (droppedNow != droppedReported || sampledNow != sampledReported) {
+            write(System.currentTimeMillis(), Level.WARN, "log_events_lost", new Object[]{
+                    "dropped", droppedNow - droppedReported, "sampled", sampledNow - sampledReported});
+            droppedReported = droppedNow;
+            sampledReported = sampledNow;
+        }
+    }
+
+    private void write(long timeMillis, Level level, String name, Object[] fields) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(TIME.format(Instant.ofEpochMilli(timeMillis))).append(' ').append(level).append(' ').append(name);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=');
+            appendValue(line, String.valueOf(fields[i + 1]));
+        }
+        line.append('\n');
+        try {
+            (level == Level.INFO ? out : errors).write(line.toString());
+        } catch (IOException ex) {
+            dropped.increment(); // Nowhere left to report it
+        }
+    }
+
+    // Quotes a value that would otherwise be ambiguous, keeping every event on one line
+    static void appendValue(StringBuilder line, String value) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=' && c != '\\';
+        }
+        if (plain) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"', '\\' -> line.append('\\').append(c);
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                default -> line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+            if (errors != out) {
+                errors.flush();
+            }
+        } catch (IOException ex) {
+            // Reported as dropped events the next time a write fails
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventLogTest {
+    // Holds up the writer thread on its first write until released, as a stalled console would
+    private static class StalledWriter extends StringWriter {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(String text) {
+            writing.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(text);
+        }
+    }
+
+    @Test
+    public void testWritesStructuredLinesInOrder() throws Exception {
+        System.out.println("Running testWritesStructuredLinesInOrder: Events reach the file in order, with awkward values quoted.");
+        Path file = Files.createTempFile("events", ".log");
+        try {
+            EventLog log = new EventLog(64, file);
+            log.info("member_joined", "member", "Alice#0001");
+            log.warn("rate_limited", "member", "Bob", "class", "chat");
+            log.info("broadcast", "from", "Alice", "text", "say \"hi\" = hello\nbye");
+            for (int i = 0; i < 20; i++) {
+                log.info("tick", "n", i);
+            }
+            log.close();
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(23, lines.size(), String.join("\n", lines));
+            assertTrue(lines.get(0).endsWith(" INFO member_joined member=Alice#0001"), lines.get(0));
+            assertTrue(lines.get(1).endsWith(" WARN rate_limited member=Bob class=chat"), lines.get(1));
+            assertTrue(lines.get(2).endsWith(" text=\"say \\\"hi\\\" = hello\\nbye\""), lines.get(2));
+            for (int i = 0; i < 20; i++) {
+                assertTrue(lines.get(3 + i).endsWith(" tick n=" + i), lines.get(3 + i));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println("testWritesStructuredLinesInOrder passed.");
+    }
+
+    @Test
+    public void testSamplesThenDropsWhileWriterIsBehind() throws Exception {
+        System.out.println("Running testSamplesThenDropsWhileWriterIsBehind: A stalled writer never blocks callers; losses are counted and reported.");
+        StalledWriter out = new StalledWriter();
+        EventLog log = new EventLog(16, out, null, false);
+        log.info("first");
+        assertTrue(out.writing.await(2, TimeUnit.SECONDS), "The writer should have taken the first event");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            log.info("flood", "n", i);
+        }
+        log.error("failure");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "Logging must not wait for the writer");
+        assertTrue(log.getSampled() > 0, "INFO events should be sampled once the buffer is half full");
+        assertTrue(log.getDropped() > 0, "Events should be dropped once the buffer is full");
+        assertTrue(log.getSampled() + log.getDropped() >= 1001 - 16);
+
+        out.release.countDown();
+        log.close();
+        String written = out.toString();
+        assertTrue(written.contains(" WARN log_events_lost dropped=" + log.getDropped() + " sampled=" + log.getSampled()), written);
+        System.out.println("testSamplesThenDropsWhileWriterIsBehind passed.");
+    }
+}
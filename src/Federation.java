@@ -0,0 +1,382 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Links this server to the other nodes of a cluster so that their members share one chat. Every pair of nodes keeps a
+// single TCP link carrying FrameCodec frames. Each node forwards the broadcasts, channel messages and private messages
+// of its own members, and gossips its full member list whenever that list changes. Nothing is relayed a second time,
+// so the nodes must form a full mesh: each one dials the peers it was given and keeps redialling any it has no link to.
+// A link is only used once both ends have proved they know the cluster secret: each sends a random nonce in its
+// PEER_HELLO and answers the other's with PEER_AUTH, an HMAC of that nonce and its own node id. The secret itself never
+// crosses the wire, and a proof is useless on any other link since the nonce differs
+public class Federation {
+    private static final long REDIAL_MILLIS = 2000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000; // An unauthenticated link is closed after this
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Server server;
+    private final String nodeId;
+    private final ServerSocket listener;
+    private final List<String> peers; // host:port of the nodes this one dials
+    private final int queueCapacity;
+    private final SecretKeySpec secret;
+    // Established links by the id of the node at the other end. Sends only read this map, so they never lock
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Object registrationLock = new Object(); // Only held to choose between two links to the same node
+    private final Map<String, String> dialledNodes = new ConcurrentHashMap<>(); // host:port dialled -> node id it answered with
+    private final Map<String, PeerLink> dialling = new ConcurrentHashMap<>();   // host:port -> link still waiting for its hello
+    private volatile ByteBuffer membersFrame; // The latest PEER_MEMBERS gossip, also sent to each new link
+    private volatile boolean running = true;
+
+    public Federation(Server server, ServerConfig config) throws IOException {
+        this.server = server;
+        this.nodeId = config.getNodeId();
+        this.peers = config.getPeers();
+        this.queueCapacity = config.getPeerQueueCapacity();
+        if (config.getPeerSecret() == null) {
+            throw new IOException("A cluster secret (--peer-secret) is required to open a peer port");
+        }
+        this.secret = new SecretKeySpec(config.getPeerSecret().getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.membersFrame = FrameCodec.encode(FrameCodec.PEER_MEMBERS, "0", "");
+        this.listener = new ServerSocket();
+        try {
+            listener.setReuseAddress(true);
+            listener.bind(config.getPeerBindAddress() == null ? new InetSocketAddress(config.getPeerPort())
+                    : new InetSocketAddress(config.getPeerBindAddress(), config.getPeerPort()));
+        } catch (IOException e) {
+            listener.close();
+            throw e; // The server reports a BindException as the peer port being in use
+        }
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "FederationAcceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Thread dialler = new Thread(this::dialLoop, "FederationDialler");
+        dialler.setDaemon(true);
+        dialler.start();
+        server.getLog().info("federation_started", "node", nodeId, "peer_address", listener.getLocalSocketAddress());
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public int getPeerPort() {
+        return listener.getLocalPort();
+    }
+
+    // Ids of the nodes currently linked to this one
+    public Set<String> linkedNodes() {
+        return Collections.unmodifiableSet(links.keySet());
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                new PeerLink(listener.accept(), null).start();
+            } catch (IOException ex) {
+                if (running) {
+                    server.getLog().error("peer_accept_failed", "error", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void dialLoop() {
+        while (running) {
+            for (String peer : peers) {
+                String linkedNode = dialledNodes.get(peer);
+                if ((linkedNode != null && links.containsKey(linkedNode)) || dialling.containsKey(peer)) continue;
+                int colon = peer.lastIndexOf(':');
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))),
+                            CONNECT_TIMEOUT_MILLIS);
+                    PeerLink link = new PeerLink(socket, peer);
+                    dialling.put(peer, link);
+                    link.start();
+                } catch (IOException | RuntimeException ex) {
+                    closeQuietly(socket);
+                }
+            }
+            try {
+                Thread.sleep(REDIAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Publishes this node's members as of the given snapshot. Called in delivery order, and the version lets a peer
+    // ignore a snapshot older than one it already applied
+    void publishMembers(Membership current) {
+        StringBuilder lines = new StringBuilder();
+        for (String member : current.members().keySet()) {
+            lines.append(current.joinedAt().get(member)).append(' ').append(member).append('\n');
+        }
+        ByteBuffer frame = FrameCodec.encode(FrameCodec.PEER_MEMBERS, String.valueOf(current.sequence()), lines.toString());
+        membersFrame = frame;
+        sendToAll(frame);
+    }
+
+    void forwardBroadcast(String from, String text) {
+        sendToAll(FrameCodec.encode(FrameCodec.PEER_BROADCAST, from, text));
+    }
+
+    void forwardChannel(String channel, String from, String text) {
+        sendToAll(FrameCodec.encode(FrameCodec.PEER_CHANNEL, channel + ":" + from, text));
+    }
+
+    // Returns false if there is currently no link to the node the recipient is connected to
+    boolean forwardPrivate(String node, String from, String to, String text) {
+        PeerLink link = links.get(node);
+        if (link == null) return false;
+        link.send(FrameCodec.encode(FrameCodec.PEER_PRIVATE, from + "\n" + to, text));
+        return true;
+    }
+
+    // Encoded once; every link writes from its own view of the same bytes
+    private void sendToAll(ByteBuffer frame) {
+        for (PeerLink link : links.values()) {
+            link.send(frame.duplicate());
+        }
+    }
+
+    // Both nodes may dial each other at once. Every node keeps the link dialled by the smaller node id, so the two ends
+    // settle on the same one; a redial by the same node replaces nothing
+    private boolean register(PeerLink link, String peerId) {
+        if (link.dialled != null) {
+            dialledNodes.put(link.dialled, peerId);
+            dialling.remove(link.dialled, link);
+        }
+        if (peerId.equals(nodeId)) {
+            server.getLog().warn("peer_link_to_self", "address", link.dialled);
+            return false;
+        }
+        PeerLink replaced;
+        synchronized (registrationLock) {
+            replaced = links.get(peerId);
+            if (replaced != null) {
+                String initiator = link.initiator(), existing = replaced.initiator();
+                if (initiator.equals(existing) || initiator.compareTo(existing) > 0) return false;
+            }
+            links.put(peerId, link);
+        }
+        if (replaced != null) {
+            replaced.close();
+        }
+        server.getLog().info("peer_linked", "node", peerId);
+        link.send(membersFrame.duplicate());
+        return true;
+    }
+
+    private void unregister(PeerLink link) {
+        if (link.dialled != null) {
+            dialling.remove(link.dialled, link);
+        }
+        if (link.peerId != null && links.remove(link.peerId, link)) {
+            server.getLog().warn("peer_lost", "node", link.peerId);
+            server.updateRemoteMembers(link.peerId, Collections.emptyMap());
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        closeQuietly(listener);
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        for (PeerLink link : dialling.values()) {
+            link.close();
+        }
+    }
+
+    // What a node proves it knows the secret with: an HMAC over the nonce the other end sent and the node's own id
+    static String proof(SecretKeySpec secret, String nonce, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            return HexFormat.of().formatHex(mac.doFinal((nonce + "\n" + nodeId).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 is unavailable", ex); // Every JDK is required to provide it
+        }
+    }
+
+    private static String newNonce() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Already closed or never opened
+        }
+    }
+
+    // One end of a link. A reader thread applies incoming frames; a writer thread drains the queue, so forwarding a
+    // message never waits on a slow peer's socket. The queue is bounded: a peer that falls a whole queue behind has its
+    // link dropped rather than dropping frames from it, since a lost frame would quietly split the chat. Its node then
+    // leaves the member list until the link is redialled and a fresh member list arrives
+    private final class PeerLink {
+        private final Socket socket;
+        private final String dialled; // The host:port this node dialled, null for a link the peer opened
+        private volatile String peerId;
+        private final String nonce = newNonce(); // What the other end must prove the secret over
+        private long membersVersion = -1; // Only touched by the reader thread
+        private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private volatile boolean open = true;
+        private Thread writer;
+
+        PeerLink(Socket socket, String dialled) {
+            this.socket = socket;
+            this.dialled = dialled;
+        }
+
+        // Whichever node opened the link
+        String initiator() {
+            return dialled != null ? nodeId : peerId;
+        }
+
+        void start() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            } catch (SocketException ignored) {
+                // Already closed, the reader finds out
+            }
+            send(FrameCodec.encode(FrameCodec.PEER_HELLO, nodeId, nonce));
+            writer = new Thread(this::writeLoop, "FederationWriter");
+            writer.setDaemon(true);
+            writer.start();
+            Thread reader = new Thread(this::readLoop, "FederationReader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(ByteBuffer frame) {
+            if (open && !queue.offer(frame)) {
+                server.getLog().warn("peer_stalled", "node", peerId == null ? dialled : peerId, "queued", queueCapacity);
+                close();
+            }
+        }
+
+        private void writeLoop() {
+            try (OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8192)) {
+                while (open) {
+                    ByteBuffer frame = queue.take();
+                    do {
+                        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    } while ((frame = queue.poll()) != null);
+                    out.flush(); // One flush per run of queued frames
+                }
+            } catch (IOException | InterruptedException ex) {
+                // Closed, the reader notices as well
+            } finally {
+                close();
+            }
+        }
+
+        private void readLoop() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (!authenticate(in)) return;
+                socket.setSoTimeout(0);
+                if (!register(this, peerId)) return;
+                FrameCodec.Frame frame;
+                while (open && (frame = FrameCodec.read(in)) != null) {
+                    handle(frame);
+                }
+            } catch (IOException ex) {
+                if (open && running) {
+                    server.getLog().error("peer_link_failed", "node", peerId == null ? dialled : peerId, "error", ex.getMessage());
+                }
+            } finally {
+                close();
+                unregister(this);
+            }
+        }
+
+        // Reads the other end's hello, answers its nonce and checks its answer to ours. Nothing else is read from a link
+        // that fails, so an outsider who can reach the peer port cannot inject members or messages
+        private boolean authenticate(DataInputStream in) throws IOException {
+            FrameCodec.Frame hello = FrameCodec.read(in);
+            if (hello == null || hello.opcode() != FrameCodec.PEER_HELLO || hello.second() == null) {
+                return rejected("bad_hello");
+            }
+            String claimedId = hello.first();
+            send(FrameCodec.encode(FrameCodec.PEER_AUTH, proof(secret, hello.second(), nodeId), null));
+            FrameCodec.Frame auth = FrameCodec.read(in);
+            if (auth == null || auth.opcode() != FrameCodec.PEER_AUTH) {
+                return rejected("no_proof");
+            }
+            byte[] expected = proof(secret, nonce, claimedId).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, auth.first().getBytes(StandardCharsets.UTF_8))) {
+                return rejected("wrong_secret");
+            }
+            peerId = claimedId;
+            return true;
+        }
+
+        private boolean rejected(String reason) {
+            server.getLog().warn("peer_rejected", "address", socket.getRemoteSocketAddress(), "reason", reason);
+            return false;
+        }
+
+        private void handle(FrameCodec.Frame frame) {
+            switch (frame.opcode()) {
+                case FrameCodec.PEER_MEMBERS -> {
+                    long version = Long.parseLong(frame.first());
+                    if (version <= membersVersion) return;
+                    membersVersion = version;
+                    Map<String, Long> members = new LinkedHashMap<>();
+                    for (String line : frame.second().split("\n")) {
+                        int space = line.indexOf(' ');
+                        if (space > 0) {
+                            members.put(line.substring(space + 1), Long.parseLong(line, 0, space, 10));
+                        }
+                    }
+                    server.updateRemoteMembers(peerId, members);
+                }
+                case FrameCodec.PEER_BROADCAST -> server.deliverBroadcast(frame.first(), frame.second());
+                case FrameCodec.PEER_PRIVATE -> {
+                    int newline = frame.first().indexOf('\n');
+                    if (newline > 0) {
+                        server.deliverPrivateMessage(frame.first().substring(0, newline),
+                                frame.first().substring(newline + 1), frame.second());
+                    }
+                }
+                case FrameCodec.PEER_CHANNEL -> {
+                    int colon = frame.first().indexOf(':');
+                    if (colon > 0) {
+                        server.deliverChannelMessage(frame.first().substring(0, colon),
+                                frame.first().substring(colon + 1), frame.second());
+                    }
+                }
+                default -> server.getLog().warn("unknown_peer_frame", "node", peerId, "opcode", frame.opcode());
+            }
+        }
+
+        void close() {
+            if (!open) return;
+            open = false;
+            closeQuietly(socket);
+            if (writer != null) {
+                writer.interrupt();
+            }
+        }
+    }
+}
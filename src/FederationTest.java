@@ -0,0 +1,237 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import javax.crypto.spec.SecretKeySpec;
+
+public class FederationTest {
+    private static final String SECRET = "test-cluster-secret";
+    private final List<Server> nodes = new ArrayList<>();
+
+    @AfterEach
+    public void cleanup() {
+        for (Server node : nodes) {
+            if (node.isRunning()) {
+                node.shutdown();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Starts a cluster on loopback where each node dials every node started before it
+    private List<Integer> startCluster(int size) throws Exception {
+        Server.testMode = true;
+        List<Integer> clientPorts = new ArrayList<>();
+        List<String> peerAddresses = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int clientPort = freePort();
+            int peerPort = freePort();
+            nodes.add(new Server(clientPort, new ServerConfig().setNodeId("node" + (i + 1)).setPeerPort(peerPort)
+                    .setPeerSecret(SECRET).setPeers(peerAddresses)));
+            clientPorts.add(clientPort);
+            peerAddresses.add("localhost:" + peerPort);
+        }
+        await(() -> nodes.stream().allMatch(node -> node.getFederation().linkedNodes().size() == size - 1),
+                "Every node should link to every other");
+        return clientPorts;
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail(message);
+            Thread.sleep(20);
+        }
+    }
+
+    private static Socket connect(int port, String clientId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        new PrintWriter(socket.getOutputStream(), true).println("/connect:" + clientId);
+        return socket;
+    }
+
+    private static String readUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        fail("Connection closed before receiving " + prefix);
+        return null;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    }
+
+    @Test
+    public void testChatSpansNodes() throws Exception {
+        System.out.println("Running testChatSpansNodes: Broadcasts, private messages and channels reach members on other nodes.");
+        List<Integer> ports = startCluster(3);
+        try (Socket alice = connect(ports.get(0), "Alice")) {
+            BufferedReader aliceIn = reader(alice);
+            readUntil(aliceIn, "COORDINATOR_STATUS:");
+            await(() -> nodes.get(2).getMemberList().contains("Alice"), "Alice should be gossiped to node 3");
+            try (Socket carol = connect(ports.get(2), "Carol")) {
+                BufferedReader carolIn = reader(carol);
+                assertEquals("COORDINATOR_INFO:Alice", readUntil(carolIn, "COORDINATOR_"),
+                        "The coordinator is cluster-wide, so Carol's node should not make her coordinator");
+                readUntil(aliceIn, "MEMBER_ADDED:");
+
+                new PrintWriter(alice.getOutputStream(), true).println("/broadcasthello everyone");
+                assertEquals("/broadcastAlice:hello everyone", readUntil(carolIn, "/broadcast"));
+                assertEquals("/broadcastAlice:hello everyone", readUntil(aliceIn, "/broadcast"));
+
+                PrintWriter carolOut = new PrintWriter(carol.getOutputStream(), true);
+                carolOut.println("/privateAlice:just between us");
+                assertEquals("/private:Carol:just between us", readUntil(aliceIn, "/private"));
+
+                new PrintWriter(alice.getOutputStream(), true).println("/join ops");
+                readUntil(aliceIn, "CHANNEL_JOINED:");
+                carolOut.println("/join ops");
+                readUntil(carolIn, "CHANNEL_JOINED:");
+                carolOut.println("/channel ops:across nodes");
+                assertEquals("/channel:ops:Carol:across nodes", readUntil(aliceIn, "/channel"));
+            }
+        }
+        System.out.println("testChatSpansNodes passed.");
+    }
+
+    @Test
+    public void testMembershipAndCoordinatorAreClusterWide() throws Exception {
+        System.out.println("Running testMembershipAndCoordinatorAreClusterWide: Member lists merge and the coordinator role moves across nodes.");
+        List<Integer> ports = startCluster(2);
+        Socket alice = connect(ports.get(0), "Alice");
+        readUntil(reader(alice), "COORDINATOR_STATUS:");
+        await(() -> nodes.get(1).getMemberList().contains("Alice"), "Alice should be gossiped to node 2");
+        try (Socket bob = connect(ports.get(1), "Bob")) {
+            BufferedReader bobIn = reader(bob);
+            String memberList = readUntil(bobIn, "MEMBER_LIST:");
+            assertTrue(memberList.contains("Alice") && memberList.contains("Bob"), "Bob should see both nodes' members: " + memberList);
+            await(() -> nodes.get(0).getMemberList().contains("Bob"), "Bob should be gossiped to node 1");
+
+            new PrintWriter(alice.getOutputStream(), true).println("/quit");
+            alice.close();
+            assertTrue(readUntil(bobIn, "MEMBER_REMOVED:").endsWith(":Alice"));
+            assertEquals("COORDINATOR_STATUS:You are now the coordinator", readUntil(bobIn, "COORDINATOR_"),
+                    "The coordinator role should pass to the oldest member left anywhere in the cluster");
+            await(() -> nodes.get(0).getMemberList().equals("Bob"), "Node 1 should only list Bob once Alice has left");
+        }
+        System.out.println("testMembershipAndCoordinatorAreClusterWide passed.");
+    }
+
+    @Test
+    public void testLostNodeMembersAreRemoved() throws Exception {
+        System.out.println("Running testLostNodeMembersAreRemoved: Members of a node that goes away are announced as having left.");
+        List<Integer> ports = startCluster(2);
+        try (Socket alice = connect(ports.get(0), "Alice")) {
+            BufferedReader aliceIn = reader(alice);
+            readUntil(aliceIn, "COORDINATOR_STATUS:");
+            await(() -> nodes.get(1).getMemberList().contains("Alice"), "Alice should be gossiped to node 2");
+            try (Socket bob = connect(ports.get(1), "Bob")) {
+                assertTrue(readUntil(reader(bob), "MEMBER_LIST:").contains("Alice"), "Bob's node should announce Alice");
+                await(() -> nodes.get(0).getMemberList().contains("Bob"), "Bob should be gossiped to node 1");
+                nodes.get(1).shutdown();
+                assertEquals("Member Left:Bob", readUntil(aliceIn, "Member Left:"));
+                await(() -> nodes.get(0).getMemberList().equals("Alice"), "Only Alice should be left");
+            }
+        }
+        System.out.println("testLostNodeMembersAreRemoved passed.");
+    }
+
+    @Test
+    public void testPeerPortInUseReleasesEverything() throws Exception {
+        System.out.println("Running testPeerPortInUseReleasesEverything: A server whose peer port is taken names that port and frees its own.");
+        Server.testMode = true;
+        int clientPort = freePort();
+        try (ServerSocket taken = new ServerSocket(0)) {
+            IOException failure = assertThrows(IOException.class,
+                    () -> new Server(clientPort, new ServerConfig().setPeerPort(taken.getLocalPort()).setPeerSecret(SECRET)));
+            assertTrue(failure.getMessage().startsWith("Peer port " + taken.getLocalPort()), failure.getMessage());
+        }
+        try (ServerSocket reused = new ServerSocket(clientPort)) {
+            assertEquals(clientPort, reused.getLocalPort(), "The client port should have been closed again");
+        }
+        System.out.println("testPeerPortInUseReleasesEverything passed.");
+    }
+
+    // Plays the far end of a peer link's handshake by hand, returning once both proofs are sent
+    private static void handshake(Socket socket, String nodeId, String secret) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        write(out, FrameCodec.encode(FrameCodec.PEER_HELLO, nodeId, "0123456789abcdef"));
+        FrameCodec.Frame hello = FrameCodec.read(in);
+        assertEquals(FrameCodec.PEER_HELLO, hello.opcode());
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        write(out, FrameCodec.encode(FrameCodec.PEER_AUTH, Federation.proof(key, hello.second(), nodeId), null));
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        out.flush();
+    }
+
+    @Test
+    public void testPeerWithoutSecretIsRejected() throws Exception {
+        System.out.println("Running testPeerWithoutSecretIsRejected: Frames from a peer that cannot prove the secret are never applied.");
+        Server.testMode = true;
+        int peerPort = freePort();
+        Server node = new Server(freePort(), new ServerConfig().setNodeId("node1").setPeerPort(peerPort).setPeerSecret(SECRET));
+        nodes.add(node);
+        try (Socket intruder = new Socket("localhost", peerPort)) {
+            intruder.setSoTimeout(5000);
+            handshake(intruder, "intruder", "guessed-secret");
+            write(intruder.getOutputStream(), FrameCodec.encode(FrameCodec.PEER_MEMBERS, "1", "0 Mallory#1\n"));
+            DataInputStream in = new DataInputStream(intruder.getInputStream());
+            try {
+                // The node's answer to our nonce may or may not be flushed before it closes the link
+                FrameCodec.Frame frame;
+                while ((frame = FrameCodec.read(in)) != null) {
+                    assertEquals(FrameCodec.PEER_AUTH, frame.opcode(), "Only the handshake is sent to an unproven peer");
+                }
+            } catch (SocketException reset) {
+                // Closed with our frames unread
+            }
+        }
+        assertFalse(node.getFederation().linkedNodes().contains("intruder"));
+        assertFalse(node.getMemberList().contains("Mallory"));
+
+        assertThrows(IOException.class, () -> new Server(freePort(), new ServerConfig().setPeerPort(freePort())),
+                "A peer port without a secret should be refused");
+        System.out.println("testPeerWithoutSecretIsRejected passed.");
+    }
+
+    @Test
+    public void testStalledPeerIsDropped() throws Exception {
+        System.out.println("Running testStalledPeerIsDropped: A peer that stops reading loses its link instead of growing its queue.");
+        Server.testMode = true;
+        int peerPort = freePort();
+        Server node = new Server(freePort(), new ServerConfig().setNodeId("node1").setPeerPort(peerPort)
+                .setPeerSecret(SECRET).setPeerQueueCapacity(4));
+        nodes.add(node);
+        try (Socket stalled = new Socket("localhost", peerPort)) {
+            handshake(stalled, "stalled", SECRET);
+            await(() -> node.getFederation().linkedNodes().contains("stalled"), "The peer should be linked");
+
+            String text = "x".repeat(60_000);
+            for (int i = 0; i < 10_000 && !node.getFederation().linkedNodes().isEmpty(); i++) {
+                node.getFederation().forwardBroadcast("Alice", text); // Never read, so the socket buffers fill first
+            }
+            await(() -> node.getFederation().linkedNodes().isEmpty(), "The stalled peer's link should be dropped");
+        }
+        System.out.println("testStalledPeerIsDropped passed.");
+    }
+}
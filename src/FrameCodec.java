@@ -0,0 +1,128 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Length prefixed binary framing shared by the server and ChatClientGUI, used instead of newline delimited text when a
+// client opens with a CONNECT frame rather than a /connect: line.
+// Frame layout: opcode (1 byte) | flags (1 byte) | payload length (4 bytes, big endian) | payload.
+// With FLAG_TWO_FIELDS the payload is: first field length (2 bytes) | first field | second field, otherwise one field.
+// With FLAG_COMPRESSED that payload is deflated, which decoding undoes before reading the fields.
+// Fields are UTF-8, so chat text may contain newlines or ':' without breaking anything
+public final class FrameCodec {
+    public static final int HEADER_LENGTH = 6;
+    public static final int MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+    // Opcodes, client to server
+    public static final byte CONNECT = 0x01;     // clientId; the flags carry requested capabilities
+    public static final byte QUIT = 0x02;
+    // Opcodes, both directions
+    public static final byte BROADCAST = 0x03;   // client sends text; server sends sender and text
+    public static final byte PRIVATE = 0x04;     // client sends recipient and text; server sends sender and text
+    public static final byte CONTROL = 0x05;     // Any other command or server notice, carried in its text protocol form
+    public static final byte CHANNEL = 0x07;     // client sends channel and text; server sends channel:sender and text
+    // Opcodes, server to client
+    public static final byte CONNECT_ACK = 0x06; // The flags carry the capabilities the server accepted
+    // Opcodes, server to server over Federation links
+    public static final byte PEER_HELLO = 0x10;     // nodeId and a random nonce, sent by both ends as soon as a link opens
+    public static final byte PEER_MEMBERS = 0x11;   // version and lines of "<joinedAt> <memberId>": every local member
+    public static final byte PEER_BROADCAST = 0x12; // sender and text
+    public static final byte PEER_PRIVATE = 0x13;   // "<sender>\n<recipient>" and text
+    public static final byte PEER_CHANNEL = 0x14;   // "<channel>:<sender>" and text
+    public static final byte PEER_AUTH = 0x15;      // Proof of the cluster secret over the other end's nonce, see Federation
+
+    public static final byte FLAG_TWO_FIELDS = 0x01;
+    public static final byte FLAG_COMPRESSED = 0x02; // The payload is deflated, see FrameCompressor
+
+    // Capability flags of CONNECT (requested) and CONNECT_ACK (accepted), kept clear of the payload flags above
+    public static final byte CAPABILITY_DEFLATE = 0x10;
+
+    private FrameCodec() {
+    }
+
+    // One decoded frame; second is null for single field frames
+    public record Frame(byte opcode, byte flags, String first, String second) {
+    }
+
+    public static ByteBuffer encode(byte opcode, byte flags, String first, String second) {
+        byte[] firstBytes = first == null ? new byte[0] : first.getBytes(StandardCharsets.UTF_8);
+        if (second == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + firstBytes.length);
+            buffer.put(opcode).put((byte) (flags & ~FLAG_TWO_FIELDS)).putInt(firstBytes.length).put(firstBytes);
+            return buffer.flip();
+        }
+        if (firstBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("First field too long for a frame");
+        }
+        byte[] secondBytes = second.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 2 + firstBytes.length + secondBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+        buffer.put(opcode).put((byte) (flags | FLAG_TWO_FIELDS)).putInt(payloadLength)
+                .putShort((short) firstBytes.length).put(firstBytes).put(secondBytes);
+        return buffer.flip();
+    }
+
+    public static ByteBuffer encode(byte opcode, String first, String second) {
+        return encode(opcode, (byte) 0, first, second);
+    }
+
+    // Blocking read of one frame, returns null at end of stream
+    public static Frame read(DataInputStream in) throws IOException {
+        int opcode = in.read();
+        if (opcode < 0) return null;
+        byte flags = in.readByte();
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return decodePayload((byte) opcode, flags, payload, 0, length);
+    }
+
+    // Non-blocking decode for the NIO engine: returns the next frame if the buffer (in read mode) holds all of it,
+    // otherwise leaves the buffer untouched and returns null
+    public static Frame tryDecode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH) return null;
+        int start = buffer.position();
+        int length = buffer.getInt(start + 2);
+        checkLength(length);
+        if (buffer.remaining() < HEADER_LENGTH + length) return null;
+        byte opcode = buffer.get(start);
+        byte flags = buffer.get(start + 1);
+        Frame frame;
+        if (buffer.hasArray()) {
+            frame = decodePayload(opcode, flags, buffer.array(), buffer.arrayOffset() + start + HEADER_LENGTH, length);
+        } else {
+            byte[] payload = new byte[length];
+            buffer.get(start + HEADER_LENGTH, payload);
+            frame = decodePayload(opcode, flags, payload, 0, length);
+        }
+        buffer.position(start + HEADER_LENGTH + length);
+        return frame;
+    }
+
+    private static Frame decodePayload(byte opcode, byte flags, byte[] payload, int offset, int length) throws IOException {
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            payload = FrameCompressor.inflate(payload, offset, length);
+            offset = 0;
+            length = payload.length;
+        }
+        if ((flags & FLAG_TWO_FIELDS) == 0) {
+            return new Frame(opcode, flags, new String(payload, offset, length, StandardCharsets.UTF_8), null);
+        }
+        if (length < 2) {
+            throw new IOException("Malformed frame");
+        }
+        int firstLength = ((payload[offset] & 0xFF) << 8) | (payload[offset + 1] & 0xFF);
+        if (2 + firstLength > length) {
+            throw new IOException("Malformed frame");
+        }
+        String first = new String(payload, offset + 2, firstLength, StandardCharsets.UTF_8);
+        String second = new String(payload, offset + 2 + firstLength, length - 2 - firstLength, StandardCharsets.UTF_8);
+        return new Frame(opcode, flags, first, second);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Frame length out of range: " + length);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class FrameCodecTest {
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testTwoFieldRoundTrip() throws IOException {
+        System.out.println("Running testTwoFieldRoundTrip: Sender and text survive ':' and line breaks.");
+        ByteBuffer encoded = FrameCodec.encode(FrameCodec.BROADCAST, "Alice#0001", "time: 12:30\nsee you there");
+        FrameCodec.Frame frame = FrameCodec.read(new DataInputStream(new ByteArrayInputStream(bytes(encoded))));
+        assertNotNull(frame);
+        assertEquals(FrameCodec.BROADCAST, frame.opcode());
+        assertEquals("Alice#0001", frame.first());
+        assertEquals("time: 12:30\nsee you there", frame.second());
+        System.out.println("testTwoFieldRoundTrip passed.");
+    }
+
+    @Test
+    public void testIncrementalDecode() throws IOException {
+        System.out.println("Running testIncrementalDecode: tryDecode waits for a whole frame and then consumes exactly it.");
+        byte[] first = bytes(FrameCodec.encode(FrameCodec.CONNECT, "Bob", null));
+        byte[] second = bytes(FrameCodec.encode(FrameCodec.CONTROL, "/get_members", null));
+        ByteBuffer stream = ByteBuffer.allocate(first.length + second.length);
+        stream.put(first).put(second, 0, 3).flip();
+
+        FrameCodec.Frame frame = FrameCodec.tryDecode(stream);
+        assertNotNull(frame);
+        assertEquals(FrameCodec.CONNECT, frame.opcode());
+        assertEquals("Bob", frame.first());
+        assertNull(frame.second());
+        assertNull(FrameCodec.tryDecode(stream), "A partial frame should not decode");
+        assertEquals(3, stream.remaining(), "A partial frame should be left in the buffer");
+
+        stream.compact().put(second, 3, second.length - 3).flip();
+        frame = FrameCodec.tryDecode(stream);
+        assertNotNull(frame);
+        assertEquals("/get_members", frame.first());
+        assertFalse(stream.hasRemaining());
+        System.out.println("testIncrementalDecode passed.");
+    }
+
+    @Test
+    public void testRejectsOversizedFrame() {
+        System.out.println("Running testRejectsOversizedFrame: A length past the limit is refused before allocating.");
+        ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+        header.put(FrameCodec.CONTROL).put((byte) 0).putInt(FrameCodec.MAX_PAYLOAD_LENGTH + 1).flip();
+        assertThrows(IOException.class, () -> FrameCodec.tryDecode(header));
+        System.out.println("testRejectsOversizedFrame passed.");
+    }
+
+    @Test
+    public void testCompressedRoundTrip() throws IOException {
+        System.out.println("Running testCompressedRoundTrip: A deflated frame decodes to the original fields through both read paths.");
+        FrameCompressor compressor = new FrameCompressor(64);
+        String text = "MEMBER_LIST:" + "Alice#0001,Bob#0002,Carol#0003,".repeat(40);
+        ByteBuffer plain = FrameCodec.encode(FrameCodec.BROADCAST, "Alice#0001", text);
+        ByteBuffer compressed = compressor.compress(plain);
+        assertNotSame(plain, compressed);
+        assertTrue(compressed.remaining() < plain.remaining() / 4, "Repetitive text should shrink well: " + compressed.remaining());
+        assertEquals(plain.remaining(), FrameCodec.HEADER_LENGTH + plain.getInt(2), "The original frame is left as it was");
+
+        FrameCodec.Frame frame = FrameCodec.read(new DataInputStream(new ByteArrayInputStream(bytes(compressed))));
+        assertNotEquals(0, frame.flags() & FrameCodec.FLAG_COMPRESSED);
+        assertEquals("Alice#0001", frame.first());
+        assertEquals(text, frame.second());
+        frame = FrameCodec.tryDecode(ByteBuffer.wrap(bytes(compressed)));
+        assertEquals(text, frame.second());
+
+        assertEquals(1, compressor.getFramesCompressed());
+        assertEquals(plain.remaining() - FrameCodec.HEADER_LENGTH, compressor.getBytesIn());
+        assertTrue(compressor.getRatio() < 0.25);
+        System.out.println("testCompressedRoundTrip passed.");
+    }
+
+    @Test
+    public void testSmallAndIncompressibleFramesSentAsIs() {
+        System.out.println("Running testSmallAndIncompressibleFramesSentAsIs: Compression is skipped where it would not pay.");
+        FrameCompressor compressor = new FrameCompressor(64);
+        ByteBuffer small = FrameCodec.encode(FrameCodec.BROADCAST, "hi", null);
+        assertSame(small, compressor.compress(small));
+
+        byte[] noise = new byte[1024];
+        new java.util.Random(7).nextBytes(noise);
+        ByteBuffer random = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + noise.length);
+        random.put(FrameCodec.BROADCAST).put((byte) 0).putInt(noise.length).put(noise).flip();
+        assertSame(random, compressor.compress(random));
+        assertEquals(0, compressor.getFramesCompressed());
+        assertEquals(1, compressor.getFramesSkipped());
+        assertEquals(1.0, compressor.getRatio());
+        System.out.println("testSmallAndIncompressibleFramesSentAsIs passed.");
+    }
+
+    @Test
+    public void testRejectsCorruptCompressedFrame() {
+        System.out.println("Running testRejectsCorruptCompressedFrame: A compressed payload claiming too much or garbled is refused.");
+        ByteBuffer oversized = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + 8);
+        oversized.put(FrameCodec.BROADCAST).put(FrameCodec.FLAG_COMPRESSED).putInt(8)
+                .putInt(FrameCodec.MAX_PAYLOAD_LENGTH + 1).putInt(0).flip();
+        assertThrows(IOException.class, () -> FrameCodec.tryDecode(oversized));
+        ByteBuffer garbled = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + 8);
+        garbled.put(FrameCodec.BROADCAST).put(FrameCodec.FLAG_COMPRESSED).putInt(8).putInt(100).putInt(-1).flip();
+        assertThrows(IOException.class, () -> FrameCodec.tryDecode(garbled));
+        System.out.println("testRejectsCorruptCompressedFrame passed.");
+    }
+
+    @Test
+    public void testCompressionCostOnVirtualThreads() throws Exception {
+        System.out.println("Running testCompressionCostOnVirtualThreads: Without thread CPU time, compression is timed by the wall clock.");
+        FrameCompressor compressor = new FrameCompressor(64);
+        ByteBuffer frame = FrameCodec.encode(FrameCodec.BROADCAST, "Alice", "MEMBER_LIST:".repeat(200));
+        Thread.ofVirtual().start(() -> compressor.compress(frame)).join();
+        assertEquals(1, compressor.getFramesCompressed());
+        assertEquals(0, compressor.getCpuNanos(), "A virtual thread has no CPU time to read");
+        assertTrue(compressor.getWallNanos() > 0);
+        assertTrue(compressor.toString().contains("wall clock on virtual threads"), compressor.toString());
+
+        compressor.compress(frame);
+        assertTrue(compressor.getCpuNanos() >= 0);
+        System.out.println("testCompressionCostOnVirtualThreads passed.");
+    }
+}
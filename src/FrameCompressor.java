@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflate compression of FrameCodec payloads, used on connections that negotiated CAPABILITY_DEFLATE. Each payload is
+// compressed on its own against a preset dictionary that both ends know, rather than through a stream kept per
+// connection, so a broadcast is compressed once and the same bytes are shared by every recipient. Payloads under the
+// threshold, or that do not shrink, are sent as they are.
+// Compressed payload layout: uncompressed length (4) | raw deflate data
+public final class FrameCompressor {
+    // Strings the protocol repeats, with the most common last, where deflate finds them with the shortest distances
+    private static final byte[] DICTIONARY = ("""
+            Exception at java. Caused by: ERROR WARN INFO DEBUG null true false https:// .com the and that with \
+            for you this have from are was not but what all were when can said there use your which their will \
+            Member Left:Member Joined:SERVER_TIMEOUT:COORDINATOR_INFO:COORDINATOR_STATUS:You are now the coordinator \
+            NOT_MODIFIED:MEMBER_SNAPSHOT:MEMBER_DETAILS:127.0.0.1:MEMBER_REMOVED:MEMBER_ADDED:\
+            INACTIVE_MEMBER_LIST:MEMBER_LIST:/channel:/private:/broadcast#0#1#2#3#4#5#6#7#8#9,""")
+            .getBytes(StandardCharsets.UTF_8);
+
+    // Idle Deflaters and Inflaters shared by every connection and borrowed for one payload at a time. Each holds a few
+    // hundred KB of native zlib state, so only as many are kept as could be busy at once; any beyond that are ended
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int threshold;
+    private final LongAdder framesCompressed = new LongAdder();
+    private final LongAdder framesSkipped = new LongAdder(); // At or over the threshold but did not shrink
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder(); // Compressions on virtual threads, whose CPU time is not reported
+
+    public FrameCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    // The frame (in read mode, not consumed) with its payload compressed, or the frame itself if that would not help
+    public ByteBuffer compress(ByteBuffer frame) {
+        int start = frame.position();
+        int length = frame.remaining() - FrameCodec.HEADER_LENGTH;
+        if (length < threshold || (frame.get(start + 1) & FrameCodec.FLAG_COMPRESSED) != 0) return frame;
+        long cpuStart = threadCpuTime();
+        long wallStart = System.nanoTime();
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        // Only worth sending if it comes out smaller, so the output never needs more room than the input
+        ByteBuffer compressed = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + length);
+        boolean smaller;
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(frame.slice(start + FrameCodec.HEADER_LENGTH, length));
+            deflater.finish();
+            compressed.position(FrameCodec.HEADER_LENGTH + 4);
+            while (!deflater.finished() && compressed.hasRemaining()) {
+                deflater.deflate(compressed);
+            }
+            smaller = deflater.finished() && compressed.position() < compressed.capacity();
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+        }
+        long cpuEnd = cpuStart < 0 ? -1 : threadCpuTime();
+        if (cpuEnd >= 0) {
+            cpuNanos.add(cpuEnd - cpuStart);
+        } else {
+            wallNanos.add(System.nanoTime() - wallStart);
+        }
+        if (!smaller) {
+            framesSkipped.increment();
+            return frame;
+        }
+        int payloadLength = compressed.position() - FrameCodec.HEADER_LENGTH;
+        compressed.put(0, frame.get(start))
+                .put(1, (byte) (frame.get(start + 1) | FrameCodec.FLAG_COMPRESSED))
+                .putInt(2, payloadLength)
+                .putInt(FrameCodec.HEADER_LENGTH, length);
+        framesCompressed.increment();
+        bytesIn.add(length);
+        bytesOut.add(payloadLength);
+        return compressed.flip();
+    }
+
+    // Restores a compressed payload, refusing anything that would inflate past the frame size limit
+    static byte[] inflate(byte[] payload, int offset, int length) throws IOException {
+        if (length < 4) throw new IOException("Malformed compressed frame");
+        int originalLength = ByteBuffer.wrap(payload, offset, 4).getInt();
+        if (originalLength < 0 || originalLength > FrameCodec.MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Compressed frame length out of range: " + originalLength);
+        }
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        byte[] original = new byte[originalLength];
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(payload, offset + 4, length - 4);
+            int inflated = 0;
+            while (inflated < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(original, inflated, originalLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            if (inflated != originalLength) throw new IOException("Truncated compressed frame");
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt compressed frame: " + ex.getMessage());
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+        return original;
+    }
+
+    // The current thread's CPU time, or -1 where the JVM does not report it: on a virtual thread, or with thread CPU
+    // time measurement unsupported or turned off
+    private static long threadCpuTime() {
+        if (Thread.currentThread().isVirtual() || !THREADS.isCurrentThreadCpuTimeSupported()) return -1;
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getFramesCompressed() {
+        return framesCompressed.sum();
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped.sum();
+    }
+
+    // Payload bytes before and after compression, counting only the frames that were sent compressed
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    // Compressed size over original size, 1.0 until anything has been compressed
+    public double getRatio() {
+        long in = bytesIn.sum();
+        return in == 0 ? 1.0 : (double) bytesOut.sum() / in;
+    }
+
+    // CPU time spent compressing, including attempts that did not pay off, on threads whose CPU time can be read
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    // Time spent compressing where the thread's CPU time cannot be read, as on every handler of --io=virtual, measured
+    // by the wall clock instead. Compression never blocks, so this only overstates it by time the thread was preempted
+    public long getWallNanos() {
+        return wallNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        String cost = String.format("%.1f ms CPU", getCpuNanos() / 1e6);
+        if (getWallNanos() > 0) {
+            cost += String.format(", %.1f ms wall clock on virtual threads", getWallNanos() / 1e6);
+        }
+        return String.format("%d frames compressed (%d skipped), %d -> %d bytes, ratio %.2f, %s",
+                getFramesCompressed(), getFramesSkipped(), getBytesIn(), getBytesOut(), getRatio(), cost);
+    }
+}
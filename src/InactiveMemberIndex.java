@@ -0,0 +1,118 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Members who have left, kept sorted by name as they are added and bounded by count and age so the set stops growing
+// for the life of the server. The comma joined list is cached until the next change, so a request for it is O(1)
+public class InactiveMemberIndex {
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final LongSupplier clock;
+    private final TreeSet<String> sorted = new TreeSet<>();
+    private final LinkedHashMap<String, Long> leftAt = new LinkedHashMap<>(); // Oldest departure first, for eviction
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile String cachedList = "";
+    private volatile long nextExpiryAt = Long.MAX_VALUE;
+
+    public InactiveMemberIndex(int maxSize, long maxAgeMillis) {
+        this(maxSize, maxAgeMillis, System::currentTimeMillis);
+    }
+
+    InactiveMemberIndex(int maxSize, long maxAgeMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+    }
+
+    public void add(String member) {
+        if (member == null || member.trim().isEmpty()) return;
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            leftAt.remove(member); // Leaving again moves the member to the young end
+            leftAt.put(member, now);
+            sorted.add(member);
+            evict(now);
+            cachedList = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A member who rejoins is active again and drops out of the index
+    public void remove(String member) {
+        lock.lock();
+        try {
+            if (leftAt.remove(member) != null) {
+                sorted.remove(member);
+                updateNextExpiry();
+                cachedList = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sorted, comma joined list of inactive members, rebuilt only after something changed or aged out
+    public String getList() {
+        String list = cachedList;
+        if (list != null && clock.getAsLong() < nextExpiryAt) {
+            return list;
+        }
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            if (now >= nextExpiryAt) {
+                evict(now);
+                cachedList = null;
+            }
+            if (cachedList == null) {
+                cachedList = String.join(",", sorted);
+            }
+            return cachedList;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(String member) {
+        lock.lock();
+        try {
+            return leftAt.containsKey(member);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return leftAt.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops the oldest departures while over the size limit or past the age limit
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> oldest = leftAt.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Long> entry = oldest.next();
+            if (leftAt.size() <= maxSize && now - entry.getValue() < maxAgeMillis) {
+                break;
+            }
+            sorted.remove(entry.getKey());
+            oldest.remove();
+        }
+        updateNextExpiry();
+    }
+
+    private void updateNextExpiry() {
+        if (leftAt.isEmpty()) {
+            nextExpiryAt = Long.MAX_VALUE;
+        } else {
+            long expiry = leftAt.values().iterator().next() + maxAgeMillis;
+            nextExpiryAt = expiry < 0 ? Long.MAX_VALUE : expiry; // An effectively unlimited age would overflow
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class InactiveMemberIndexTest {
+
+    @Test
+    public void testSortedAndCached() {
+        System.out.println("Running testSortedAndCached: Members are listed in name order and the list is reused until a change.");
+        InactiveMemberIndex index = new InactiveMemberIndex(10, 60_000);
+        index.add("Charlie#0003");
+        index.add("Alice#0001");
+        index.add("Bob#0002");
+        String list = index.getList();
+        assertEquals("Alice#0001,Bob#0002,Charlie#0003", list);
+        assertSame(list, index.getList(), "An unchanged index should hand back the cached string");
+
+        index.remove("Bob#0002");
+        assertEquals("Alice#0001,Charlie#0003", index.getList(), "A member who rejoins should drop out of the list");
+        System.out.println("testSortedAndCached passed.");
+    }
+
+    @Test
+    public void testEvictsOldestWhenFull() {
+        System.out.println("Running testEvictsOldestWhenFull: The earliest departure is evicted once the size limit is reached.");
+        InactiveMemberIndex index = new InactiveMemberIndex(2, 60_000);
+        index.add("Zed#0001");
+        index.add("Amy#0002");
+        index.add("Max#0003");
+        assertEquals(2, index.size());
+        assertFalse(index.contains("Zed#0001"), "The first member to leave should be evicted");
+        assertEquals("Amy#0002,Max#0003", index.getList());
+        System.out.println("testEvictsOldestWhenFull passed.");
+    }
+
+    @Test
+    public void testEvictsByAge() {
+        System.out.println("Running testEvictsByAge: Members older than the time to live disappear on the next read.");
+        AtomicLong now = new AtomicLong(0);
+        InactiveMemberIndex index = new InactiveMemberIndex(10, 1000, now::get);
+        index.add("Old#0001");
+        now.set(500);
+        index.add("New#0002");
+        assertEquals("New#0002,Old#0001", index.getList());
+
+        now.set(1200);
+        assertEquals("New#0002", index.getList(), "Old#0001 should have aged out");
+        now.set(1600);
+        assertEquals("", index.getList(), "Everyone should have aged out");
+        System.out.println("testEvictsByAge passed.");
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of nanosecond durations: 32 sub-buckets per power of two keep each value within about 3%, from
+// 1 ns up to the largest long. Recording is one atomic increment of the value's bucket and never locks, so any number of
+// threads can share an instance; reading walks the 2048 buckets and may see a recording half done
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(1, nanos);
+        counts.incrementAndGet(index(value));
+        total.increment();
+        max.accumulate(value);
+    }
+
+    private static int index(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent < SUB_BUCKET_BITS) return (int) value;
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // The smallest value in the bucket, so a percentile is never overstated, only understated by up to the bucket width
+    private static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (1L << exponent) | ((long) (index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS));
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    // Nanoseconds at or below which the given fraction of the recorded values fall, 0 when nothing was recorded
+    public long percentile(double fraction) {
+        long count = total.sum();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return lowestValue(i);
+        }
+        return max.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(count(), percentile(0.5) / 1e3, percentile(0.99) / 1e3, percentile(0.999) / 1e3, max() / 1e3);
+    }
+
+    // Percentiles in microseconds, as published over JMX and by /stats
+    public record Snapshot(long count, double p50Micros, double p99Micros, double p999Micros, double maxMicros) {
+        @Override
+        public String toString() {
+            return String.format("n=%d p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                    count, p50Micros, p99Micros, p999Micros, maxMicros);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.*;
+
+// Immutable view of who is connected and who coordinates, replaced wholesale on every change and published by CAS.
+// Readers never lock; a writer builds the next Membership from the current one and retries if someone beat it to it.
+// Every change, snapshot requests included, takes the next sequence number so its messages can be delivered in order.
+// In a federated cluster it also holds the members connected to the other nodes, as last gossiped by each of them, and
+// the coordinator is the longest connected member across the whole cluster
+public final class Membership {
+    static final Membership EMPTY = new Membership(0, 0, Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyMap(), null);
+
+    // A member connected to another node, with the time it joined there
+    record Remote(String nodeId, long joinedAt) {
+    }
+
+    private final long sequence; // Position of this change in the delivery order
+    private final long epoch;    // Bumped once per member added or removed, as seen by clients in MEMBER_ADDED/MEMBER_REMOVED
+    private final Map<String, ClientHandler> members; // Local members in join order, so the longest connected comes first
+    private final Map<String, Long> joinedAt;         // When each local member joined
+    private final Map<String, Remote> remote;         // Members of the other nodes, grouped by node in gossip order
+    private final String coordinator;
+    private String memberList; // Comma joined names, built on first use
+
+    private Membership(long sequence, long epoch, Map<String, ClientHandler> members, Map<String, Long> joinedAt,
+                       Map<String, Remote> remote, String coordinator) {
+        this.sequence = sequence;
+        this.epoch = epoch;
+        this.members = members;
+        this.joinedAt = joinedAt;
+        this.remote = remote;
+        this.coordinator = coordinator;
+    }
+
+    private Membership(long sequence, long epoch, Map<String, ClientHandler> members, Map<String, Long> joinedAt,
+                       Map<String, Remote> remote) {
+        this(sequence, epoch, members, joinedAt, remote, elect(members, joinedAt, remote));
+    }
+
+    // The first member to join becomes coordinator
+    Membership withJoined(String clientId, ClientHandler handler) {
+        Map<String, ClientHandler> next = new LinkedHashMap<>(members);
+        next.put(clientId, handler);
+        Map<String, Long> nextJoinedAt = new HashMap<>(joinedAt);
+        nextJoinedAt.put(clientId, System.currentTimeMillis());
+        return new Membership(sequence + 1, epoch + 1, Collections.unmodifiableMap(next),
+                Collections.unmodifiableMap(nextJoinedAt), remote);
+    }
+
+    // Returns this unchanged if the member is not connected; a departing coordinator hands over to the oldest member left
+    Membership withLeft(String clientId) {
+        if (!members.containsKey(clientId)) return this;
+        Map<String, ClientHandler> next = new LinkedHashMap<>(members);
+        next.remove(clientId);
+        Map<String, Long> nextJoinedAt = new HashMap<>(joinedAt);
+        nextJoinedAt.remove(clientId);
+        return new Membership(sequence + 1, epoch + 1, Collections.unmodifiableMap(next),
+                Collections.unmodifiableMap(nextJoinedAt), remote);
+    }
+
+    // Replaces everything known about one node's members with what it just gossiped; an empty map removes the node.
+    // Returns this unchanged if nothing differs. The epoch moves on by one for every member added or removed, a member
+    // who reconnected through another node counts as neither
+    Membership withRemote(String nodeId, Map<String, Long> nodeMembers) {
+        Map<String, Remote> next = new LinkedHashMap<>();
+        int changes = 0;
+        for (Map.Entry<String, Remote> entry : remote.entrySet()) {
+            if (!entry.getValue().nodeId().equals(nodeId)) {
+                next.put(entry.getKey(), entry.getValue());
+            } else if (!nodeMembers.containsKey(entry.getKey())) {
+                changes++;
+            }
+        }
+        for (Map.Entry<String, Long> entry : nodeMembers.entrySet()) {
+            if (!remote.containsKey(entry.getKey())) {
+                changes++;
+            }
+            next.put(entry.getKey(), new Remote(nodeId, entry.getValue()));
+        }
+        if (next.equals(remote)) return this;
+        return new Membership(sequence + 1, epoch + changes, members, joinedAt, Collections.unmodifiableMap(next));
+    }
+
+    // Same members, next sequence number: orders a snapshot among the deltas being delivered
+    Membership withSequenceStep() {
+        Membership next = new Membership(sequence + 1, epoch, members, joinedAt, remote, coordinator);
+        next.memberList = memberList;
+        return next;
+    }
+
+    // The longest connected member of the cluster; ties on the join time go to the smaller name, so every node agrees
+    private static String elect(Map<String, ClientHandler> members, Map<String, Long> joinedAt, Map<String, Remote> remote) {
+        String best = members.isEmpty() ? null : members.keySet().iterator().next();
+        long bestJoinedAt = best == null ? Long.MAX_VALUE : joinedAt.get(best);
+        for (Map.Entry<String, Remote> entry : remote.entrySet()) {
+            long at = entry.getValue().joinedAt();
+            if (best == null || at < bestJoinedAt || (at == bestJoinedAt && entry.getKey().compareTo(best) < 0)) {
+                best = entry.getKey();
+                bestJoinedAt = at;
+            }
+        }
+        return best;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    long epoch() {
+        return epoch;
+    }
+
+    // Only the members connected to this node
+    Map<String, ClientHandler> members() {
+        return members;
+    }
+
+    Map<String, Long> joinedAt() {
+        return joinedAt;
+    }
+
+    Map<String, Remote> remote() {
+        return remote;
+    }
+
+    String coordinator() {
+        return coordinator;
+    }
+
+    // Every member of the cluster, this node's first. A benign race: two readers may both build the string, and either
+    // result is the same
+    String memberList() {
+        String list = memberList;
+        if (list == null) {
+            StringJoiner joiner = new StringJoiner(",");
+            members.keySet().forEach(joiner::add);
+            remote.keySet().forEach(joiner::add);
+            list = joiner.toString();
+            memberList = list;
+        }
+        return list;
+    }
+}
@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The most recent broadcasts, kept for replay to members who join later. Messages are copied into one preallocated
+// off-heap buffer used as a ring, with their positions in primitive arrays, so a busy room adds nothing to the heap.
+// Each entry holds the FrameCodec two field payload (sender, text) taken from the broadcast's binary encoding.
+// The oldest entries are dropped once either the entry count or the byte capacity is used up
+public class MessageHistory {
+    private final int maxEntries;
+    private final ByteBuffer data;
+    private final long[] starts;  // Byte position of each entry, counting up forever; the buffer index is start % capacity
+    private final int[] lengths;
+    private int oldest = 0;       // Slot of the oldest entry
+    private int count = 0;
+    private long writePosition = 0;
+    private final ReentrantLock lock = new ReentrantLock(); // Only held while copying bytes in or out
+
+    public MessageHistory(int maxEntries, int capacityBytes) {
+        this.maxEntries = maxEntries;
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.starts = new long[maxEntries];
+        this.lengths = new int[maxEntries];
+    }
+
+    // Records a chat broadcast; anything larger than the whole buffer is not kept
+    public void append(OutboundFrame frame) {
+        ByteBuffer encoded = frame.binaryBuffer();
+        encoded.position(encoded.position() + FrameCodec.HEADER_LENGTH);
+        append(encoded);
+    }
+
+    // Records one FrameCodec two field payload, consuming the buffer
+    void append(ByteBuffer payload) {
+        int length = payload.remaining();
+        int capacity = data.capacity();
+        if (maxEntries == 0 || length > capacity) return;
+        lock.lock();
+        try {
+            long start = writePosition;
+            int index = (int) (start % capacity);
+            if (index + length > capacity) {
+                start += capacity - index; // Entries never wrap, the gap at the end is skipped
+                index = 0;
+            }
+            long end = start + length;
+            while (count > 0 && (count == maxEntries || starts[oldest] < end - capacity)) {
+                oldest = (oldest + 1) % maxEntries;
+                count--;
+            }
+            int slot = (oldest + count) % maxEntries;
+            starts[slot] = start;
+            lengths[slot] = length;
+            count++;
+            data.put(index, payload, payload.position(), length);
+            payload.position(payload.limit());
+            writePosition = end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The newest limit messages, oldest first, as one buffer in the given wire format, ready to queue as a single write.
+    // Returns null when there is nothing to replay
+    public ByteBuffer replay(int limit, boolean binary) {
+        lock.lock();
+        try {
+            int n = Math.min(limit, count);
+            if (n <= 0) return null;
+            int first = (oldest + count - n) % maxEntries;
+            if (binary) {
+                int total = 0;
+                for (int i = 0; i < n; i++) {
+                    total += FrameCodec.HEADER_LENGTH + lengths[(first + i) % maxEntries];
+                }
+                ByteBuffer batch = ByteBuffer.allocate(total);
+                for (int i = 0; i < n; i++) {
+                    int slot = (first + i) % maxEntries;
+                    batch.put(FrameCodec.BROADCAST).put(FrameCodec.FLAG_TWO_FIELDS).putInt(lengths[slot]);
+                    batch.put(batch.position(), data, index(slot), lengths[slot]);
+                    batch.position(batch.position() + lengths[slot]);
+                }
+                return batch.flip();
+            }
+            StringBuilder lines = new StringBuilder();
+            byte[] payload = new byte[0];
+            for (int i = 0; i < n; i++) {
+                int slot = (first + i) % maxEntries;
+                if (payload.length < lengths[slot]) {
+                    payload = new byte[lengths[slot]];
+                }
+                data.get(index(slot), payload, 0, lengths[slot]);
+                int fromLength = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+                String from = new String(payload, 2, fromLength, StandardCharsets.UTF_8);
+                String body = new String(payload, 2 + fromLength, lengths[slot] - 2 - fromLength, StandardCharsets.UTF_8);
+                lines.append(OutboundFrame.chat(FrameCodec.BROADCAST, from, body).text()).append('\n');
+            }
+            return ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int index(int slot) {
+        return (int) (starts[slot] % data.capacity());
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class MessageHistoryTest {
+
+    private static OutboundFrame chat(String from, String text) {
+        return OutboundFrame.chat(FrameCodec.BROADCAST, from, text);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    public void testReplayNewestInOrder() {
+        System.out.println("Running testReplayNewestInOrder: Replay returns the newest messages, oldest first, as text lines.");
+        MessageHistory history = new MessageHistory(3, 4096);
+        for (int i = 1; i <= 5; i++) {
+            history.append(chat("Alice", "message " + i));
+        }
+        assertEquals(3, history.size(), "Only the configured number of messages should be kept");
+        assertEquals("/broadcastAlice:message 4\n/broadcastAlice:message 5\n", text(history.replay(2, false)));
+        assertEquals("/broadcastAlice:message 3\n/broadcastAlice:message 4\n/broadcastAlice:message 5\n",
+                text(history.replay(10, false)));
+        assertNull(new MessageHistory(3, 4096).replay(10, false), "An empty history has nothing to replay");
+        System.out.println("testReplayNewestInOrder passed.");
+    }
+
+    @Test
+    public void testByteCapacityEvictsOldest() {
+        System.out.println("Running testByteCapacityEvictsOldest: Messages that no longer fit push the oldest out.");
+        // Each payload is 2 + 3 + 10 = 15 bytes, so 64 bytes hold four of them
+        MessageHistory history = new MessageHistory(100, 64);
+        for (int i = 0; i < 10; i++) {
+            history.append(chat("Bob", "message " + String.format("%02d", i)));
+        }
+        assertEquals(4, history.size());
+        assertTrue(text(history.replay(100, false)).startsWith("/broadcastBob:message 06\n"));
+        history.append(chat("Bob", "x".repeat(100)));
+        assertEquals(4, history.size(), "A message bigger than the whole buffer should not be kept");
+        System.out.println("testByteCapacityEvictsOldest passed.");
+    }
+
+    @Test
+    public void testBinaryReplayIsFrames() throws IOException {
+        System.out.println("Running testBinaryReplayIsFrames: Binary replay is a run of BROADCAST frames keeping the original text.");
+        MessageHistory history = new MessageHistory(10, 4096);
+        history.append(chat("Alice", "line one\nline two"));
+        history.append(chat("Bob", "at 12:30"));
+        ByteBuffer batch = history.replay(10, true);
+        FrameCodec.Frame first = FrameCodec.tryDecode(batch);
+        FrameCodec.Frame second = FrameCodec.tryDecode(batch);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(FrameCodec.BROADCAST, first.opcode());
+        assertEquals("Alice", first.first());
+        assertEquals("line one\nline two", first.second());
+        assertEquals("Bob", second.first());
+        assertEquals("at 12:30", second.second());
+        assertFalse(batch.hasRemaining());
+        System.out.println("testBinaryReplayIsFrames passed.");
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Client connection serviced by an NioServerEngine event loop instead of its own thread, speaking the same line or
+// binary frame protocol as ClientHandler; the first byte received decides which
+public class NioClientHandler extends ClientHandler {
+    private static final int MAX_LINE_LENGTH = 64 * 1024; // Drops clients that never send a newline rather than buffering forever
+
+    private final SocketChannel channel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    private boolean registered = false;
+    private Boolean binaryFrames;  // Unknown until the first byte arrives
+    private ByteBuffer frameBuffer; // Partial binary frames carried between reads, in write mode
+
+    // Taken off the outbound queue but not yet fully written; sent with one gathering write per attempt
+    private final ByteBuffer[] pending = new ByteBuffer[WRITE_BATCH];
+    private int pendingOffset = 0;
+    private int pendingCount = 0;
+    private int flushFrames = 0; // Frames written so far in the current flush
+    long deferredUntil = 0; // Set by the event loop while this handler waits out a coalescing window, otherwise 0
+    private volatile NioServerEngine.EventLoop eventLoop;
+    private SelectionKey key;
+
+    public NioClientHandler(SocketChannel channel, Server server) {
+        super(channel, server);
+        this.channel = channel;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void attach(NioServerEngine.EventLoop eventLoop, SelectionKey key) {
+        this.key = key;
+        this.eventLoop = eventLoop;
+        if (!outbound.isEmpty()) {
+            enableWriteInterest();
+        }
+    }
+
+    // Runs on the event loop: reads whatever is available and dispatches each complete line
+    void onReadable() throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            closeConnection();
+            return;
+        }
+        metrics.recordBytesIn(read);
+        readBuffer.flip();
+        if (!readBuffer.hasRemaining()) return;
+        if (binaryFrames == null) {
+            binaryFrames = readBuffer.get(readBuffer.position()) == FrameCodec.CONNECT;
+        }
+        if (binaryFrames) {
+            readFrames();
+            return;
+        }
+        while (readBuffer.hasRemaining() && isRunning()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                String line = decodeLine();
+                if (!registered) {
+                    registered = handleInitialMessage(line);
+                    if (!registered) {
+                        closeConnection();
+                        return;
+                    }
+                } else if (!handleLine(line)) {
+                    closeConnection();
+                    return;
+                }
+            } else {
+                appendToLine(b);
+            }
+        }
+    }
+
+    // Appends the bytes just read and dispatches every complete frame, keeping any trailing partial frame for next time
+    private void readFrames() throws IOException {
+        if (frameBuffer == null) {
+            frameBuffer = ByteBuffer.allocate(Math.max(readBuffer.capacity(), readBuffer.remaining()));
+        }
+        if (frameBuffer.remaining() < readBuffer.remaining()) {
+            int needed = frameBuffer.position() + readBuffer.remaining();
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, frameBuffer.capacity() * 2));
+            frameBuffer.flip();
+            frameBuffer = grown.put(frameBuffer);
+        }
+        frameBuffer.put(readBuffer);
+        frameBuffer.flip();
+        try {
+            FrameCodec.Frame frame;
+            while (isRunning() && (frame = FrameCodec.tryDecode(frameBuffer)) != null) {
+                if (!registered) {
+                    registered = handleConnectFrame(frame);
+                    if (!registered) {
+                        closeConnection();
+                        return;
+                    }
+                } else if (!handleFrame(frame)) {
+                    closeConnection();
+                    return;
+                }
+            }
+        } finally {
+            frameBuffer.compact();
+        }
+    }
+
+    private void appendToLine(byte b) throws IOException {
+        if (lineLength == lineBuffer.length) {
+            if (lineLength >= MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+        }
+        lineBuffer[lineLength++] = b;
+    }
+
+    private String decodeLine() {
+        int length = lineLength;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Runs on the event loop: writes queued output, a batch per gathering write, until it is drained or the socket
+    // buffer fills up
+    void onWritable() throws IOException {
+        flushNow = false;
+        do {
+            while (true) {
+                if (pendingOffset == pendingCount) {
+                    pendingOffset = 0;
+                    pendingCount = outbound.drainTo(pending);
+                    if (pendingCount == 0) break;
+                    flushFrames += pendingCount;
+                }
+                metrics.recordBytesOut(channel.write(pending, pendingOffset, pendingCount - pendingOffset));
+                while (pendingOffset < pendingCount && !pending[pendingOffset].hasRemaining()) {
+                    pending[pendingOffset++] = null;
+                }
+                if (pendingOffset < pendingCount) {
+                    enableWriteInterest(); // Socket buffer is full, carry on when it drains
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            lastFlushFrames = flushFrames;
+            flushFrames = 0;
+            // A sender may have queued more after the loop above emptied the queue but before the claim was released
+        } while (outbound.releaseDrain());
+    }
+
+    void enableWriteInterest() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // The owning event loop does the writing; until the connection is attached, attach() picks up anything queued
+    @Override
+    protected void scheduleDrain() {
+        NioServerEngine.EventLoop loop = eventLoop;
+        if (loop != null) {
+            loop.requestWrite(this);
+        }
+    }
+
+    // Urgent output goes back through the event loop, which stops deferring this handler's flush
+    @Override
+    protected void expedite() {
+        scheduleDrain();
+    }
+
+    boolean isFlushUrgent() {
+        return flushNow;
+    }
+
+    @Override
+    public void closeConnection() {
+        super.closeConnection();
+        if (key != null) {
+            key.cancel();
+        }
+    }
+}
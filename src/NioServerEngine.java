@@ -0,0 +1,206 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking server mode: one acceptor thread hands new connections round robin to a small, fixed set of selector loops,
+// so thousands of mostly idle clients cost a few threads instead of one thread each
+public class NioServerEngine {
+    private final Server server;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] eventLoops;
+    private int nextLoop = 0;
+    private volatile boolean running = true;
+
+    public NioServerEngine(Server server, int port, int eventLoopThreads) throws IOException {
+        this.server = server;
+        this.serverChannel = ServerSocketChannel.open();
+        this.eventLoops = new EventLoop[eventLoopThreads];
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(port));
+            for (int i = 0; i < eventLoopThreads; i++) {
+                eventLoops[i] = new EventLoop(i);
+            }
+        } catch (IOException ex) {
+            serverChannel.close();
+            for (EventLoop loop : eventLoops) {
+                if (loop != null) {
+                    loop.closeSelector();
+                }
+            }
+            throw ex;
+        }
+    }
+
+    // The blocking ServerSocket view of the channel, so the rest of the server can treat both modes alike
+    public ServerSocket getServerSocket() {
+        return serverChannel.socket();
+    }
+
+    public void start() {
+        for (EventLoop loop : eventLoops) {
+            loop.thread.start();
+        }
+        Thread acceptThread = new Thread(() -> {
+            while (running && serverChannel.isOpen()) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    server.getMetrics().recordAccept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    NioClientHandler handler = new NioClientHandler(channel, server);
+                    eventLoops[nextLoop].register(handler);
+                    nextLoop = (nextLoop + 1) % eventLoops.length;
+                } catch (IOException ex) {
+                    if (running && serverChannel.isOpen()) {
+                        server.getLog().error("accept_failed", "error", ex.getMessage());
+                    }
+                }
+            }
+        });
+        acceptThread.setName("NioAcceptThread");
+        acceptThread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            server.getLog().error("close_failed", "error", ex.getMessage());
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop.thread.getState() == Thread.State.NEW) {
+                loop.closeSelector(); // Never started, so no loop thread is left to close it
+            } else {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    // A single thread and selector that performs all reads and writes for the connections it owns
+    final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<NioClientHandler> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioClientHandler> pendingWrites = new ConcurrentLinkedQueue<>();
+        // Handlers holding off a flush for their coalescing window. Every handler has the same window, so this is
+        // already in deadline order. Only touched by the loop thread
+        private final ArrayDeque<NioClientHandler> deferredWrites = new ArrayDeque<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "NioEventLoop-" + index);
+            thread.setDaemon(true);
+        }
+
+        void register(NioClientHandler handler) {
+            pendingRegistrations.add(handler);
+            wakeup();
+        }
+
+        // Called from any thread once a handler has output queued; the loop switches on OP_WRITE for it
+        void requestWrite(NioClientHandler handler) {
+            pendingWrites.add(handler);
+            wakeup();
+        }
+
+        // Coalesces wakeups so a broadcast to many connections on this loop only interrupts select() once
+        private void wakeup() {
+            if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    // Work queued by this loop's own handlers must be picked up before blocking in select()
+                    processRegistrations();
+                    long timeoutMillis = processWriteRequests();
+                    if (timeoutMillis > 0) {
+                        selector.select(timeoutMillis);
+                    } else {
+                        selector.select();
+                    }
+                    wakeupPending.set(false);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioClientHandler handler = (NioClientHandler) key.attachment();
+                        if (!key.isValid()) {
+                            handler.closeConnection();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                handler.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                handler.onWritable();
+                            }
+                        } catch (IOException | CancelledKeyException ex) {
+                            handler.closeConnection();
+                        }
+                    }
+                } catch (IOException | ClosedSelectorException ex) {
+                    if (running) {
+                        server.getLog().error("event_loop_failed", "error", ex.getMessage());
+                    }
+                }
+            }
+            closeSelector();
+        }
+
+        void closeSelector() {
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                server.getLog().error("close_failed", "error", ex.getMessage());
+            }
+        }
+
+        private void processRegistrations() {
+            NioClientHandler handler;
+            while ((handler = pendingRegistrations.poll()) != null) {
+                try {
+                    SelectionKey key = handler.getChannel().register(selector, SelectionKey.OP_READ, handler);
+                    handler.attach(this, key);
+                } catch (ClosedChannelException ex) {
+                    handler.closeConnection();
+                }
+            }
+        }
+
+        // Turns on OP_WRITE for handlers with output to flush now, and returns how long select() may block before the
+        // next deferred flush is due (0 if none are waiting)
+        private long processWriteRequests() {
+            long now = System.nanoTime();
+            NioClientHandler handler;
+            while ((handler = pendingWrites.poll()) != null) {
+                if (handler.isFlushUrgent() || !handler.shouldCoalesce()) {
+                    handler.enableWriteInterest();
+                } else if (handler.deferredUntil == 0) {
+                    handler.deferredUntil = now + handler.coalesceNanos;
+                    deferredWrites.add(handler);
+                }
+            }
+            while ((handler = deferredWrites.peek()) != null) {
+                // Expedited handlers already had OP_WRITE turned on above and just leave the queue here
+                if (handler.deferredUntil - now > 0 && !handler.isFlushUrgent()) {
+                    // select() only takes milliseconds, so shorter windows round up to one
+                    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(handler.deferredUntil - now));
+                }
+                deferredWrites.poll();
+                handler.deferredUntil = 0;
+                handler.enableWriteInterest();
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class NioServerEngineTest {
+    private Server server;
+    private int port;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Server.testMode = true;
+        port = findAvailablePort();
+        assertTrue(port > 0, "Failed to find an available port");
+        server = new Server(port, new ServerConfig().setIoMode(ServerConfig.IoMode.NIO).setEventLoopThreads(2));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (server != null && server.isRunning()) {
+            server.shutdown();
+        }
+    }
+
+    private static int findAvailablePort() {
+        Random random = new Random();
+        for (int i = 0; i < 20; i++) {
+            int port = 5000 + random.nextInt(65536 - 5000);
+            try (ServerSocket _ = new ServerSocket(port)) {
+                return port;
+            } catch (IOException e) {
+                // continue
+            }
+        }
+        return -1;
+    }
+
+    // Reads lines until one starts with the expected prefix, failing on timeout
+    private static String readUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        fail("Connection closed before receiving " + prefix);
+        return null;
+    }
+
+    private Socket connect(String clientId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        new PrintWriter(socket.getOutputStream(), true).println("/connect:" + clientId);
+        return socket;
+    }
+
+    @Test
+    public void testConnectAndBroadcast() throws Exception {
+        System.out.println("Running testConnectAndBroadcast: Two clients connect to an NIO server and exchange a broadcast.");
+        try (Socket alice = connect("Alice")) {
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            assertEquals("COORDINATOR_STATUS:You are now the coordinator", readUntil(aliceIn, "COORDINATOR_STATUS:"));
+            Socket bob = connect("Bob");
+            BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+            readUntil(aliceIn, "Member Joined:Bob");
+
+            new PrintWriter(bob.getOutputStream(), true).println("/broadcastHello from Bob");
+            assertEquals("/broadcastBob:Hello from Bob", readUntil(aliceIn, "/broadcast"));
+            assertEquals("/broadcastBob:Hello from Bob", readUntil(bobIn, "/broadcast"));
+            bob.close();
+        }
+        System.out.println("testConnectAndBroadcast passed: Broadcast delivered through the event loops.");
+    }
+
+    @Test
+    public void testPrivateMessageAndQuit() throws Exception {
+        System.out.println("Running testPrivateMessageAndQuit: A private message is routed and /quit removes the sender.");
+        try (Socket alice = connect("Alice")) {
+            readUntil(new BufferedReader(new InputStreamReader(alice.getInputStream())), "COORDINATOR_STATUS:");
+            Socket bob = connect("Bob");
+            BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+            readUntil(bobIn, "COORDINATOR_INFO:");
+
+            PrintWriter aliceOut = new PrintWriter(alice.getOutputStream(), true);
+            aliceOut.println("/privateBob:Just for you");
+            assertEquals("/private:Alice:Just for you", readUntil(bobIn, "/private"));
+
+            aliceOut.println("/quit");
+            readUntil(bobIn, "COORDINATOR_STATUS:");
+            assertEquals("Bob", server.getMemberList(), "Alice should be removed after /quit");
+            bob.close();
+        }
+        System.out.println("testPrivateMessageAndQuit passed.");
+    }
+
+    @Test
+    public void testHistoryReplayedOnJoin() throws Exception {
+        System.out.println("Running testHistoryReplayedOnJoin: A member joining later receives the earlier broadcasts.");
+        try (Socket alice = connect("Alice")) {
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            readUntil(aliceIn, "COORDINATOR_STATUS:");
+            PrintWriter aliceOut = new PrintWriter(alice.getOutputStream(), true);
+            aliceOut.println("/broadcastfirst");
+            aliceOut.println("/broadcastsecond");
+            readUntil(aliceIn, "/broadcastAlice:second");
+
+            Socket bob = connect("Bob");
+            BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+            assertEquals("/broadcastAlice:first", readUntil(bobIn, "/broadcast"));
+            assertEquals("/broadcastAlice:second", readUntil(bobIn, "/broadcast"));
+            bob.close();
+        }
+        System.out.println("testHistoryReplayedOnJoin passed.");
+    }
+
+    @Test
+    public void testChannelReachesSubscribersOnly() throws Exception {
+        System.out.println("Running testChannelReachesSubscribersOnly: A channel message goes to the members who joined it and no one else.");
+        try (Socket alice = connect("Alice"); Socket bob = connect("Bob"); Socket carol = connect("Carol")) {
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+            BufferedReader carolIn = new BufferedReader(new InputStreamReader(carol.getInputStream()));
+            PrintWriter aliceOut = new PrintWriter(alice.getOutputStream(), true);
+            PrintWriter bobOut = new PrintWriter(bob.getOutputStream(), true);
+            PrintWriter carolOut = new PrintWriter(carol.getOutputStream(), true);
+
+            aliceOut.println("/join #General");
+            assertEquals("CHANNEL_JOINED:general", readUntil(aliceIn, "CHANNEL_"));
+            bobOut.println("/join:general");
+            assertEquals("CHANNEL_JOINED:general", readUntil(bobIn, "CHANNEL_"));
+            carolOut.println("/channel general:let me in");
+            assertEquals("CHANNEL_ERROR:general:Not a member of this channel", readUntil(carolIn, "CHANNEL_"));
+
+            aliceOut.println("/channel general:meet at 12:30");
+            assertEquals("/channel:general:Alice:meet at 12:30", readUntil(bobIn, "/channel"));
+            assertEquals("/channel:general:Alice:meet at 12:30", readUntil(aliceIn, "/channel"));
+
+            bobOut.println("/leave general");
+            assertEquals("CHANNEL_LEFT:general", readUntil(bobIn, "CHANNEL_"));
+            aliceOut.println("/channel:general:still here?");
+            assertEquals("/channel:general:Alice:still here?", readUntil(aliceIn, "/channel"));
+            // Carol was never in the channel and Bob has left it, so the next thing each of them sees is this broadcast
+            aliceOut.println("/broadcastdone");
+            assertEquals("/broadcastAlice:done", readUntil(bobIn, "/"));
+            assertEquals("/broadcastAlice:done", readUntil(carolIn, "/"));
+        }
+        System.out.println("testChannelReachesSubscribersOnly passed.");
+    }
+
+    private static void writeFrame(OutputStream out, byte opcode, String first, String second) throws IOException {
+        ByteBuffer frame = FrameCodec.encode(opcode, first, second);
+        out.write(frame.array(), 0, frame.remaining());
+        out.flush();
+    }
+
+    // Reads frames until one with the expected opcode arrives
+    private static FrameCodec.Frame readFrameUntil(DataInputStream in, byte opcode) throws IOException {
+        FrameCodec.Frame frame;
+        while ((frame = FrameCodec.read(in)) != null) {
+            if (frame.opcode() == opcode) {
+                return frame;
+            }
+        }
+        fail("Connection closed before receiving opcode " + opcode);
+        return null;
+    }
+
+    // A binary client and a text client share the server; the binary client's text keeps its ':' and newline
+    private static void exchangeWithBinaryClient(int port) throws IOException {
+        try (Socket alice = new Socket("localhost", port)) {
+            alice.setSoTimeout(5000);
+            OutputStream aliceOut = alice.getOutputStream();
+            DataInputStream aliceIn = new DataInputStream(new BufferedInputStream(alice.getInputStream()));
+            writeFrame(aliceOut, FrameCodec.CONNECT, "Alice", null);
+            readFrameUntil(aliceIn, FrameCodec.CONNECT_ACK);
+            assertTrue(readFrameUntil(aliceIn, FrameCodec.CONTROL).first().startsWith("COORDINATOR_STATUS:"));
+
+            Socket bob = new Socket("localhost", port);
+            bob.setSoTimeout(5000);
+            new PrintWriter(bob.getOutputStream(), true).println("/connect:Bob");
+            BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+            readUntil(bobIn, "COORDINATOR_INFO:");
+
+            writeFrame(aliceOut, FrameCodec.BROADCAST, "at 12:30\nin the hall", null);
+            FrameCodec.Frame echo = readFrameUntil(aliceIn, FrameCodec.BROADCAST);
+            assertEquals("Alice", echo.first());
+            assertEquals("at 12:30\nin the hall", echo.second());
+            assertEquals("/broadcastAlice:at 12:30 in the hall", readUntil(bobIn, "/broadcast"));
+
+            new PrintWriter(bob.getOutputStream(), true).println("/privateAlice:Got it");
+            FrameCodec.Frame reply = readFrameUntil(aliceIn, FrameCodec.PRIVATE);
+            assertEquals("Bob", reply.first());
+            assertEquals("Got it", reply.second());
+            bob.close();
+        }
+    }
+
+    @Test
+    public void testBinaryClient() throws Exception {
+        System.out.println("Running testBinaryClient: A client opening with a CONNECT frame is served binary frames by the NIO engine.");
+        exchangeWithBinaryClient(port);
+        System.out.println("testBinaryClient passed.");
+    }
+
+    @Test
+    public void testBinaryClientThreaded() throws Exception {
+        System.out.println("Running testBinaryClientThreaded: The thread per connection handler negotiates binary framing too.");
+        server.shutdown();
+        port = findAvailablePort();
+        server = new Server(port, new ServerConfig().setIoMode(ServerConfig.IoMode.THREADED));
+        exchangeWithBinaryClient(port);
+        System.out.println("testBinaryClientThreaded passed.");
+    }
+
+    @Test
+    public void testCompressionNegotiated() throws Exception {
+        System.out.println("Running testCompressionNegotiated: Clients asking for deflate get large frames compressed, once per broadcast.");
+        String text = "the quick brown fox jumps over the lazy dog, ".repeat(50);
+        try (Socket alice = new Socket("localhost", port); Socket bob = new Socket("localhost", port);
+             Socket carol = new Socket("localhost", port)) {
+            DataInputStream[] ins = new DataInputStream[3];
+            Socket[] sockets = {alice, bob, carol};
+            String[] names = {"Alice", "Bob", "Carol"};
+            for (int i = 0; i < 3; i++) {
+                sockets[i].setSoTimeout(5000);
+                ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                // Carol does not ask, so she is sent plain frames
+                byte flags = i < 2 ? FrameCodec.CAPABILITY_DEFLATE : 0;
+                ByteBuffer connect = FrameCodec.encode(FrameCodec.CONNECT, flags, names[i], null);
+                sockets[i].getOutputStream().write(connect.array(), 0, connect.remaining());
+                FrameCodec.Frame ack = readFrameUntil(ins[i], FrameCodec.CONNECT_ACK);
+                assertEquals(flags, ack.flags() & FrameCodec.CAPABILITY_DEFLATE);
+                readFrameUntil(ins[i], FrameCodec.CONTROL);
+            }
+
+            writeFrame(alice.getOutputStream(), FrameCodec.BROADCAST, text, null);
+            for (int i = 0; i < 3; i++) {
+                FrameCodec.Frame frame = readFrameUntil(ins[i], FrameCodec.BROADCAST);
+                assertEquals(text, frame.second());
+                assertEquals(i < 2, (frame.flags() & FrameCodec.FLAG_COMPRESSED) != 0, names[i] + "'s frame");
+            }
+            FrameCompressor compressor = server.getCompressor();
+            assertEquals(1, compressor.getFramesCompressed(), "One broadcast should be compressed once for all recipients");
+            assertTrue(compressor.getRatio() < 0.5, "Ratio " + compressor.getRatio());
+            assertTrue(compressor.getCpuNanos() > 0);
+        }
+        System.out.println("testCompressionNegotiated passed.");
+    }
+
+    @Test
+    public void testHeartbeatEvictsSilentClient() throws Exception {
+        System.out.println("Running testHeartbeatEvictsSilentClient: A client that stops answering PING is disconnected, one that answers stays.");
+        server.shutdown();
+        port = findAvailablePort();
+        server = new Server(port, new ServerConfig().setIoMode(ServerConfig.IoMode.NIO)
+                .setHeartbeatIntervalMillis(300).setHeartbeatTimeoutMillis(300));
+        try (Socket alice = new Socket("localhost", port); Socket bob = new Socket("localhost", port)) {
+            alice.setSoTimeout(5000);
+            bob.setSoTimeout(5000);
+            PrintWriter aliceOut = new PrintWriter(alice.getOutputStream(), true);
+            aliceOut.println("/connect:Alice");
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            Thread answering = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = aliceIn.readLine()) != null) {
+                        if (line.equals("PING")) aliceOut.println("/pong");
+                    }
+                } catch (IOException ignored) {
+                    // Closed at the end of the test
+                }
+            });
+            answering.setDaemon(true);
+            answering.start();
+
+            writeFrame(bob.getOutputStream(), FrameCodec.CONNECT, "Bob", null);
+            DataInputStream bobIn = new DataInputStream(new BufferedInputStream(bob.getInputStream()));
+            long start = System.nanoTime();
+            FrameCodec.Frame frame;
+            boolean pinged = false;
+            while ((frame = FrameCodec.read(bobIn)) != null) {
+                pinged |= frame.opcode() == FrameCodec.CONTROL && frame.first().equals("PING");
+            }
+            long evictedAfter = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(pinged, "Bob should have been sent PING before being disconnected");
+            assertTrue(evictedAfter >= 600 && evictedAfter < 2000, "Evicted after " + evictedAfter + " ms");
+
+            Thread.sleep(1000); // Long enough for Alice to have answered more PINGs
+            assertEquals("Alice", server.getMemberList());
+            assertEquals(1, server.getHeartbeatEvictions());
+        }
+        System.out.println("testHeartbeatEvictsSilentClient passed.");
+    }
+}
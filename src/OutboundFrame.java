@@ -0,0 +1,83 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A server message encoded to its wire bytes once per wire format, so a broadcast costs one encoding for text clients and
+// one for binary clients however many members receive it. Every recipient gets a read-only duplicate: its own position
+// and limit over the same shared bytes
+public final class OutboundFrame {
+    private final byte opcode;  // FrameCodec opcode for binary clients
+    private final String from;  // Sender, only for BROADCAST and PRIVATE chat frames
+    private final String body;
+    private final String text;  // The text protocol form of the message
+    private volatile ByteBuffer textEncoded;
+    private volatile ByteBuffer binaryEncoded;
+    private volatile ByteBuffer compressedEncoded; // The binary encoding as sent to connections that negotiated deflate
+
+    private OutboundFrame(byte opcode, String from, String body, String text) {
+        this.opcode = opcode;
+        this.from = from;
+        this.body = body;
+        this.text = text;
+    }
+
+    // A notice or command in its text protocol form, e.g. MEMBER_ADDED:3:Alice#0001
+    public static OutboundFrame of(String text) {
+        return new OutboundFrame(FrameCodec.CONTROL, null, text, text);
+    }
+
+    // A chat message from one member; text clients get the /broadcast or /private line they always have, binary clients
+    // get sender and text as separate fields so the text may safely contain ':' or line breaks
+    public static OutboundFrame chat(byte opcode, String from, String body) {
+        String singleLine = body.replace('\r', ' ').replace('\n', ' ');
+        String text = switch (opcode) {
+            case FrameCodec.PRIVATE -> "/private:" + from + ":" + singleLine;
+            case FrameCodec.CHANNEL -> "/channel:" + from + ":" + singleLine;
+            default -> "/broadcast" + from + ":" + singleLine;
+        };
+        return new OutboundFrame(opcode, from, body, text);
+    }
+
+    // A chat message to a channel's subscribers, /channel:<channel>:<sender>:<text> as a line. Channel names never
+    // contain ':', so binary clients split the channel from the sender at the first one
+    public static OutboundFrame channel(String channel, String from, String body) {
+        return chat(FrameCodec.CHANNEL, channel + ":" + from, body);
+    }
+
+    public String text() {
+        return text;
+    }
+
+    // A fresh view of the newline terminated text encoding for one connection; the bytes themselves are never copied
+    public ByteBuffer buffer() {
+        ByteBuffer encoded = textEncoded;
+        if (encoded == null) {
+            // Two threads racing here just encode the same bytes twice, whichever is stored is equally valid
+            encoded = ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+            textEncoded = encoded;
+        }
+        return encoded.duplicate();
+    }
+
+    // A fresh view of the binary frame encoding for one connection
+    public ByteBuffer binaryBuffer() {
+        ByteBuffer encoded = binaryEncoded;
+        if (encoded == null) {
+            encoded = (from == null
+                    ? FrameCodec.encode(opcode, body, null)
+                    : FrameCodec.encode(opcode, from, body)).asReadOnlyBuffer();
+            binaryEncoded = encoded;
+        }
+        return encoded.duplicate();
+    }
+
+    // A fresh view of the binary encoding for a connection that accepts compressed frames. Compressed at most once
+    // however many recipients there are; small or incompressible frames are the plain binary encoding
+    public ByteBuffer compressedBuffer(FrameCompressor compressor) {
+        ByteBuffer encoded = compressedEncoded;
+        if (encoded == null) {
+            encoded = compressor.compress(binaryBuffer()).asReadOnlyBuffer();
+            compressedEncoded = encoded;
+        }
+        return encoded.duplicate();
+    }
+}
@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded queue of encoded output for one connection. Senders only enqueue and return; a single drainer at a time
+// (claimed through tryClaimDrain) writes it to the socket, so one slow reader never holds up anyone else
+public class OutboundQueue {
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final ServerConfig.SlowConsumerPolicy policy;
+    private final LongAdder policyCounter; // Shared by every queue on the server, counts how often the policy fired
+    private final ReentrantLock lock = new ReentrantLock(); // Only ever held for the queue operation itself, never across IO
+    private final AtomicBoolean drainClaimed = new AtomicBoolean(false);
+
+    public OutboundQueue(int capacity, ServerConfig.SlowConsumerPolicy policy, LongAdder policyCounter) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.policyCounter = policyCounter;
+    }
+
+    // Returns false only when the queue is full under the DISCONNECT policy and the connection should be closed
+    public boolean offer(ByteBuffer data) {
+        lock.lock();
+        try {
+            if (queue.size() < capacity) {
+                queue.addLast(data);
+                return true;
+            }
+            policyCounter.increment();
+            switch (policy) {
+                case DROP_OLDEST -> {
+                    queue.pollFirst();
+                    queue.addLast(data);
+                }
+                case DROP_NEWEST -> {
+                    // The new message is simply not queued
+                }
+                case DISCONNECT -> {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves up to batch.length queued buffers into batch under a single lock acquisition, returning how many it moved
+    public int drainTo(ByteBuffer[] batch) {
+        lock.lock();
+        try {
+            int count = 0;
+            ByteBuffer data;
+            while (count < batch.length && (data = queue.pollFirst()) != null) {
+                batch[count++] = data;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The sender that flips this from false to true is responsible for getting a drainer running
+    public boolean tryClaimDrain() {
+        return drainClaimed.compareAndSet(false, true);
+    }
+
+    // Called by the drainer once it has emptied the queue; returns true if more arrived and it should keep going
+    public boolean releaseDrain() {
+        drainClaimed.set(false);
+        return !isEmpty() && tryClaimDrain();
+    }
+}
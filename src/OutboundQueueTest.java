@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OutboundQueueTest {
+
+    private static ByteBuffer message(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    public void testDropOldest() {
+        System.out.println("Running testDropOldest: A full queue discards its oldest message to make room.");
+        LongAdder counter = new LongAdder();
+        OutboundQueue queue = new OutboundQueue(2, ServerConfig.SlowConsumerPolicy.DROP_OLDEST, counter);
+        assertTrue(queue.offer(message("one")));
+        assertTrue(queue.offer(message("two")));
+        assertTrue(queue.offer(message("three")), "DROP_OLDEST should keep the connection");
+        assertEquals(2, queue.size());
+        assertEquals("two", text(queue.poll()));
+        assertEquals("three", text(queue.poll()));
+        assertEquals(1, counter.sum(), "The policy should have fired once");
+        System.out.println("testDropOldest passed.");
+    }
+
+    @Test
+    public void testDropNewest() {
+        System.out.println("Running testDropNewest: A full queue discards the message being offered.");
+        LongAdder counter = new LongAdder();
+        OutboundQueue queue = new OutboundQueue(1, ServerConfig.SlowConsumerPolicy.DROP_NEWEST, counter);
+        assertTrue(queue.offer(message("one")));
+        assertTrue(queue.offer(message("two")));
+        assertEquals("one", text(queue.poll()));
+        assertNull(queue.poll(), "The second message should have been dropped");
+        assertEquals(1, counter.sum());
+        System.out.println("testDropNewest passed.");
+    }
+
+    @Test
+    public void testDisconnect() {
+        System.out.println("Running testDisconnect: A full queue asks for the connection to be closed.");
+        LongAdder counter = new LongAdder();
+        OutboundQueue queue = new OutboundQueue(1, ServerConfig.SlowConsumerPolicy.DISCONNECT, counter);
+        assertTrue(queue.offer(message("one")));
+        assertFalse(queue.offer(message("two")), "DISCONNECT should report the slow consumer");
+        assertEquals(1, counter.sum());
+        System.out.println("testDisconnect passed.");
+    }
+
+    @Test
+    public void testDrainClaim() {
+        System.out.println("Running testDrainClaim: Only one drainer can claim the queue at a time.");
+        OutboundQueue queue = new OutboundQueue(4, ServerConfig.SlowConsumerPolicy.DROP_OLDEST, new LongAdder());
+        assertTrue(queue.tryClaimDrain());
+        assertFalse(queue.tryClaimDrain(), "A second sender must not start another drainer");
+        assertFalse(queue.releaseDrain(), "Nothing queued, so the drainer should stop");
+        queue.offer(message("late"));
+        assertTrue(queue.tryClaimDrain(), "After release the next sender claims the drain");
+        System.out.println("testDrainClaim passed.");
+    }
+
+    @Test
+    public void testDrainToBatch() {
+        System.out.println("Running testDrainToBatch: drainTo moves queued messages in order, at most one batch at a time.");
+        OutboundQueue queue = new OutboundQueue(8, ServerConfig.SlowConsumerPolicy.DROP_OLDEST, new LongAdder());
+        for (int i = 0; i < 5; i++) {
+            queue.offer(message("m" + i));
+        }
+        ByteBuffer[] batch = new ByteBuffer[3];
+        assertEquals(3, queue.drainTo(batch));
+        assertEquals("m0", text(batch[0]));
+        assertEquals("m2", text(batch[2]));
+        assertEquals(2, queue.drainTo(batch));
+        assertEquals("m3", text(batch[0]));
+        assertEquals(0, queue.drainTo(batch));
+        System.out.println("testDrainToBatch passed.");
+    }
+}
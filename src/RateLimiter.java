@@ -0,0 +1,46 @@
+// Token buckets for one connection, one per ServerConfig.CommandClass. Each bucket starts full, refills continuously at
+// its rate and spends one token per command, so a client may send a short burst and then its steady rate. Only the
+// thread reading the connection uses it, so nothing here is synchronized
+public final class RateLimiter {
+    private static final ServerConfig.CommandClass[] CLASSES = ServerConfig.CommandClass.values();
+
+    private final double[] tokensPerNano;
+    private final double[] capacity;
+    private final double[] tokens;
+    private final long[] refilledAt;
+    private final boolean[] throttled; // Whether the last command of the class was refused
+
+    public RateLimiter(ServerConfig config, long nowNanos) {
+        tokensPerNano = new double[CLASSES.length];
+        capacity = new double[CLASSES.length];
+        tokens = new double[CLASSES.length];
+        refilledAt = new long[CLASSES.length];
+        throttled = new boolean[CLASSES.length];
+        for (ServerConfig.CommandClass commandClass : CLASSES) {
+            int i = commandClass.ordinal();
+            tokensPerNano[i] = config.getRateLimit(commandClass) / 1e9;
+            capacity[i] = config.getRateBurst(commandClass);
+            tokens[i] = capacity[i];
+            refilledAt[i] = nowNanos;
+        }
+    }
+
+    // Spends a token if one is available. An unlimited class always succeeds
+    public boolean tryAcquire(ServerConfig.CommandClass commandClass, long nowNanos) {
+        int i = commandClass.ordinal();
+        if (tokensPerNano[i] == 0) return true;
+        tokens[i] = Math.min(capacity[i], tokens[i] + (nowNanos - refilledAt[i]) * tokensPerNano[i]);
+        refilledAt[i] = nowNanos;
+        boolean allowed = tokens[i] >= 1;
+        if (allowed) {
+            tokens[i] -= 1;
+        }
+        throttled[i] = !allowed;
+        return allowed;
+    }
+
+    // Whether the last command of the class was refused, so a flooding client need only be told once per run
+    public boolean isThrottled(ServerConfig.CommandClass commandClass) {
+        return throttled[commandClass.ordinal()];
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testBurstThenSteadyRate() {
+        System.out.println("Running testBurstThenSteadyRate: A full bucket allows a burst, then only the refill rate.");
+        ServerConfig config = new ServerConfig().setRateLimit(ServerConfig.CommandClass.CHAT, 10, 5);
+        RateLimiter limiter = new RateLimiter(config, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(ServerConfig.CommandClass.CHAT, 0));
+        }
+        assertFalse(limiter.tryAcquire(ServerConfig.CommandClass.CHAT, 0));
+        assertTrue(limiter.isThrottled(ServerConfig.CommandClass.CHAT));
+        assertFalse(limiter.tryAcquire(ServerConfig.CommandClass.CHAT, SECOND / 20), "Half a token is not enough");
+        assertTrue(limiter.tryAcquire(ServerConfig.CommandClass.CHAT, SECOND / 10));
+        assertFalse(limiter.isThrottled(ServerConfig.CommandClass.CHAT));
+
+        // A long pause refills no further than the burst
+        int allowed = 0;
+        while (limiter.tryAcquire(ServerConfig.CommandClass.CHAT, 100 * SECOND)) {
+            allowed++;
+        }
+        assertEquals(5, allowed);
+        System.out.println("testBurstThenSteadyRate passed.");
+    }
+
+    @Test
+    public void testClassesAreIndependent() {
+        System.out.println("Running testClassesAreIndependent: Each command class has its own bucket, and a rate of 0 is unlimited.");
+        ServerConfig config = new ServerConfig()
+                .setRateLimit(ServerConfig.CommandClass.DETAILS, 1, 1)
+                .setRateLimit(ServerConfig.CommandClass.MEMBERSHIP, 0, 1);
+        RateLimiter limiter = new RateLimiter(config, 0);
+        assertTrue(limiter.tryAcquire(ServerConfig.CommandClass.DETAILS, 0));
+        assertFalse(limiter.tryAcquire(ServerConfig.CommandClass.DETAILS, 0));
+        assertTrue(limiter.tryAcquire(ServerConfig.CommandClass.CHAT, 0), "Details being throttled should not affect chat");
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(limiter.tryAcquire(ServerConfig.CommandClass.MEMBERSHIP, 0));
+        }
+        System.out.println("testClassesAreIndependent passed.");
+    }
+
+    @Test
+    public void testParsesRateFlags() {
+        System.out.println("Running testParsesRateFlags: --rate-<class>=<per-second>[/<burst>] sets the limits.");
+        ServerConfig config = ServerConfig.fromArgs(new String[]{"--rate-chat=50/100", "--rate-details=2"}, 0);
+        assertEquals(50, config.getRateLimit(ServerConfig.CommandClass.CHAT));
+        assertEquals(100, config.getRateBurst(ServerConfig.CommandClass.CHAT));
+        assertEquals(2, config.getRateLimit(ServerConfig.CommandClass.DETAILS));
+        assertEquals(4, config.getRateBurst(ServerConfig.CommandClass.DETAILS), "The burst defaults to twice the rate");
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.fromArgs(new String[]{"--rate-chat=-1"}, 0));
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.fromArgs(new String[]{"--rate-chat=5/0"}, 0));
+        System.out.println("testParsesRateFlags passed.");
+    }
+}
@@ -1,205 +1,613 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Server {
     // Flag to indicate test mode; set to true during testing to avoid System.exit(0)
     public static boolean testMode = false;
 
     private final ServerSocket serverSocket;
-    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>(); // Mapping usernames by <custom name> + #<RandomUserID> to ensure uniqueness (Discord legacy format)
-    private String currentCoordinator = null;
-    private final ExecutorService clientThreadPool = Executors.newCachedThreadPool(); // Crucial for creating/reusing a free thread for each new client who joins
+    private final ServerConfig config;
+    private final EventLog log; // Written by a background thread, so logging never holds up a sender
+    private final NioServerEngine nioEngine; // Only set when running in NIO mode
+    private final Federation federation; // Only set when this server is a node of a cluster
+    // Members by <custom name> + #<RandomUserID> to ensure uniqueness (Discord legacy format), and the coordinator.
+    // Published as an immutable snapshot; joins and leaves swap in a new one by CAS, so nothing on this path locks
+    private final AtomicReference<Membership> membership = new AtomicReference<>(Membership.EMPTY);
+    // Messages for each membership change, keyed by its sequence number and sent strictly in that order by whichever
+    // thread holds the delivery claim
+    private final Map<Long, Runnable> pendingDeliveries = new ConcurrentHashMap<>();
+    private final AtomicBoolean deliveryClaimed = new AtomicBoolean(false);
+    private volatile long deliveredSequence = 0;
+    private final ExecutorService clientThreadPool; // Crucial for creating/reusing a free thread for each new client who joins
+    // Only guards scheduling and cancelling the shutdownCountdown timeout, never held while sending anything
+    private final ReentrantLock countdownLock = new ReentrantLock();
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean(false);
     private volatile boolean isRunning;
 
-    // Simplified inactive members tracking
-    private final Set<String> inactiveMembers = ConcurrentHashMap.newKeySet(); // Stores members who have left the server, optimized for multithreaded environment like the chat
+    // How many times each slow consumer policy has fired across all connections
+    private final Map<ServerConfig.SlowConsumerPolicy, LongAdder> slowConsumerEvents = new EnumMap<>(ServerConfig.SlowConsumerPolicy.class);
+    private final Map<ServerConfig.CommandClass, LongAdder> rateLimitedEvents = new EnumMap<>(ServerConfig.CommandClass.class);
 
-    // Shutdown countdown thread
-    private Thread shutdownThread = null;
+    // Members who have left the server, bounded by count and age and kept sorted with its list string cached
+    private final InactiveMemberIndex inactiveMembers;
+
+    // Recent broadcasts replayed to members as they join
+    private final MessageHistory history;
+    private static final int HISTORY_BYTES_PER_MESSAGE = 1024; // Sizes the history buffer from the configured entry count
+
+    // Shared by every connection that negotiated compression, null if the server does not offer it
+    private final FrameCompressor compressor;
+
+    // Named channels; a channel message only costs a send per subscriber, however many members the server has
+    private final ChannelRegistry channels = new ChannelRegistry();
+
+    // Durable record of every chat message, null unless a log directory is configured
+    private final ChatLog chatLog;
+
+    // One timing wheel drives every connection's heartbeat and the inactivity shutdown countdown
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+    private final TimingWheel timers;
+    private final LongAdder heartbeatEvictions = new LongAdder();
+
+    // Counters and latency histograms, published over JMX and to the coordinator's /stats
+    private final ServerMetrics metrics = new ServerMetrics(this);
+
+    // Inactivity shutdown: the next step of the countdown, null when none is running. A step left over from a cancelled
+    // countdown sees that it is no longer the current one and does nothing
+    private static final int SHUTDOWN_COUNTDOWN_SECONDS = 300;
+    private static final int SHUTDOWN_STEP_SECONDS = 30;
+    private TimingWheel.Timeout shutdownCountdown; // Guarded by countdownLock
 
     public Server(int port) throws IOException {
+        this(port, new ServerConfig());
+    }
+
+    public Server(int port, ServerConfig config) throws IOException {
+        this.config = config;
+        this.log = config.getEventLogFile() == null ? new EventLog(config.getEventLogBufferSize())
+                : new EventLog(config.getEventLogBufferSize(), Path.of(config.getEventLogFile()));
+        this.inactiveMembers = new InactiveMemberIndex(config.getInactiveMemberLimit(), config.getInactiveMemberTtlMillis());
+        this.history = new MessageHistory(config.getHistorySize(),
+                (int) Math.min(Integer.MAX_VALUE, (long) config.getHistorySize() * HISTORY_BYTES_PER_MESSAGE));
+        this.compressor = config.isCompressionEnabled() ? new FrameCompressor(config.getCompressionThreshold()) : null;
+        for (ServerConfig.SlowConsumerPolicy policy : ServerConfig.SlowConsumerPolicy.values()) {
+            slowConsumerEvents.put(policy, new LongAdder());
+        }
+        for (ServerConfig.CommandClass commandClass : ServerConfig.CommandClass.values()) {
+            rateLimitedEvents.put(commandClass, new LongAdder());
+        }
+        String binding = "Port " + port; // Names the port a BindException is about
+        boolean started = false;
         try {
-            serverSocket = new ServerSocket();
-            serverSocket.setReuseAddress(true);
-            serverSocket.bind(new InetSocketAddress(port));
+            this.timers = new TimingWheel("ServerTimers", TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL, log);
+            this.chatLog = openChatLog(config);
+            this.clientThreadPool = config.getIoMode() == ServerConfig.IoMode.VIRTUAL
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newCachedThreadPool();
+            if (config.getIoMode() == ServerConfig.IoMode.NIO) {
+                nioEngine = new NioServerEngine(this, port, config.getEventLoopThreads());
+                serverSocket = nioEngine.getServerSocket();
+            } else {
+                nioEngine = null;
+                serverSocket = new ServerSocket();
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(new InetSocketAddress(port));
+            }
+
+            binding = "Peer port " + config.getPeerPort();
+            federation = config.getPeerPort() < 0 ? null : new Federation(this, config);
 
             isRunning = true;
-            System.out.println("Server successfully started on port " + port);
+            metrics.start(serverSocket.getLocalPort());
+            log.info("server_started", "port", port, "io", config.getIoMode().name().toLowerCase());
 
             // Start the shutdown countdown on startup
             startShutdownCountdown();
 
             startAcceptingClients();
+            if (federation != null) {
+                federation.start();
+            }
+            started = true;
         } catch (BindException e) {
-            throw new IOException("Port " + port + " is already in use. Please try a different port.");
+            throw new IOException(binding + " is already in use. Please try a different port.");
         } catch (SecurityException e) {
             throw new IOException("Security manager prevented use of port " + port);
         } catch (IllegalArgumentException e) {
             throw new IOException("Invalid port number: " + port);
         } catch (IOException ex) {
             throw new IOException("Could not start server on port " + port + ": " + ex.getMessage());
+        } finally {
+            if (!started) {
+                closeAfterFailedStart();
+            }
         }
     }
-    // Handles the server shutdown due to inactivity
-    private synchronized void startShutdownCountdown() {
-        if (shutdownThread != null && shutdownThread.isAlive()) {
-            return;
-        }
 
-        shutdownThread = new Thread(() -> {
+    // Releases whatever a constructor that failed part way had already opened, so a server that never started leaves
+    // no threads, sockets or mapped log segments behind. Fields it never reached are still null
+    private void closeAfterFailedStart() {
+        if (federation != null) {
+            federation.shutdown();
+        }
+        if (nioEngine != null) {
+            nioEngine.shutdown();
+        }
+        if (serverSocket != null && !serverSocket.isClosed()) {
             try {
-                System.out.println("Server will shut down in 5 minutes if no clients connect");
-                broadcastMessage("SERVER_TIMEOUT:5:00");
-                for (int remainingSeconds = 270; remainingSeconds > 0; remainingSeconds -= 30) {
-                    Thread.sleep(30000);
-                    if (!clients.isEmpty()) {
-                        System.out.println("Clients connected. Cancelling shutdown timer.");
-                        return;
-                    }
-                    int minutes = remainingSeconds / 60;
-                    int seconds = remainingSeconds % 60;
-                    System.out.println("Server will shut down in " + minutes + " minutes and " + seconds + " seconds if no clients connect");
-                    broadcastMessage(String.format("SERVER_TIMEOUT:%d:%d", minutes, seconds));
-                }
-                System.out.println("Shutdown time reached with no clients. Shutting down server.");
-                shutdown();
-            } catch (InterruptedException e) {
-                System.out.println("Shutdown countdown interrupted.");
+                serverSocket.close();
+            } catch (IOException ex) {
+                log.error("close_failed", "error", ex.getMessage());
             }
-        });
-        shutdownThread.setDaemon(true);
-        shutdownThread.setName("ShutdownThread");
+        }
+        if (clientThreadPool != null) {
+            clientThreadPool.shutdownNow();
+        }
+        if (chatLog != null) {
+            chatLog.close();
+        }
+        if (timers != null) {
+            timers.stop();
+        }
+        metrics.stop();
+        log.close();
+    }
+
+    // Opens the configured chat log and refills the history window from its tail, so a restarted server replays the
+    // same recent broadcasts it had before
+    private ChatLog openChatLog(ServerConfig config) throws IOException {
+        if (config.getLogDir() == null) return null;
+        long start = System.nanoTime();
+        ChatLog opened = new ChatLog(Path.of(config.getLogDir()), config.getLogSegmentBytes(),
+                config.getLogFsyncPolicy(), config.getLogFsyncIntervalMillis(), config.getLogOverflowPolicy(), log);
+        List<ChatLog.Record> recent = opened.recentBroadcasts(config.getHistorySize());
+        for (ChatLog.Record record : recent) {
+            history.append(OutboundFrame.chat(FrameCodec.BROADCAST, record.from(), record.body()));
+        }
+        log.info("chat_log_opened", "dir", config.getLogDir(), "restored", recent.size(),
+                "millis", String.format("%.1f", (System.nanoTime() - start) / 1e6));
+        return opened;
+    }
+
+    // Handles the server shutdown due to inactivity: announces the time left every 30 seconds while nobody is connected
+    private void startShutdownCountdown() {
+        countdownLock.lock();
+        try {
+            if (shutdownCountdown != null) {
+                return;
+            }
+            log.info("shutdown_countdown_started", "seconds", SHUTDOWN_COUNTDOWN_SECONDS);
+            broadcastMessage("SERVER_TIMEOUT:5:00");
+            scheduleCountdownStep(SHUTDOWN_COUNTDOWN_SECONDS - SHUTDOWN_STEP_SECONDS);
+        } finally {
+            countdownLock.unlock();
+        }
+    }
+
+    // Called with countdownLock held
+    private void scheduleCountdownStep(int remainingSeconds) {
+        TimingWheel.Timeout[] step = new TimingWheel.Timeout[1];
+        step[0] = timers.schedule(() -> countdownStep(step[0], remainingSeconds), SHUTDOWN_STEP_SECONDS, TimeUnit.SECONDS);
+        shutdownCountdown = step[0];
+    }
+
+    // Runs on the timing wheel
+    private void countdownStep(TimingWheel.Timeout step, int remainingSeconds) {
+        countdownLock.lock();
+        try {
+            if (shutdownCountdown != step) return;
+            if (!membership.get().members().isEmpty()) {
+                log.info("shutdown_countdown_cancelled", "reason", "members_connected");
+                shutdownCountdown = null;
+                return;
+            }
+            if (remainingSeconds > 0) {
+                int minutes = remainingSeconds / 60;
+                int seconds = remainingSeconds % 60;
+                log.info("shutdown_countdown", "remaining_seconds", remainingSeconds);
+                broadcastMessage(String.format("SERVER_TIMEOUT:%d:%d", minutes, seconds));
+                scheduleCountdownStep(remainingSeconds - SHUTDOWN_STEP_SECONDS);
+                return;
+            }
+            shutdownCountdown = null;
+        } finally {
+            countdownLock.unlock();
+        }
+        log.info("shutdown_idle", "seconds", SHUTDOWN_COUNTDOWN_SECONDS);
+        // shutdown() sleeps and joins the log writers, far too long for a timing wheel task, so it gets its own thread.
+        // Not a daemon like the wheel's worker it would inherit from, so the JVM waits for it to finish
+        Thread shutdownThread = new Thread(this::shutdown, "ShutdownThread");
+        shutdownThread.setDaemon(false);
         shutdownThread.start();
     }
 
-    private synchronized void cancelShutdownCountdown() {
-        if (shutdownThread != null && shutdownThread.isAlive()) {
-            shutdownThread.interrupt();
-            shutdownThread = null;
+    private void cancelShutdownCountdown() {
+        countdownLock.lock();
+        try {
+            if (shutdownCountdown != null) {
+                shutdownCountdown.cancel();
+                shutdownCountdown = null;
+                log.info("shutdown_countdown_cancelled");
+            }
+        } finally {
+            countdownLock.unlock();
         }
     }
 
     // A separate thread to accept clients while server functionality remains responsive
     private void startAcceptingClients() {
+        if (nioEngine != null) {
+            nioEngine.start();
+            return;
+        }
         Thread acceptThread = new Thread(() -> {
             while (!serverSocket.isClosed()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
+                    metrics.recordAccept();
                     ClientHandler handler = new ClientHandler(clientSocket, this); // Creates a new ClientHandler for every new client
                     clientThreadPool.execute(handler);
                 } catch (IOException ex) {
                     if (!serverSocket.isClosed()) {
-                        System.err.println("Accepting failed: " + ex.getMessage());
+                        log.error("accept_failed", "error", ex.getMessage());
                     }
                 }
             }
         });
         acceptThread.start();
     }
-    // Handles registering clients to the server
-    public synchronized void registerClient(String clientId, ClientHandler handler) {
-        clients.put(clientId, handler);
-
-        // Cancel shutdown countdown when at least 1 client connects
-        cancelShutdownCountdown();
-        // Assign coordinator to the first client to connect
-        if (currentCoordinator == null) {
-            setNewCoordinator(clientId);
-        } else if (!clientId.equals(currentCoordinator)) {
-            handler.sendMessage("COORDINATOR_INFO:" + currentCoordinator);
-        }
-        broadcastMessage("Member Joined:" + clientId);
-        updateMemberLists();
+    // Handles registering clients to the server. The new member is visible to readers as soon as this returns, its
+    // announcements are sent in order behind any earlier membership change still being delivered
+    public void registerClient(String clientId, ClientHandler handler) {
+        Membership previous, next;
+        do {
+            previous = membership.get();
+            next = previous.withJoined(clientId, handler);
+        } while (!membership.compareAndSet(previous, next));
+        Membership joined = next;
+        boolean becameCoordinator = !clientId.equals(previous.coordinator()) && clientId.equals(joined.coordinator());
+        deliver(joined.sequence(), () -> {
+            inactiveMembers.remove(clientId);
+            // Cancel shutdown countdown when at least 1 client connects
+            cancelShutdownCountdown();
+            // Assign coordinator to the first client to connect
+            if (becameCoordinator) {
+                handler.sendMessage("COORDINATOR_STATUS:You are now the coordinator");
+            } else if (!clientId.equals(joined.coordinator())) {
+                handler.sendMessage("COORDINATOR_INFO:" + joined.coordinator());
+            }
+            // The newcomer gets the full lists once; everyone else (and the newcomer, who ignores it) gets a single delta
+            sendSnapshot(handler, joined);
+            handler.replayHistory(history, config.getHistoryReplay());
+            log.info("member_joined", "member", clientId);
+            broadcastFrame(joined, OutboundFrame.of("Member Joined:" + clientId));
+            broadcastFrame(joined, OutboundFrame.of("MEMBER_ADDED:" + joined.epoch() + ":" + clientId));
+            if (federation != null) {
+                federation.publishMembers(joined);
+            }
+        });
     }
     // Handles updating the member lists when a client leaves the server
-    public synchronized void removeClient(String clientId) {
-        clients.remove(clientId);
-        System.out.println("Client removed from active member list: " + clientId);
-
-        if (clientId != null && !clientId.trim().isEmpty()) {
-            inactiveMembers.add(clientId);
-            System.out.println("Added to inactive members list: " + clientId);
-        }
-        // if the coordinator left, apply "assign a new coordinator" function
-        assert clientId != null;
-        if (clientId.equals(currentCoordinator)) {
-            assignNewCoordinator();
-        } else { // else if no coordinator to assign to, start the shutdown
-            broadcastMessage("Member Left:" + clientId);
-            updateMemberLists();
-            if (clients.isEmpty()) {
-                startShutdownCountdown();
+    public void removeClient(String clientId) {
+        if (clientId == null) return;
+        Membership previous, next;
+        do {
+            previous = membership.get();
+            next = previous.withLeft(clientId);
+        } while (next != previous && !membership.compareAndSet(previous, next));
+        log.info("member_removed", "member", clientId);
+        if (next == previous) {
+            // Was not an active member, so there is nothing to announce
+            if (!clientId.trim().isEmpty()) {
+                inactiveMembers.add(clientId);
             }
+            return;
         }
+        Membership left = next;
+        channels.leaveAll(previous.members().get(clientId));
+        boolean wasCoordinator = clientId.equals(previous.coordinator());
+        deliver(left.sequence(), () -> {
+            if (!clientId.trim().isEmpty()) {
+                inactiveMembers.add(clientId);
+                log.info("member_inactive", "member", clientId);
+            }
+            broadcastFrame(left, OutboundFrame.of("MEMBER_REMOVED:" + left.epoch() + ":" + clientId));
+            // if the coordinator left, announce the member who took over
+            if (wasCoordinator) {
+                announceNewCoordinator(left);
+            } else {
+                broadcastFrame(left, OutboundFrame.of("Member Left:" + clientId));
+            }
+            // With no local members left the countdown starts, even while other nodes of a cluster still have some
+            if (left.members().isEmpty()) {
+                startShutdownCountdown();
+            }
+            if (federation != null) {
+                federation.publishMembers(left);
+            }
+        });
     }
 
-    private synchronized void assignNewCoordinator() {
-        if (!clients.isEmpty()) {
-            String newCoordinator = clients.keySet().iterator().next();
-            if (!newCoordinator.equals(currentCoordinator)) {
-                setNewCoordinator(newCoordinator);
-                System.out.println("New coordinator assigned: " + newCoordinator);
-                for (Map.Entry<String, ClientHandler> entry : clients.entrySet()) {
-                    if (!entry.getKey().equals(newCoordinator)) {
-                        entry.getValue().sendMessage("COORDINATOR_INFO:" + newCoordinator);
-                    }
-                }
+    // Applies a peer node's gossiped member list. Members who appeared or vanished there are announced to the local
+    // members as ordinary joins and leaves, in the same delivery order as local changes
+    void updateRemoteMembers(String nodeId, Map<String, Long> nodeMembers) {
+        Membership previous, next;
+        do {
+            previous = membership.get();
+            next = previous.withRemote(nodeId, nodeMembers);
+        } while (next != previous && !membership.compareAndSet(previous, next));
+        if (next == previous) return;
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, Membership.Remote> entry : previous.remote().entrySet()) {
+            if (entry.getValue().nodeId().equals(nodeId) && !nodeMembers.containsKey(entry.getKey())) {
+                removed.add(entry.getKey());
             }
-        } else {
-            System.out.println("No clients available for coordinator role");
-            startShutdownCountdown();
         }
+        List<String> added = new ArrayList<>();
+        for (String member : nodeMembers.keySet()) {
+            if (!previous.remote().containsKey(member)) {
+                added.add(member);
+            }
+        }
+        Membership current = next;
+        boolean coordinatorChanged = !Objects.equals(previous.coordinator(), current.coordinator());
+        long firstEpoch = previous.epoch() + 1;
+        deliver(current.sequence(), () -> {
+            long epoch = firstEpoch;
+            for (String member : removed) {
+                inactiveMembers.add(member);
+                broadcastFrame(current, OutboundFrame.of("MEMBER_REMOVED:" + epoch++ + ":" + member));
+                log.info("member_removed", "member", member, "node", nodeId);
+                broadcastFrame(current, OutboundFrame.of("Member Left:" + member));
+            }
+            for (String member : added) {
+                inactiveMembers.remove(member);
+                log.info("member_joined", "member", member, "node", nodeId);
+                broadcastFrame(current, OutboundFrame.of("Member Joined:" + member));
+                broadcastFrame(current, OutboundFrame.of("MEMBER_ADDED:" + epoch++ + ":" + member));
+            }
+            if (coordinatorChanged) {
+                announceNewCoordinator(current);
+            }
+        });
     }
 
-    private void setNewCoordinator(String clientId) {
-        if (currentCoordinator != null && currentCoordinator.equals(clientId)) {
+    private void announceNewCoordinator(Membership current) {
+        String newCoordinator = current.coordinator();
+        if (newCoordinator == null) {
+            log.info("coordinator_none");
+            startShutdownCountdown();
             return;
         }
-        currentCoordinator = clientId;
-        ClientHandler coordinator = clients.get(clientId);
-        if (coordinator != null) {
-            coordinator.sendMessage("COORDINATOR_STATUS:You are now the coordinator");
+        log.info("coordinator_assigned", "member", newCoordinator);
+        OutboundFrame coordinatorInfo = OutboundFrame.of("COORDINATOR_INFO:" + newCoordinator);
+        for (Map.Entry<String, ClientHandler> entry : current.members().entrySet()) {
+            if (entry.getKey().equals(newCoordinator)) {
+                entry.getValue().sendMessage("COORDINATOR_STATUS:You are now the coordinator");
+            } else {
+                entry.getValue().send(coordinatorInfo);
+            }
+        }
+    }
+
+    // Queues the messages for a membership change. A caller whose change is next in line sends it straight away, so
+    // an uncontended join or leave is done when its call returns; a backlog of other connections' changes is handed
+    // to a background sender rather than worked through by whichever caller happened to arrive
+    private void deliver(long sequence, Runnable delivery) {
+        pendingDeliveries.put(sequence, delivery);
+        while (pendingDeliveries.containsKey(deliveredSequence + 1) && deliveryClaimed.compareAndSet(false, true)) {
+            if (deliveredSequence + 1 != sequence) {
+                sendDeliveriesInBackground();
+                return;
+            }
+            runDelivery(pendingDeliveries.remove(sequence));
+            deliveryClaimed.set(false);
+            // Anything queued while we held the claim was left to us; the next pass hands it to the background sender
         }
     }
 
+    // Called holding the delivery claim, which passes to the background sender
+    private void sendDeliveriesInBackground() {
+        try {
+            clientThreadPool.execute(() -> {
+                do {
+                    Runnable next;
+                    while ((next = pendingDeliveries.remove(deliveredSequence + 1)) != null) {
+                        runDelivery(next);
+                    }
+                    deliveryClaimed.set(false);
+                    // A change may have been queued after the loop above looked for it but before the claim was released
+                } while (pendingDeliveries.containsKey(deliveredSequence + 1) && deliveryClaimed.compareAndSet(false, true));
+            });
+        } catch (RejectedExecutionException ex) {
+            // Shutting down, nobody is left to tell
+            deliveryClaimed.set(false);
+        }
+    }
+
+    // Only ever run by the holder of the delivery claim
+    private void runDelivery(Runnable delivery) {
+        try {
+            delivery.run();
+        } catch (Exception ex) {
+            log.error("membership_delivery_failed", "error", ex.getMessage());
+        }
+        deliveredSequence++;
+    }
+
     public void broadcastMessage(String message) {
         boolean suppressConsoleOutput = message.toLowerCase().startsWith("server_timeout:") ||
                 message.toLowerCase().startsWith("member_list:") ||
-                message.toLowerCase().startsWith("inactive_member_list:");
+                message.toLowerCase().startsWith("inactive_member_list:") ||
+                message.toLowerCase().startsWith("member_added:") ||
+                message.toLowerCase().startsWith("member_removed:");
         if (!suppressConsoleOutput) {
-            System.out.println(message);
+            log.info("notice", "text", message);
+        }
+        broadcastFrame(membership.get(), OutboundFrame.of(message));
+    }
+
+    // Chat from a member, kept as sender and text so binary clients receive them as separate fields
+    public void broadcastChat(String from, String text) {
+        deliverBroadcast(from, text);
+        if (federation != null) {
+            federation.forwardBroadcast(from, text);
+        }
+    }
+
+    // Sends a broadcast to this node's members only, whether it came from one of them or from a peer node
+    void deliverBroadcast(String from, String text) {
+        OutboundFrame frame = OutboundFrame.chat(FrameCodec.BROADCAST, from, text);
+        log.info("broadcast", "from", from, "text", text);
+        // Recorded before the membership is read, so a member joining meanwhile gets it live, replayed, or both, never neither
+        history.append(frame);
+        if (chatLog != null) {
+            chatLog.appendBroadcast(from, text);
         }
-        for (ClientHandler client : new ArrayList<>(clients.values())) {
+        broadcastFrame(membership.get(), frame);
+    }
+
+    // Sends to every member of the given snapshot; no lock is held, and each send only queues
+    private void broadcastFrame(Membership recipients, OutboundFrame frame) {
+        long start = System.nanoTime();
+        // Encoded once per wire format; each client only queues a read-only view of the same bytes
+        for (ClientHandler client : recipients.members().values()) {
             try {
-                client.sendMessage(message);
+                client.send(frame);
             } catch (Exception ex) {
-                System.err.println("Error broadcasting to client: " + ex.getMessage());
+                log.error("broadcast_send_failed", "member", client.getClientId(), "error", ex.getMessage());
             }
         }
+        metrics.recordFanOut(System.nanoTime() - start);
+    }
+
+    // Sends one client the full active and inactive lists tagged with the current epoch, used when a client asks to
+    // resync after spotting a gap in the deltas. The request takes a place in the delivery order like a join or leave,
+    // so the snapshot can never reach the client behind a delta it already covers
+    public void sendMemberSnapshot(ClientHandler handler) {
+        Membership previous, next;
+        do {
+            previous = membership.get();
+            next = previous.withSequenceStep();
+        } while (!membership.compareAndSet(previous, next));
+        Membership current = next;
+        deliver(current.sequence(), () -> sendSnapshot(handler, current));
+    }
+
+    private void sendSnapshot(ClientHandler handler, Membership current) {
+        handler.sendMessage("MEMBER_SNAPSHOT:" + current.epoch());
+        handler.sendMessage("MEMBER_LIST:" + current.memberList());
+        handler.sendMessage("INACTIVE_MEMBER_LIST:" + getInactiveMemberList());
+    }
+
+    // Conditional refresh for /get_members:<epoch>, a client that is already current just gets NOT_MODIFIED back
+    public void sendMemberSnapshotIfChanged(ClientHandler handler, long clientEpoch) {
+        if (clientEpoch == membership.get().epoch()) {
+            handler.sendMessage("NOT_MODIFIED:" + clientEpoch);
+        } else {
+            sendMemberSnapshot(handler);
+        }
     }
 
-    private void updateMemberLists() {
-        String memberList = getMemberList();
-        broadcastMessage("MEMBER_LIST:" + memberList);
-        String inactiveMemberList = getInactiveMemberList();
-        broadcastMessage("INACTIVE_MEMBER_LIST:" + inactiveMemberList);
+    // Bumped on every join and leave; clients use it to spot missed MEMBER_ADDED/MEMBER_REMOVED deltas
+    public long getMembershipEpoch() {
+        return membership.get().epoch();
     }
 
-    // Routes private messages to the specific recipient based on the starting string and username specified
+    // Routes private messages to the specific recipient based on the starting string and username specified; a
+    // recipient connected to another node of the cluster is reached through the link to that node
     public void sendPrivateMessage(String from, String to, String message) {
-        ClientHandler recipient = clients.get(to);
+        Membership current = membership.get();
+        Membership.Remote remote = current.members().containsKey(to) ? null : current.remote().get(to);
+        if (remote != null && federation != null) {
+            if (!federation.forwardPrivate(remote.nodeId(), from, to, message)) {
+                // The link to the recipient's node is down, so the sender hears the message went nowhere
+                log.warn("private_undeliverable", "from", from, "to", to, "node", remote.nodeId());
+                ClientHandler sender = current.members().get(from);
+                if (sender != null) {
+                    sender.sendMessage("PRIVATE_ERROR:" + to + ":Not delivered, " + to + "'s server is unreachable");
+                }
+            }
+            return;
+        }
+        deliverPrivateMessage(from, to, message);
+    }
+
+    void deliverPrivateMessage(String from, String to, String message) {
+        ClientHandler recipient = membership.get().members().get(to);
         if (recipient != null) {
-            recipient.sendMessage("/private:" + from + ":" + message);
+            if (chatLog != null) {
+                chatLog.appendPrivate(from, to, message);
+            }
+            recipient.send(OutboundFrame.chat(FrameCodec.PRIVATE, from, message));
+        }
+    }
+
+    // Subscribes a member to a channel, creating the channel if nobody is in it yet
+    public void joinChannel(ClientHandler handler, String name) {
+        String channel = ChannelRegistry.normalize(name);
+        if (channel == null) {
+            handler.sendMessage("CHANNEL_ERROR:" + name.strip() + ":Invalid channel name");
+            return;
         }
+        channels.join(channel, handler);
+        handler.sendMessage("CHANNEL_JOINED:" + channel);
+    }
+
+    public void leaveChannel(ClientHandler handler, String name) {
+        String channel = ChannelRegistry.normalize(name);
+        if (channel == null || !channels.leave(channel, handler)) {
+            handler.sendMessage("CHANNEL_ERROR:" + name.strip() + ":Not a member of this channel");
+            return;
+        }
+        handler.sendMessage("CHANNEL_LEFT:" + channel);
+    }
+
+    // Sends to the channel's current subscribers only; the sender has to be one of them
+    public void sendChannelMessage(ClientHandler sender, String name, String message) {
+        String channel = ChannelRegistry.normalize(name);
+        if (channel == null || !channels.isSubscribed(channel, sender)) {
+            sender.sendMessage("CHANNEL_ERROR:" + name.strip() + ":Not a member of this channel");
+            return;
+        }
+        deliverChannelMessage(channel, sender.getClientId(), message);
+        if (federation != null) {
+            federation.forwardChannel(channel, sender.getClientId(), message);
+        }
+    }
+
+    // Sends to this node's subscribers of the channel, whether the message came from one of them or from a peer node
+    void deliverChannelMessage(String channel, String from, String message) {
+        OutboundFrame frame = OutboundFrame.channel(channel, from, message);
+        log.info("channel_message", "channel", channel, "from", from, "text", message);
+        if (chatLog != null) {
+            chatLog.appendChannel(from, channel, message);
+        }
+        long start = System.nanoTime();
+        for (ClientHandler subscriber : channels.subscribers(channel)) {
+            try {
+                subscriber.send(frame);
+            } catch (Exception ex) {
+                log.error("channel_send_failed", "channel", channel, "member", subscriber.getClientId(), "error", ex.getMessage());
+            }
+        }
+        metrics.recordFanOut(System.nanoTime() - start);
     }
 
     // Formats and sends the member details into the requesting client's chat
     public void sendMemberDetails(String requestingClient) {
+        Membership current = membership.get();
         StringBuilder details = new StringBuilder();
         boolean first = true;
-        for (Map.Entry<String, ClientHandler> entry : clients.entrySet()) {
+        for (Map.Entry<String, ClientHandler> entry : current.members().entrySet()) {
             if (!first) {
                 details.append(",");
             }
@@ -208,48 +616,123 @@ public class Server {
             String memberName = entry.getKey();
             details.append(String.format("%s%s:%s:%d",
                     memberName,
-                    memberName.equals(currentCoordinator) ? " (Coordinator)" : "",
+                    memberName.equals(current.coordinator()) ? " (Coordinator)" : "",
                     socket.getInetAddress().getHostAddress(),
                     socket.getPort()));
             first = false;
         }
-        ClientHandler requester = clients.get(requestingClient);
+        ClientHandler requester = current.members().get(requestingClient);
         if (requester != null && !details.isEmpty()) {
             requester.sendMessage("MEMBER_DETAILS:" + details);
         }
     }
 
+    // Sends the coordinator the /stats report, one STATS: line per group of metrics
+    public void sendStats(ClientHandler handler) {
+        if (!isClientCoordinator(handler.getClientId())) {
+            handler.sendMessage("STATS_ERROR:Only the coordinator can view server statistics");
+            return;
+        }
+        for (String line : metrics.report()) {
+            handler.sendMessage("STATS:" + line);
+        }
+    }
+
     public String getMemberList() {
-        return String.join(",", clients.keySet());
+        return membership.get().memberList();
     }
 
     public String getInactiveMemberList() {
-        StringBuilder builder = new StringBuilder();
-        boolean first = true;
-        List<String> sortedMembers = new ArrayList<>(inactiveMembers);
-        Collections.sort(sortedMembers);
-        for (String member : sortedMembers) {
-            if (clients.containsKey(member)) continue;
-            if (member != null && !member.isEmpty()) {
-                if (!first) {
-                    builder.append(",");
-                } else {
-                    first = false;
-                }
-                builder.append(member);
-            }
-        }
-        return builder.toString();
+        return inactiveMembers.getList();
+    }
+
+    int getInactiveMemberCount() {
+        return inactiveMembers.size();
+    }
+
+    // This node's own connected members, not those of other cluster nodes
+    Map<String, ClientHandler> getLocalMembers() {
+        return membership.get().members();
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Nanoseconds a busy connection's writer holds off so more output can share its next write
+    long getCoalesceWindowNanos() {
+        return config.getCoalesceWindowMicros() * 1000L;
+    }
+
+    // Each connection gets its own bounded queue, configured from the server's slow consumer settings
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(config.getOutboundQueueCapacity(), config.getSlowConsumerPolicy(),
+                slowConsumerEvents.get(config.getSlowConsumerPolicy()));
+    }
+
+    // Pool that runs client readers and the background writers draining their outbound queues
+    Executor getClientExecutor() {
+        return clientThreadPool;
+    }
+
+    // Null when compression is switched off; otherwise also holds the compression statistics
+    public FrameCompressor getCompressor() {
+        return compressor;
+    }
+
+    // Null when no --log-dir was given
+    public ChatLog getChatLog() {
+        return chatLog;
+    }
+
+    public long getSlowConsumerEvents(ServerConfig.SlowConsumerPolicy policy) {
+        return slowConsumerEvents.get(policy).sum();
+    }
+
+    TimingWheel getTimers() {
+        return timers;
+    }
+
+    // 0 when heartbeats are off
+    long getHeartbeatIntervalNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatIntervalMillis());
+    }
+
+    long getHeartbeatTimeoutNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatTimeoutMillis());
+    }
+
+    void recordHeartbeatEviction() {
+        heartbeatEvictions.increment();
+    }
+
+    // Clients disconnected because they stopped answering PING
+    public long getHeartbeatEvictions() {
+        return heartbeatEvictions.sum();
+    }
+
+    // Each connection gets its own buckets, filled to the configured burst
+    RateLimiter newRateLimiter() {
+        return new RateLimiter(config, System.nanoTime());
+    }
+
+    void recordRateLimited(ServerConfig.CommandClass commandClass) {
+        rateLimitedEvents.get(commandClass).increment();
+    }
+
+    // Commands of the class refused across all clients since the server started
+    public long getRateLimitedEvents(ServerConfig.CommandClass commandClass) {
+        return rateLimitedEvents.get(commandClass).sum();
     }
 
     public boolean isClientCoordinator(String clientId) {
-        return clientId != null && clientId.equals(currentCoordinator);
+        return clientId != null && clientId.equals(membership.get().coordinator());
     }
 
-    public synchronized void shutdown() {
-        if (!isRunning) return;
-        isRunning = false;
+    public void shutdown() {
+        if (!shutdownStarted.compareAndSet(false, true)) return;
         try {
+            isRunning = false;
             broadcastMessage("SERVER_SHUT_DOWN");
             try {
                 Thread.sleep(200);
@@ -257,43 +740,70 @@ public class Server {
                 // Sets the interrupt flag, so other parts of the code know that an interrupt was requested
                 Thread.currentThread().interrupt();
             }
-            for (ClientHandler client : new ArrayList<>(clients.values())) {
+            for (ClientHandler client : membership.get().members().values()) {
                 try {
                     client.closeConnection();
                 } catch (Exception ex) {
-                    System.err.println("Error closing client connection: " + ex.getMessage());
+                    log.error("close_failed", "member", client.getClientId(), "error", ex.getMessage());
                 }
             }
-            clients.clear(); // Removes all clients
+            membership.set(Membership.EMPTY); // Removes all clients
             clientThreadPool.shutdownNow();
             cancelShutdownCountdown();
+            timers.stop();
+            metrics.stop();
+            if (nioEngine != null) {
+                nioEngine.shutdown();
+            }
+            if (federation != null) {
+                federation.shutdown();
+            }
+            if (chatLog != null) {
+                chatLog.close();
+            }
             if (!serverSocket.isClosed()) {
                 serverSocket.close();
             }
-            System.out.println("Server shutdown complete");
-            // Exits the program unless in test mode or shutdown is triggered by a designated shutdown thread
-            if (!testMode && !(Thread.currentThread().getName().contains("Shutdown") ||
-                    Thread.currentThread().getName().equals("ShutdownThread"))) {
+            if (compressor != null && compressor.getFramesCompressed() + compressor.getFramesSkipped() > 0) {
+                log.info("compression_stats", "frames", compressor.getFramesCompressed(),
+                        "skipped", compressor.getFramesSkipped(), "ratio", String.format("%.2f", compressor.getRatio()));
+            }
+            log.info("server_stopped");
+            log.close();
+            // Exits the program unless in test mode or shutdown is triggered by a designated shutdown thread, such as the
+            // inactivity countdown's, after which main sees the server has stopped and returns
+            if (!testMode && !Thread.currentThread().getName().contains("Shutdown")) {
                 System.exit(0);
             }
         } catch (IOException ex) {
-            System.err.println("Error during server shutdown: " + ex.getMessage());
+            log.error("shutdown_failed", "error", ex.getMessage());
+            log.close();
         }
     }
 
+    EventLog getLog() {
+        return log;
+    }
+
+    // Null unless this server was started as a node of a cluster
+    public Federation getFederation() {
+        return federation;
+    }
+
     public boolean isRunning() {
         return isRunning && !serverSocket.isClosed();
     }
     // To run the server independently (hosting the server)
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java Server <port>");
+        if (args.length < 1) {
+            System.out.println("Usage: java Server <port> [options], see README.md for the available options");
             System.exit(1);
         }
         try {
             int port = Integer.parseInt(args[0]);
+            ServerConfig config = ServerConfig.fromArgs(args, 1);
             System.out.println("Starting server on port " + port);
-            Server server = new Server(port);
+            Server server = new Server(port, config);
 
             while (server.isRunning()) {
                 try { // Constant ping to check if the server is running every 1 second and error handling if connection lost
@@ -307,6 +817,9 @@ public class Server {
         } catch (NumberFormatException e) {
             System.err.println("Invalid port number format");
             System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid option: " + e.getMessage());
+            System.exit(1);
         } catch (Exception ex) {
             System.err.println("Server error: " + ex.getMessage());
             System.exit(1);
@@ -0,0 +1,452 @@
+import java.util.*;
+
+// Startup options for the server, parsed from the optional command line flags after the port
+public class ServerConfig {
+    // How client connections are serviced
+    public enum IoMode {
+        THREADED, // One pooled platform thread per client blocking in readLine (original behaviour)
+        VIRTUAL,  // Same blocking handlers, but each one runs on its own virtual thread
+        NIO       // A few selector event loops, each owning a share of the connections
+    }
+
+    // What a connection's outbound queue does when it is full because the client is not reading fast enough
+    public enum SlowConsumerPolicy {
+        DROP_OLDEST, // Discard the oldest queued message to make room
+        DROP_NEWEST, // Discard the message being sent
+        DISCONNECT   // Close the connection
+    }
+
+    // Groups of client commands that share a rate limit
+    public enum CommandClass {
+        CHAT,       // Broadcasts, private and channel messages, each fanned out to other clients
+        MEMBERSHIP, // Member list requests and channel joins and leaves
+        DETAILS     // /request_details, which formats a dump of every member
+    }
+
+    private IoMode ioMode = IoMode.THREADED;
+    private int eventLoopThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int outboundQueueCapacity = 1024;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+    private int inactiveMemberLimit = 1000;
+    private long inactiveMemberTtlMillis = 24 * 60 * 60 * 1000L;
+    private long coalesceWindowMicros = 200;
+    private int historySize = 200;
+    private int historyReplay = 50;
+    private String logDir = null;
+    private int logSegmentBytes = 64 * 1024 * 1024;
+    private ChatLog.FsyncPolicy logFsyncPolicy = ChatLog.FsyncPolicy.INTERVAL;
+    private long logFsyncIntervalMillis = 1000;
+    private ChatLog.OverflowPolicy logOverflowPolicy = ChatLog.OverflowPolicy.SPILL;
+    private String eventLogFile = null;
+    private int eventLogBufferSize = 8192;
+    private boolean compressionEnabled = true;
+    private int compressionThreshold = 512;
+    // Commands per second each client may send, and how many it may send at once after being quiet; 0 is unlimited
+    private final Map<CommandClass, Double> rateLimits = new EnumMap<>(Map.of(
+            CommandClass.CHAT, 20.0, CommandClass.MEMBERSHIP, 5.0, CommandClass.DETAILS, 0.5));
+    private final Map<CommandClass, Integer> rateBursts = new EnumMap<>(Map.of(
+            CommandClass.CHAT, 40, CommandClass.MEMBERSHIP, 10, CommandClass.DETAILS, 3));
+    private long heartbeatIntervalMillis = 30_000;
+    private long heartbeatTimeoutMillis = 10_000;
+    private int peerPort = -1;
+    private String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private List<String> peers = List.of();
+    private int peerQueueCapacity = 8192;
+    private String peerBindAddress; // null listens on every interface
+    private String peerSecret;
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public ServerConfig setIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public ServerConfig setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("Event loop thread count must be at least 1");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+        return this;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public ServerConfig setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be at least 1");
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+        return this;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public ServerConfig setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    public int getInactiveMemberLimit() {
+        return inactiveMemberLimit;
+    }
+
+    public ServerConfig setInactiveMemberLimit(int inactiveMemberLimit) {
+        if (inactiveMemberLimit < 0) {
+            throw new IllegalArgumentException("Inactive member limit cannot be negative");
+        }
+        this.inactiveMemberLimit = inactiveMemberLimit;
+        return this;
+    }
+
+    public long getInactiveMemberTtlMillis() {
+        return inactiveMemberTtlMillis;
+    }
+
+    public ServerConfig setInactiveMemberTtlMillis(long inactiveMemberTtlMillis) {
+        if (inactiveMemberTtlMillis <= 0) {
+            throw new IllegalArgumentException("Inactive member time to live must be positive");
+        }
+        this.inactiveMemberTtlMillis = inactiveMemberTtlMillis;
+        return this;
+    }
+
+    public long getCoalesceWindowMicros() {
+        return coalesceWindowMicros;
+    }
+
+    // How long a busy connection's writer waits for more output to join a flush; 0 flushes as soon as anything is queued
+    public ServerConfig setCoalesceWindowMicros(long coalesceWindowMicros) {
+        if (coalesceWindowMicros < 0) {
+            throw new IllegalArgumentException("Coalescing window cannot be negative");
+        }
+        this.coalesceWindowMicros = coalesceWindowMicros;
+        return this;
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    // How many recent broadcasts the server keeps for replay, 0 keeps none
+    public ServerConfig setHistorySize(int historySize) {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("History size cannot be negative");
+        }
+        this.historySize = historySize;
+        return this;
+    }
+
+    public int getHistoryReplay() {
+        return historyReplay;
+    }
+
+    // How many of the kept broadcasts a member receives when joining
+    public ServerConfig setHistoryReplay(int historyReplay) {
+        if (historyReplay < 0) {
+            throw new IllegalArgumentException("History replay window cannot be negative");
+        }
+        this.historyReplay = historyReplay;
+        return this;
+    }
+
+    public String getLogDir() {
+        return logDir;
+    }
+
+    // Directory of the durable chat log; null (the default) keeps no log
+    public ServerConfig setLogDir(String logDir) {
+        this.logDir = logDir;
+        return this;
+    }
+
+    public ChatLog.OverflowPolicy getLogOverflowPolicy() {
+        return logOverflowPolicy;
+    }
+
+    // What the chat log does with records that arrive while its writer is a full queue behind
+    public ServerConfig setLogOverflowPolicy(ChatLog.OverflowPolicy logOverflowPolicy) {
+        this.logOverflowPolicy = logOverflowPolicy;
+        return this;
+    }
+
+    public int getLogSegmentBytes() {
+        return logSegmentBytes;
+    }
+
+    public ServerConfig setLogSegmentBytes(int logSegmentBytes) {
+        if (logSegmentBytes < 64 * 1024) {
+            throw new IllegalArgumentException("Log segment size must be at least 64 KB");
+        }
+        this.logSegmentBytes = logSegmentBytes;
+        return this;
+    }
+
+    public ChatLog.FsyncPolicy getLogFsyncPolicy() {
+        return logFsyncPolicy;
+    }
+
+    public ServerConfig setLogFsyncPolicy(ChatLog.FsyncPolicy logFsyncPolicy) {
+        this.logFsyncPolicy = logFsyncPolicy;
+        return this;
+    }
+
+    public long getLogFsyncIntervalMillis() {
+        return logFsyncIntervalMillis;
+    }
+
+    // How often the interval fsync policy forces the log to disk
+    public ServerConfig setLogFsyncIntervalMillis(long logFsyncIntervalMillis) {
+        if (logFsyncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Log fsync interval must be positive");
+        }
+        this.logFsyncIntervalMillis = logFsyncIntervalMillis;
+        return this;
+    }
+
+    public String getEventLogFile() {
+        return eventLogFile;
+    }
+
+    // File the server's own event log is appended to; null (the default) writes it to the console
+    public ServerConfig setEventLogFile(String eventLogFile) {
+        this.eventLogFile = eventLogFile;
+        return this;
+    }
+
+    public int getEventLogBufferSize() {
+        return eventLogBufferSize;
+    }
+
+    // Events the log can hold before the writer thread catches up, rounded up to a power of two
+    public ServerConfig setEventLogBufferSize(int eventLogBufferSize) {
+        if (eventLogBufferSize < 16 || eventLogBufferSize > 1 << 24) {
+            throw new IllegalArgumentException("Event log buffer must hold between 16 and 2^24 events");
+        }
+        this.eventLogBufferSize = eventLogBufferSize;
+        return this;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    // Whether binary clients that ask for deflate at connect get it
+    public ServerConfig setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        return this;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    // Smallest payload worth compressing, in bytes
+    public ServerConfig setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("Compression threshold cannot be negative");
+        }
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public double getRateLimit(CommandClass commandClass) {
+        return rateLimits.get(commandClass);
+    }
+
+    public int getRateBurst(CommandClass commandClass) {
+        return rateBursts.get(commandClass);
+    }
+
+    // Token bucket for one class of commands: refills at perSecond and holds up to burst. A perSecond of 0 turns it off
+    public ServerConfig setRateLimit(CommandClass commandClass, double perSecond, int burst) {
+        if (perSecond < 0 || Double.isNaN(perSecond) || Double.isInfinite(perSecond)) {
+            throw new IllegalArgumentException("Rate limit must be a non-negative number of commands per second");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Rate limit burst must be at least 1");
+        }
+        rateLimits.put(commandClass, perSecond);
+        rateBursts.put(commandClass, burst);
+        return this;
+    }
+
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    // How long a client may stay quiet before it is sent PING, 0 to never check
+    public ServerConfig setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        if (heartbeatIntervalMillis < 0) {
+            throw new IllegalArgumentException("Heartbeat interval cannot be negative");
+        }
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        return this;
+    }
+
+    public long getHeartbeatTimeoutMillis() {
+        return heartbeatTimeoutMillis;
+    }
+
+    // How long after PING a client that has sent nothing is disconnected
+    public ServerConfig setHeartbeatTimeoutMillis(long heartbeatTimeoutMillis) {
+        if (heartbeatTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Heartbeat timeout must be positive");
+        }
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        return this;
+    }
+
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    // Port this server listens on for links from the other nodes of a cluster; -1 (the default) runs it standalone
+    public ServerConfig setPeerPort(int peerPort) {
+        if (peerPort < -1 || peerPort > 65535) {
+            throw new IllegalArgumentException("Peer port must be between 0 and 65535, or -1 to disable federation");
+        }
+        this.peerPort = peerPort;
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    // Must be unique within the cluster; a random id is used if none is given
+    public ServerConfig setNodeId(String nodeId) {
+        if (nodeId == null || nodeId.isBlank() || nodeId.contains("\n")) {
+            throw new IllegalArgumentException("Node id must be a non-empty single line");
+        }
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    // host:port peer addresses of the other nodes for this one to dial
+    public ServerConfig setPeers(List<String> peers) {
+        for (String peer : peers) {
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0 || colon == peer.length() - 1) {
+                throw new IllegalArgumentException("Peer address must be host:port: " + peer);
+            }
+            Integer.parseInt(peer.substring(colon + 1));
+        }
+        this.peers = List.copyOf(peers);
+        return this;
+    }
+
+    public int getPeerQueueCapacity() {
+        return peerQueueCapacity;
+    }
+
+    // Frames queued for one peer node before its link is dropped as stalled
+    public ServerConfig setPeerQueueCapacity(int peerQueueCapacity) {
+        if (peerQueueCapacity < 1) {
+            throw new IllegalArgumentException("Peer queue capacity must be at least 1");
+        }
+        this.peerQueueCapacity = peerQueueCapacity;
+        return this;
+    }
+
+    public String getPeerBindAddress() {
+        return peerBindAddress;
+    }
+
+    // Address the peer port listens on, null (the default) for every interface
+    public ServerConfig setPeerBindAddress(String peerBindAddress) {
+        this.peerBindAddress = peerBindAddress == null || peerBindAddress.isEmpty() ? null : peerBindAddress;
+        return this;
+    }
+
+    public String getPeerSecret() {
+        return peerSecret;
+    }
+
+    // Shared by every node of a cluster; a node only links to peers that prove they know it. Required with a peer port
+    public ServerConfig setPeerSecret(String peerSecret) {
+        if (peerSecret != null && peerSecret.isEmpty()) {
+            throw new IllegalArgumentException("Peer secret cannot be empty");
+        }
+        this.peerSecret = peerSecret;
+        return this;
+    }
+
+    // Parses flags in the form --name=value, e.g. --io=nio --event-loops=4 --slow-consumer=disconnect
+    public static ServerConfig fromArgs(String[] args, int offset) {
+        ServerConfig config = new ServerConfig();
+        for (int i = offset; i < args.length; i++) {
+            String arg = args[i];
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Unrecognised option: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "io" -> config.setIoMode(IoMode.valueOf(enumName(value)));
+                case "event-loops" -> config.setEventLoopThreads(Integer.parseInt(value));
+                case "queue-capacity" -> config.setOutboundQueueCapacity(Integer.parseInt(value));
+                case "slow-consumer" -> config.setSlowConsumerPolicy(SlowConsumerPolicy.valueOf(enumName(value)));
+                case "inactive-limit" -> config.setInactiveMemberLimit(Integer.parseInt(value));
+                case "inactive-ttl-minutes" -> config.setInactiveMemberTtlMillis(Long.parseLong(value) * 60 * 1000L);
+                case "coalesce-micros" -> config.setCoalesceWindowMicros(Long.parseLong(value));
+                case "history-size" -> config.setHistorySize(Integer.parseInt(value));
+                case "history-replay" -> config.setHistoryReplay(Integer.parseInt(value));
+                case "log-dir" -> config.setLogDir(value);
+                case "log-segment-mb" -> config.setLogSegmentBytes(Math.toIntExact(Long.parseLong(value) * 1024 * 1024));
+                case "log-fsync" -> config.setLogFsyncPolicy(ChatLog.FsyncPolicy.valueOf(enumName(value)));
+                case "log-fsync-interval-ms" -> config.setLogFsyncIntervalMillis(Long.parseLong(value));
+                case "log-overflow" -> config.setLogOverflowPolicy(ChatLog.OverflowPolicy.valueOf(enumName(value)));
+                case "event-log" -> config.setEventLogFile(value);
+                case "event-log-buffer" -> config.setEventLogBufferSize(Integer.parseInt(value));
+                case "compression" -> config.setCompressionEnabled(switch (value) {
+                    case "deflate", "on" -> true;
+                    case "off" -> false;
+                    default -> throw new IllegalArgumentException("Compression must be deflate or off: " + value);
+                });
+                case "compress-threshold" -> config.setCompressionThreshold(Integer.parseInt(value));
+                case "rate-chat" -> config.setRateLimit(CommandClass.CHAT, value);
+                case "rate-members" -> config.setRateLimit(CommandClass.MEMBERSHIP, value);
+                case "rate-details" -> config.setRateLimit(CommandClass.DETAILS, value);
+                case "heartbeat-seconds" -> config.setHeartbeatIntervalMillis(Long.parseLong(value) * 1000);
+                case "heartbeat-timeout-seconds" -> config.setHeartbeatTimeoutMillis(Long.parseLong(value) * 1000);
+                case "peer-port" -> config.setPeerPort(Integer.parseInt(value));
+                case "node-id" -> config.setNodeId(value);
+                case "peers" -> config.setPeers(value.isEmpty() ? List.of() : List.of(value.split(",")));
+                case "peer-queue-capacity" -> config.setPeerQueueCapacity(Integer.parseInt(value));
+                case "peer-bind" -> config.setPeerBindAddress(value);
+                case "peer-secret" -> config.setPeerSecret(value);
+                default -> throw new IllegalArgumentException("Unrecognised option: " + arg);
+            }
+        }
+        return config;
+    }
+
+    // <per-second>[/<burst>], the burst defaulting to twice the rate
+    private void setRateLimit(CommandClass commandClass, String value) {
+        int slash = value.indexOf('/');
+        double perSecond = Double.parseDouble(slash < 0 ? value : value.substring(0, slash));
+        int burst = slash < 0 ? (int) Math.max(1, Math.ceil(perSecond * 2)) : Integer.parseInt(value.substring(slash + 1));
+        setRateLimit(commandClass, perSecond, burst);
+    }
+
+    // Accepts the lower case, dash separated spelling used on the command line, e.g. drop-oldest
+    private static String enumName(String value) {
+        return value.toUpperCase().replace('-', '_');
+    }
+}
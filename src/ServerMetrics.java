@@ -0,0 +1,290 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// The server's metrics registry. Recording happens on the hot paths and only ever adds to a LongAdder or a
+// LatencyHistogram bucket, so it never locks and is cheap enough to leave on. Gauges such as member counts and queue
+// depths are read from the server when asked for. Published over JMX and, as text, to the coordinator's /stats
+public class ServerMetrics implements ServerMetricsMXBean {
+    // Commands as counted, whichever protocol they arrived in; both forms of /get_members count as GET_MEMBERS
+    public enum Command {
+        QUIT, BROADCAST, PRIVATE, GET_MEMBERS, REQUEST_DETAILS, SERVER_SHUTDOWN, JOIN, LEAVE, CHANNEL, PONG, STATS
+    }
+
+    private static final int RATE_WINDOW_SECONDS = 60;
+    private static final int DEEPEST_QUEUES_REPORTED = 5;
+
+    private final Server server;
+    private final long startNanos = System.nanoTime();
+    private final Map<Command, LongAdder> commands = new EnumMap<>(Command.class);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private final LatencyHistogram delivery = new LatencyHistogram();
+    // Accept rate: the accepted count sampled once a second on the server's timing wheel, which alone touches samples
+    private final long[] acceptSamples = new long[RATE_WINDOW_SECONDS + 1];
+    private int sampleCount;
+    private volatile double acceptRate;
+    private ObjectName registeredName;
+
+    public ServerMetrics(Server server) {
+        this.server = server;
+        for (Command command : Command.values()) {
+            commands.put(command, new LongAdder());
+        }
+    }
+
+    // Starts the accept rate sampling and registers the MBean; a JMX failure is reported and otherwise ignored
+    void start(int port) {
+        sampleAccepts();
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("FreeChat:type=Server,port=" + port);
+            beans.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException ex) {
+            server.getLog().warn("jmx_register_failed", "error", ex.getMessage());
+        }
+    }
+
+    void stop() {
+        if (registeredName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ex) {
+            server.getLog().warn("jmx_unregister_failed", "error", ex.getMessage());
+        }
+        registeredName = null;
+    }
+
+    private void sampleAccepts() {
+        long count = accepted.sum();
+        acceptSamples[sampleCount % acceptSamples.length] = count;
+        int span = Math.min(sampleCount, RATE_WINDOW_SECONDS);
+        if (span > 0) {
+            acceptRate = (double) (count - acceptSamples[(sampleCount - span) % acceptSamples.length]) / span;
+        }
+        sampleCount++;
+        server.getTimers().schedule(this::sampleAccepts, 1, TimeUnit.SECONDS);
+    }
+
+    public void recordCommand(Command command) {
+        commands.get(command).increment();
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void recordAccept() {
+        accepted.increment();
+    }
+
+    public void recordFanOut(long nanos) {
+        fanOut.record(nanos);
+    }
+
+    public void recordDelivery(long nanos) {
+        delivery.record(nanos);
+    }
+
+    public long getCommandCount(Command command) {
+        return commands.get(command).sum();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Command, LongAdder> entry : commands.entrySet()) {
+            counts.put(entry.getKey().name().toLowerCase(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public int getActiveMembers() {
+        return server.getLocalMembers().size();
+    }
+
+    @Override
+    public int getInactiveMembers() {
+        return server.getInactiveMemberCount();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+
+    @Override
+    public double getAcceptRatePerSecond() {
+        return acceptRate;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        for (Map.Entry<String, ClientHandler> entry : server.getLocalMembers().entrySet()) {
+            depths.put(entry.getKey(), entry.getValue().getOutboundDepth());
+        }
+        return depths;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ClientHandler handler : server.getLocalMembers().values()) {
+            max = Math.max(max, handler.getOutboundDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getQueuedFrames() {
+        long total = 0;
+        for (ClientHandler handler : server.getLocalMembers().values()) {
+            total += handler.getOutboundDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFanOutLatency() {
+        return fanOut.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDeliveryLatency() {
+        return delivery.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getRateLimitedCommands() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (ServerConfig.CommandClass commandClass : ServerConfig.CommandClass.values()) {
+            counts.put(commandClass.name().toLowerCase(), server.getRateLimitedEvents(commandClass));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getSlowConsumerEvents() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (ServerConfig.SlowConsumerPolicy policy : ServerConfig.SlowConsumerPolicy.values()) {
+            counts.put(policy.name().toLowerCase(), server.getSlowConsumerEvents(policy));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getHeartbeatEvictions() {
+        return server.getHeartbeatEvictions();
+    }
+
+    @Override
+    public long getFramesCompressed() {
+        FrameCompressor compressor = server.getCompressor();
+        return compressor == null ? 0 : compressor.getFramesCompressed();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        FrameCompressor compressor = server.getCompressor();
+        return compressor == null ? 0 : compressor.getRatio();
+    }
+
+    @Override
+    public long getLogEventsDropped() {
+        return server.getLog().getDropped();
+    }
+
+    @Override
+    public long getLogEventsSampled() {
+        return server.getLog().getSampled();
+    }
+
+    @Override
+    public long getChatLogSpilled() {
+        ChatLog chatLog = server.getChatLog();
+        return chatLog == null ? 0 : chatLog.getSpilled();
+    }
+
+    @Override
+    public long getChatLogDropped() {
+        ChatLog chatLog = server.getChatLog();
+        return chatLog == null ? 0 : chatLog.getDropped();
+    }
+
+    @Override
+    public void resetLatencies() {
+        fanOut.reset();
+        delivery.reset();
+    }
+
+    // The /stats reply, one line per group; queue depths are limited to the deepest few so the reply stays short
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add("uptime " + getUptimeSeconds() + "s");
+        lines.add("members " + getActiveMembers() + " active, " + getInactiveMembers() + " inactive");
+        lines.add(String.format("connections %d accepted, %.2f/s over the last minute", getAcceptedConnections(), acceptRate));
+        lines.add("bytes " + getBytesIn() + " in, " + getBytesOut() + " out");
+        lines.add("commands " + formatCounts(getCommandCounts()));
+        lines.add("fan-out " + getFanOutLatency());
+        lines.add("delivery " + getDeliveryLatency());
+        lines.add("queues " + getQueuedFrames() + " frames queued, deepest " + deepestQueues());
+        lines.add("rate-limited " + formatCounts(getRateLimitedCommands()));
+        lines.add("slow-consumers " + formatCounts(getSlowConsumerEvents()));
+        lines.add("heartbeat-evictions " + getHeartbeatEvictions());
+        lines.add("log-events-lost dropped=" + getLogEventsDropped() + " sampled=" + getLogEventsSampled());
+        if (server.getChatLog() != null) {
+            lines.add("chat-log-overflow spilled=" + getChatLogSpilled() + " dropped=" + getChatLogDropped());
+        }
+        FrameCompressor compressor = server.getCompressor();
+        if (compressor != null) {
+            lines.add("compression " + compressor);
+        }
+        return lines;
+    }
+
+    private String deepestQueues() {
+        List<Map.Entry<String, Integer>> depths = new ArrayList<>(getQueueDepths().entrySet());
+        depths.removeIf(entry -> entry.getValue() == 0);
+        if (depths.isEmpty()) return "none";
+        depths.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        StringJoiner joiner = new StringJoiner(" ");
+        for (Map.Entry<String, Integer> entry : depths.subList(0, Math.min(DEEPEST_QUEUES_REPORTED, depths.size()))) {
+            joiner.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return joiner.toString();
+    }
+
+    private static String formatCounts(Map<String, Long> counts) {
+        StringJoiner joiner = new StringJoiner(" ");
+        counts.forEach((name, count) -> joiner.add(name + "=" + count));
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Map;
+
+// Management view of a running server, registered as FreeChat:type=Server,port=<port>. An MXBean, so jconsole and any
+// other JMX client can read every attribute without FreeChat's classes on its classpath
+public interface ServerMetricsMXBean {
+    long getUptimeSeconds();
+
+    // Commands received per kind, including any then refused by a rate limit
+    Map<String, Long> getCommandCounts();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    int getActiveMembers();
+
+    int getInactiveMembers();
+
+    long getAcceptedConnections();
+
+    // Averaged over the last minute
+    double getAcceptRatePerSecond();
+
+    // Frames waiting in each member's outbound queue
+    Map<String, Integer> getQueueDepths();
+
+    int getMaxQueueDepth();
+
+    long getQueuedFrames();
+
+    // Time to hand one frame to every recipient's queue
+    LatencyHistogram.Snapshot getFanOutLatency();
+
+    // Time from a chat message arriving to it being queued for its last recipient
+    LatencyHistogram.Snapshot getDeliveryLatency();
+
+    Map<String, Long> getRateLimitedCommands();
+
+    Map<String, Long> getSlowConsumerEvents();
+
+    long getHeartbeatEvictions();
+
+    long getFramesCompressed();
+
+    double getCompressionRatio();
+
+    // Event log lines lost because its writer fell behind: dropped outright, or skipped by sampling
+    long getLogEventsDropped();
+
+    long getLogEventsSampled();
+
+    // Chat log records that arrived while its writer was a full queue behind the senders: spilled to its overflow list
+    // and written later, or dropped under the opt-in drop policy
+    long getChatLogSpilled();
+
+    long getChatLogDropped();
+
+    // Starts both latency histograms afresh, e.g. before a load test
+    void resetLatencies();
+}
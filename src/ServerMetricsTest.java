@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ServerMetricsTest {
+    private Server server;
+    private int port;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Server.testMode = true;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new Server(port);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (server != null && server.isRunning()) {
+            server.shutdown();
+        }
+    }
+
+    private static String readUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        fail("Connection closed before receiving " + prefix);
+        return null;
+    }
+
+    private Socket connect(String clientId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        new PrintWriter(socket.getOutputStream(), true).println("/connect:" + clientId);
+        return socket;
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        System.out.println("Running testHistogramPercentiles: Percentiles come out within the histogram's 3% resolution.");
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5), "An empty histogram reports 0");
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(10_000, histogram.count());
+        assertEquals(5_000_000, histogram.percentile(0.5), 5_000_000 * 0.035);
+        assertEquals(9_900_000, histogram.percentile(0.99), 9_900_000 * 0.035);
+        assertTrue(histogram.percentile(0.99) <= 9_900_000, "Percentiles are never overstated");
+        assertEquals(10_000_000, histogram.max());
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        System.out.println("testHistogramPercentiles passed.");
+    }
+
+    @Test
+    public void testStatsOnlyForCoordinator() throws Exception {
+        System.out.println("Running testStatsOnlyForCoordinator: /stats reports the counters to the coordinator and refuses anyone else.");
+        try (Socket alice = connect("Alice")) {
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            readUntil(aliceIn, "COORDINATOR_STATUS:"); // Alice is coordinator before Bob connects
+            try (Socket bob = connect("Bob")) {
+                BufferedReader bobIn = new BufferedReader(new InputStreamReader(bob.getInputStream()));
+                readUntil(bobIn, "COORDINATOR_INFO:");
+                PrintWriter aliceOut = new PrintWriter(alice.getOutputStream(), true);
+                aliceOut.println("/broadcastHello");
+                readUntil(bobIn, "/broadcastAlice:Hello");
+
+                new PrintWriter(bob.getOutputStream(), true).println("/stats");
+                assertEquals("STATS_ERROR:Only the coordinator can view server statistics", readUntil(bobIn, "STATS"));
+
+                aliceOut.println("/stats");
+                List<String> report = new ArrayList<>();
+                String line = readUntil(aliceIn, "STATS:");
+                while (line.startsWith("STATS:")) {
+                    report.add(line);
+                    if (line.startsWith("STATS:log-events-lost")) break; // Last line while compression is off
+                    line = aliceIn.readLine();
+                }
+                String stats = String.join("\n", report);
+                assertTrue(stats.contains("STATS:members 2 active"), stats);
+                assertTrue(stats.contains("STATS:connections 2 accepted"), stats);
+                assertTrue(stats.contains(" broadcast=1 "), stats);
+                assertTrue(stats.contains(" stats=2"), "Both requests are counted, refused or not: " + stats);
+                assertTrue(stats.contains("STATS:delivery n=1 "), stats);
+            }
+        }
+        System.out.println("testStatsOnlyForCoordinator passed.");
+    }
+
+    @Test
+    public void testPublishedOverJmx() throws Exception {
+        System.out.println("Running testPublishedOverJmx: The metrics are readable as an MXBean and removed at shutdown.");
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("FreeChat:type=Server,port=" + port);
+        try (Socket alice = connect("Alice")) {
+            BufferedReader aliceIn = new BufferedReader(new InputStreamReader(alice.getInputStream()));
+            readUntil(aliceIn, "COORDINATOR_STATUS:");
+            new PrintWriter(alice.getOutputStream(), true).println("/broadcastHello");
+            readUntil(aliceIn, "/broadcastAlice:Hello");
+
+            assertEquals(1, beans.getAttribute(name, "ActiveMembers"));
+            assertEquals(1L, beans.getAttribute(name, "AcceptedConnections"));
+            assertTrue((Long) beans.getAttribute(name, "BytesIn") > "/connect:Alice\n/broadcastHello\n".length() - 1);
+            assertTrue((Long) beans.getAttribute(name, "BytesOut") > 0);
+            TabularData commands = (TabularData) beans.getAttribute(name, "CommandCounts");
+            assertEquals(1L, commands.get(new Object[]{"broadcast"}).get("value"));
+            CompositeData fanOut = (CompositeData) beans.getAttribute(name, "FanOutLatency");
+            assertTrue((Long) fanOut.get("count") > 0, "Joining and broadcasting both fan out");
+        }
+        server.shutdown();
+        assertFalse(beans.isRegistered(name));
+        System.out.println("testPublishedOverJmx passed.");
+    }
+}
@@ -5,8 +5,13 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class ServerTest {
     private Server server;
@@ -89,6 +94,23 @@ public class ServerTest {
         System.out.println("testShutdownClosesServerSocket passed: ServerSocket is closed after shutdown.");
     }
 
+    @Test
+    public void testVirtualThreadMode() throws Exception {
+        System.out.println("Running testVirtualThreadMode: A client connects to a server running its handlers on virtual threads.");
+        int virtualPort = findAvailablePort();
+        Server virtualServer = new Server(virtualPort, new ServerConfig().setIoMode(ServerConfig.IoMode.VIRTUAL));
+        try (Socket socket = new Socket("localhost", virtualPort)) {
+            socket.setSoTimeout(5000);
+            new PrintWriter(socket.getOutputStream(), true).println("/connect:VirtualClient");
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertEquals("COORDINATOR_STATUS:You are now the coordinator", in.readLine());
+            assertEquals("VirtualClient", virtualServer.getMemberList(), "Member list should contain 'VirtualClient'");
+        } finally {
+            virtualServer.shutdown();
+        }
+        System.out.println("testVirtualThreadMode passed: Client served on a virtual thread.");
+    }
+
     // Helper method to register a test client
     private DummyClientHandler createAndRegisterClient(String clientName) throws IOException {
         DummySocket socket = new DummySocket();
@@ -109,13 +131,54 @@ public class ServerTest {
 
     private static class DummyClientHandler extends ClientHandler {
         public String lastMessage = null;
+        public final List<String> messages = new ArrayList<>();
         public DummyClientHandler(Socket socket, Server server) throws IOException {
             super(socket, server);
         }
         @Override
         public synchronized void sendMessage(String message) {
             lastMessage = message;
+            messages.add(message);
         }
+        @Override
+        public synchronized void send(OutboundFrame frame) {
+            lastMessage = frame.text();
+            messages.add(frame.text());
+        }
+    }
+    @Test
+    public void testMembershipDeltas() throws Exception {
+        System.out.println("Running testMembershipDeltas: Joins and leaves are sent as epoch numbered deltas after one snapshot.");
+        DummyClientHandler client1 = createAndRegisterClient("Client1");
+        assertTrue(client1.messages.contains("MEMBER_SNAPSHOT:1"), "The first client should get a snapshot at epoch 1");
+        assertTrue(client1.messages.contains("MEMBER_LIST:Client1"), "The snapshot should list Client1");
+
+        client1.messages.clear();
+        DummyClientHandler client2 = createAndRegisterClient("Client2");
+        assertTrue(client1.messages.contains("MEMBER_ADDED:2:Client2"), "Client1 should only get a delta for Client2");
+        assertFalse(client1.messages.stream().anyMatch(m -> m.startsWith("MEMBER_LIST:")), "No full list should be rebroadcast");
+        assertTrue(client2.messages.contains("MEMBER_SNAPSHOT:2"), "Client2 should get a snapshot at epoch 2");
+
+        client1.messages.clear();
+        server.removeClient("Client2");
+        assertTrue(client1.messages.contains("MEMBER_REMOVED:3:Client2"), "Client1 should get a removal delta");
+        assertEquals(3, server.getMembershipEpoch());
+        System.out.println("testMembershipDeltas passed.");
+    }
+    @Test
+    public void testConditionalMemberRefresh() throws Exception {
+        System.out.println("Running testConditionalMemberRefresh: A client with the current epoch gets NOT_MODIFIED instead of the lists.");
+        DummyClientHandler client1 = createAndRegisterClient("Client1");
+        long epoch = server.getMembershipEpoch();
+
+        client1.messages.clear();
+        server.sendMemberSnapshotIfChanged(client1, epoch);
+        assertEquals(List.of("NOT_MODIFIED:" + epoch), client1.messages, "An up to date client should only get NOT_MODIFIED");
+
+        client1.messages.clear();
+        server.sendMemberSnapshotIfChanged(client1, epoch - 1);
+        assertTrue(client1.messages.contains("MEMBER_SNAPSHOT:" + epoch), "A stale client should get a fresh snapshot");
+        System.out.println("testConditionalMemberRefresh passed.");
     }
     @Test
     public void testCoordinatorReassignment() throws Exception {
@@ -140,13 +203,9 @@ public class ServerTest {
         System.out.println("Running testActiveAndInactiveMembers: Testing inheritance of active/inactive member lists between coordinators and coordinator reassignment .");
 
         // Disable the shutdown countdown to keep the server running
-        Field shutdownThreadField = Server.class.getDeclaredField("shutdownThread");
-        shutdownThreadField.setAccessible(true);
-        Thread shutdownThread = (Thread) shutdownThreadField.get(server);
-        if (shutdownThread != null) {
-            shutdownThread.interrupt();
-            shutdownThreadField.set(server, null);
-        }
+        Method cancelShutdownCountdown = Server.class.getDeclaredMethod("cancelShutdownCountdown");
+        cancelShutdownCountdown.setAccessible(true);
+        cancelShutdownCountdown.invoke(server);
 
         // Step 1: Two clients join: Client1 and Client2.
         DummyClientHandler client1 = createAndRegisterClient("Client1");
@@ -180,6 +239,40 @@ public class ServerTest {
         System.out.println("testActiveAndInactiveMembers passed.");
     }
 
+    @Test
+    public void testIdleShutdownLeavesTheTimingWheel() throws Exception {
+        System.out.println("Running testIdleShutdownLeavesTheTimingWheel: The countdown's last step hands the shutdown to its own thread.");
+        Field countdownField = Server.class.getDeclaredField("shutdownCountdown");
+        countdownField.setAccessible(true);
+        Method countdownStep = Server.class.getDeclaredMethod("countdownStep", TimingWheel.Timeout.class, int.class);
+        countdownStep.setAccessible(true);
+        Object currentStep = countdownField.get(server);
+        assertNotNull(currentStep, "The countdown starts with the server");
+
+        // Runs the final step on the wheel, as its timeout would
+        long[] stepNanos = {-1};
+        CountDownLatch stepped = new CountDownLatch(1);
+        server.getTimers().schedule(() -> {
+            long start = System.nanoTime();
+            try {
+                countdownStep.invoke(server, currentStep, 0);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            stepNanos[0] = System.nanoTime() - start;
+            stepped.countDown();
+        }, 0, TimeUnit.MILLISECONDS);
+        assertTrue(stepped.await(5, TimeUnit.SECONDS), "The final step should run");
+        assertTrue(stepNanos[0] < 100_000_000L, "The wheel task should not wait for the shutdown, took " + stepNanos[0] / 1_000_000 + " ms");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(server.isRunning(), "The server should still shut down");
+        System.out.println("testIdleShutdownLeavesTheTimingWheel passed.");
+    }
+
 
 
 }
@@ -0,0 +1,139 @@
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// A list model kept sorted and free of duplicates, changed in place: add and remove find their index by binary search
+// and fire a one-row event, and setAll merges a full list into the current one, firing one event per run of rows that
+// actually changed. A membership refresh that changes nothing therefore repaints nothing. Like DefaultComboBoxModel it
+// also holds a selection, so it can back a JComboBox; a JList ignores it. Only used on the EDT
+public class SortedListModel<E> extends AbstractListModel<E> implements ComboBoxModel<E> {
+    private final List<E> items = new ArrayList<>();
+    private final Comparator<? super E> order; // Must be consistent with equals
+    private Object selected;
+
+    public SortedListModel(Comparator<? super E> order) {
+        this.order = order;
+    }
+
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+
+    @Override
+    public E getElementAt(int index) {
+        return items.get(index);
+    }
+
+    // The element's index, or a negative value if it is not in the list
+    @SuppressWarnings("unchecked")
+    public int indexOf(Object element) {
+        try {
+            return Collections.binarySearch(items, (E) element, order);
+        } catch (ClassCastException e) {
+            return -1;
+        }
+    }
+
+    public boolean contains(Object element) {
+        return indexOf(element) >= 0;
+    }
+
+    public boolean add(E element) {
+        int index = indexOf(element);
+        if (index >= 0) return false;
+        index = -index - 1;
+        items.add(index, element);
+        fireIntervalAdded(this, index, index);
+        if (selected == null) {
+            setSelectedItem(element);
+        }
+        return true;
+    }
+
+    public boolean remove(Object element) {
+        int index = indexOf(element);
+        if (index < 0) return false;
+        if (element.equals(selected)) {
+            // As DefaultComboBoxModel does, the selection moves before the element goes
+            setSelectedItem(items.size() == 1 ? null : items.get(index == 0 ? 1 : 0));
+        }
+        items.remove(index);
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+
+    // Makes the list hold exactly these elements, keeping the rows already there and the selection if it survives
+    public void setAll(Collection<? extends E> elements) {
+        List<E> target = new ArrayList<>(elements.size());
+        List<E> sorted = new ArrayList<>(elements);
+        sorted.sort(order);
+        for (E element : sorted) {
+            if (target.isEmpty() || order.compare(target.get(target.size() - 1), element) != 0) {
+                target.add(element);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while (i < items.size() || j < target.size()) {
+            int compared = i == items.size() ? 1 : j == target.size() ? -1 : order.compare(items.get(i), target.get(j));
+            if (compared == 0) {
+                i++;
+                j++;
+            } else if (compared < 0) {
+                // A run of current rows that are no longer wanted
+                int end = i + 1;
+                while (end < items.size() && (j == target.size() || order.compare(items.get(end), target.get(j)) < 0)) {
+                    end++;
+                }
+                removeRange(i, end);
+            } else {
+                // A run of new rows that sort before the next current one
+                int end = j + 1;
+                while (end < target.size() && (i == items.size() || order.compare(target.get(end), items.get(i)) < 0)) {
+                    end++;
+                }
+                items.addAll(i, target.subList(j, end));
+                fireIntervalAdded(this, i, i + end - j - 1);
+                i += end - j;
+                j = end;
+            }
+        }
+        if (selected == null && !items.isEmpty()) {
+            setSelectedItem(items.get(0));
+        }
+    }
+
+    public void clear() {
+        if (items.isEmpty()) return;
+        setSelectedItem(null);
+        removeRange(0, items.size());
+    }
+
+    private void removeRange(int from, int to) {
+        if (selected != null) {
+            int index = indexOf(selected);
+            if (index >= from && index < to) {
+                setSelectedItem(from > 0 ? items.get(0) : to < items.size() ? items.get(to) : null);
+            }
+        }
+        items.subList(from, to).clear();
+        fireIntervalRemoved(this, from, to - 1);
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item == null ? selected == null : item.equals(selected)) return;
+        selected = item;
+        fireContentsChanged(this, -1, -1);
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selected;
+    }
+}
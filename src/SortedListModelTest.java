@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class SortedListModelTest {
+    private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    // Records every event the model fires as "added 2-3", "removed 0-0" or "changed"
+    private static List<String> recordEvents(SortedListModel<String> model) {
+        List<String> events = new ArrayList<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events.add("changed");
+            }
+        });
+        return events;
+    }
+
+    private static List<String> contents(SortedListModel<String> model) {
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            contents.add(model.getElementAt(i));
+        }
+        return contents;
+    }
+
+    @Test
+    public void testAddAndRemoveInPlace() {
+        System.out.println("Running testAddAndRemoveInPlace: Single changes land at their sorted index with a one-row event.");
+        SortedListModel<String> model = new SortedListModel<>(ORDER);
+        model.add("carol");
+        model.add("Alice");
+        model.add("bob");
+        assertFalse(model.add("bob"), "Duplicates are ignored");
+        assertEquals(List.of("Alice", "bob", "carol"), contents(model));
+
+        List<String> events = recordEvents(model);
+        model.add("Bea");
+        assertTrue(model.remove("carol"));
+        assertFalse(model.remove("dave"));
+        assertEquals(List.of("added 1-1", "changed", "removed 3-3"), events, "carol was selected, being added first");
+        assertEquals("Alice", model.getSelectedItem());
+        assertEquals(List.of("Alice", "Bea", "bob"), contents(model));
+        assertTrue(model.contains("bob"));
+        assertFalse(model.contains("Bob"));
+        System.out.println("testAddAndRemoveInPlace passed.");
+    }
+
+    @Test
+    public void testSetAllFiresOnlyForChangedRuns() {
+        System.out.println("Running testSetAllFiresOnlyForChangedRuns: A full list is merged in, touching only what changed.");
+        SortedListModel<String> model = new SortedListModel<>(ORDER);
+        model.setAll(List.of("m1", "m2", "m3", "m4", "m5", "m6"));
+        List<String> events = recordEvents(model);
+
+        model.setAll(List.of("m6", "m5", "m4", "m3", "m2", "m1", "m1"));
+        assertEquals(List.of(), events, "An unchanged list fires nothing");
+
+        model.setAll(List.of("m0", "m1", "m4", "m5", "m6", "m7", "m8"));
+        assertEquals(List.of("added 0-0", "removed 2-3", "added 5-6"), events);
+        assertEquals(List.of("m0", "m1", "m4", "m5", "m6", "m7", "m8"), contents(model));
+
+        model.setAll(List.of());
+        assertEquals(0, model.getSize());
+        System.out.println("testSetAllFiresOnlyForChangedRuns passed.");
+    }
+
+    @Test
+    public void testSelectionSurvivesUnlessRemoved() {
+        System.out.println("Running testSelectionSurvivesUnlessRemoved: As a combo box model, the selection moves only when its row goes.");
+        SortedListModel<String> model = new SortedListModel<>(ORDER);
+        model.setAll(List.of("a", "b", "c"));
+        assertEquals("a", model.getSelectedItem(), "The first row is selected, as in DefaultComboBoxModel");
+        model.setSelectedItem("c");
+        model.setAll(List.of("a", "c", "d"));
+        assertEquals("c", model.getSelectedItem());
+        model.setAll(List.of("a", "d"));
+        assertEquals("a", model.getSelectedItem());
+        model.setSelectedItem("d");
+        model.remove("d");
+        assertEquals("a", model.getSelectedItem());
+        model.clear();
+        assertNull(model.getSelectedItem());
+        System.out.println("testSelectionSurvivesUnlessRemoved passed.");
+    }
+}
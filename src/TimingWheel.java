@@ -0,0 +1,216 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hashed timing wheel: one worker thread and a ring of buckets, each holding the timeouts due in one tick. Scheduling and
+// cancelling cost O(1) however many timers there are, at the price of firing up to one tick late; a timeout more than a
+// turn of the wheel away stays in its bucket for the extra turns. Only the worker touches the buckets, other threads hand
+// it new and cancelled timeouts through queues. Tasks run on the worker, so they must be short and must not block
+public final class TimingWheel {
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000; // Keeps one burst of scheduling from stalling a tick
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startNanos = System.nanoTime(); // Deadlines are kept relative to this
+    private final Thread worker;
+    private final EventLog log; // Where a failing task is reported
+    private volatile boolean running = true;
+    private long tick; // Only touched by the worker
+
+    public TimingWheel(String name, long tickMillis, int ticksPerWheel, EventLog log) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1 ms");
+        }
+        if (ticksPerWheel < 1 || ticksPerWheel > 1 << 20) {
+            throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^20");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1; // A power of two, so a tick maps to its bucket with a mask
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.log = log;
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Runs the task on the worker once the delay has passed. After stop() the timeout is returned already cancelled
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay)));
+        if (!running) {
+            timeout.state.set(Timeout.CANCELLED);
+            return timeout;
+        }
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    // Timeouts scheduled but neither fired nor cancelled yet
+    public long pendingTimeouts() {
+        return pending.get();
+    }
+
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == worker;
+    }
+
+    // Drops every outstanding timeout without running it
+    public void stop() {
+        running = false;
+        if (!isWorkerThread()) {
+            worker.interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = startNanos + deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) break;
+                }
+                continue; // Woken early or not, check the time again
+            }
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    // Places newly scheduled timeouts; one already overdue lands in the current bucket and fires this tick
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() != Timeout.PENDING) continue;
+            long due = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (due - tick) / wheel.length;
+            wheel[(int) (Math.max(due, tick) & mask)].add(timeout);
+        }
+    }
+
+    // A scheduled task, which can be cancelled until it starts running
+    public final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline; // Nanoseconds after the wheel started
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Owned by the worker
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Returns false if the task already ran or was cancelled before
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) return;
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                log.error("timer_task_failed", "error", ex);
+            }
+        }
+    }
+
+    // Doubly linked list of the timeouts hashed to one tick, so a cancelled one is unlinked in O(1)
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        // Fires what is due this turn and counts down the rounds of what is due on a later one
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TimingWheelTest {
+    private final EventLog log = new EventLog(64);
+    private final TimingWheel wheel = new TimingWheel("TestTimers", 10, 8, log);
+
+    @AfterEach
+    public void cleanup() {
+        wheel.stop();
+        log.close();
+    }
+
+    @Test
+    public void testFiresAfterDelay() throws Exception {
+        System.out.println("Running testFiresAfterDelay: A timeout runs once, no earlier than its delay and within a tick or so after.");
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] firedAt = new long[1];
+        TimingWheel.Timeout timeout = wheel.schedule(() -> {
+            firedAt[0] = System.nanoTime();
+            fired.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(firedAt[0] - start);
+        assertTrue(elapsedMillis >= 50, "Fired early after " + elapsedMillis + " ms");
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel(), "A timeout that ran cannot be cancelled");
+        assertEquals(0, wheel.pendingTimeouts());
+        System.out.println("testFiresAfterDelay passed.");
+    }
+
+    @Test
+    public void testCancelledTimeoutNeverRuns() throws Exception {
+        System.out.println("Running testCancelledTimeoutNeverRuns: Cancelling before the deadline keeps the task from running.");
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timeout cancelled = wheel.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        System.out.println("testCancelledTimeoutNeverRuns passed.");
+    }
+
+    @Test
+    public void testTimeoutsBeyondOneTurnWaitTheirRounds() throws Exception {
+        System.out.println("Running testTimeoutsBeyondOneTurnWaitTheirRounds: A delay of several turns of the wheel is not fired on the first pass.");
+        // 8 ticks of 10 ms make one 80 ms turn
+        long start = System.nanoTime();
+        List<Long> firedAfter = new ArrayList<>();
+        CountDownLatch fired = new CountDownLatch(2);
+        for (int delay : new int[]{25, 265}) {
+            wheel.schedule(() -> {
+                synchronized (firedAfter) {
+                    firedAfter.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+                fired.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(firedAfter.get(0) >= 25 && firedAfter.get(1) >= 265, "Fired after " + firedAfter);
+        System.out.println("testTimeoutsBeyondOneTurnWaitTheirRounds passed.");
+    }
+
+    @Test
+    public void testManyTimers() throws Exception {
+        System.out.println("Running testManyTimers: 100k timeouts, half of them cancelled, leave nothing behind.");
+        int count = 100_000;
+        CountDownLatch fired = new CountDownLatch(count / 2);
+        AtomicInteger wrongRuns = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                wheel.schedule(fired::countDown, 200 + i % 200, TimeUnit.MILLISECONDS);
+            } else {
+                wheel.schedule(wrongRuns::incrementAndGet, 200 + i % 200, TimeUnit.MILLISECONDS).cancel();
+            }
+        }
+        assertTrue(fired.await(10, TimeUnit.SECONDS), fired.getCount() + " timeouts never fired");
+        Thread.sleep(100);
+        assertEquals(0, wrongRuns.get());
+        assertEquals(0, wheel.pendingTimeouts());
+        System.out.println("testManyTimers passed.");
+    }
+}
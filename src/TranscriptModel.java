@@ -0,0 +1,86 @@
+import javax.swing.AbstractListModel;
+import java.util.Arrays;
+import java.util.List;
+
+// The chat transcript behind ChatClientGUI's JList: the most recent rows in a fixed ring buffer, the oldest evicted as
+// new ones arrive, so a client left open for days holds the same amount of text as one opened a minute ago. Rows are
+// added a batch at a time and each batch fires at most one removal and one addition, so the list repaints once per
+// drain rather than once per message
+public class TranscriptModel extends AbstractListModel<TranscriptModel.Row> {
+    public enum Kind { CHAT, PRIVATE, CHANNEL, NOTICE }
+
+    // One display row; a long message is wrapped over several
+    public record Row(Kind kind, String text) {
+        @Override
+        public String toString() {
+            return text; // What the list's copy action puts on the clipboard
+        }
+    }
+
+    private final Row[] rows;
+    private int start; // Index in rows of the oldest row still held
+    private int size;
+    private long evicted;
+
+    public TranscriptModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Transcript capacity must be at least 1");
+        }
+        this.rows = new Row[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Row getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return rows[(start + index) % rows.length];
+    }
+
+    public int getCapacity() {
+        return rows.length;
+    }
+
+    // Rows dropped from the front so far
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public void addAll(List<Row> batch) {
+        if (batch.isEmpty()) return;
+        // Of a batch larger than the whole buffer only its tail would survive
+        List<Row> kept = batch.size() > rows.length ? batch.subList(batch.size() - rows.length, batch.size()) : batch;
+        int overflow = size + kept.size() - rows.length;
+        if (overflow > 0) {
+            evicted += overflow + (batch.size() - kept.size());
+            for (int i = 0; i < overflow; i++) {
+                rows[(start + i) % rows.length] = null;
+            }
+            start = (start + overflow) % rows.length;
+            size -= overflow;
+            fireIntervalRemoved(this, 0, overflow - 1);
+        } else {
+            evicted += batch.size() - kept.size();
+        }
+        int first = size;
+        for (Row row : kept) {
+            rows[(start + size) % rows.length] = row;
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        int removed = size;
+        Arrays.fill(rows, null);
+        start = 0;
+        size = 0;
+        fireIntervalRemoved(this, 0, removed - 1);
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TranscriptModelTest {
+    private static List<TranscriptModel.Row> rows(int from, int count) {
+        List<TranscriptModel.Row> rows = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            rows.add(new TranscriptModel.Row(TranscriptModel.Kind.CHAT, "line " + i));
+        }
+        return rows;
+    }
+
+    @Test
+    public void testEvictsOldestRows() {
+        System.out.println("Running testEvictsOldestRows: The transcript holds only its capacity, newest rows last.");
+        TranscriptModel model = new TranscriptModel(5);
+        model.addAll(rows(0, 3));
+        assertEquals(3, model.getSize());
+        assertEquals("line 0", model.getElementAt(0).text());
+
+        model.addAll(rows(3, 4));
+        assertEquals(5, model.getSize());
+        assertEquals(2, model.getEvicted());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("line " + (i + 2), model.getElementAt(i).text());
+        }
+
+        model.addAll(rows(7, 12)); // More than the whole buffer at once
+        assertEquals(5, model.getSize());
+        assertEquals(14, model.getEvicted());
+        assertEquals("line 14", model.getElementAt(0).text());
+        assertEquals("line 18", model.getElementAt(4).text());
+        assertThrows(IndexOutOfBoundsException.class, () -> model.getElementAt(5));
+
+        model.clear();
+        assertEquals(0, model.getSize());
+        System.out.println("testEvictsOldestRows passed.");
+    }
+
+    @Test
+    public void testOneEventPerChangeInBatch() {
+        System.out.println("Running testOneEventPerChangeInBatch: A batch fires at most one removal and one addition.");
+        TranscriptModel model = new TranscriptModel(100);
+        List<String> events = new ArrayList<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events.add("changed");
+            }
+        });
+        model.addAll(rows(0, 60));
+        model.addAll(rows(60, 60));
+        model.addAll(List.of());
+        assertEquals(List.of("added 0-59", "removed 0-19", "added 40-99"), events);
+        System.out.println("testOneEventPerChangeInBatch passed.");
+    }
+}